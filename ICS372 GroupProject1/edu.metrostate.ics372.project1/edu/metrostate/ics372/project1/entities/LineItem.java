@@ -0,0 +1,64 @@
+package edu.metrostate.ics372.project1.entities;
+
+import java.io.Serializable;
+
+/**
+ * One line of a checkout: a product, how many of it were bought and its price
+ * at the time, in cents.
+ *
+ */
+public class LineItem implements Serializable {
+	private static final long serialVersionUID = 1L;
+	private String productID;
+	private String productName;
+	private int quantity;
+	private long unitPrice;
+
+	/**
+	 * Creates a line for the given product at its current price
+	 * 
+	 * @param product  the product bought
+	 * @param quantity how many were bought
+	 */
+	public LineItem(Product product, int quantity) {
+		this.productID = product.getProductID();
+		this.productName = product.getProductName();
+		this.quantity = quantity;
+		this.unitPrice = product.getProductPrice();
+	}
+
+	public String getProductID() {
+		return productID;
+	}
+
+	public String getProductName() {
+		return productName;
+	}
+
+	public int getQuantity() {
+		return quantity;
+	}
+
+	/**
+	 * Returns the price of one unit
+	 * 
+	 * @return the price in cents
+	 */
+	public long getUnitPrice() {
+		return unitPrice;
+	}
+
+	/**
+	 * Returns the price of the line: the quantity times the unit price
+	 * 
+	 * @return the price in cents
+	 */
+	public long getTotal() {
+		return quantity * unitPrice;
+	}
+
+	@Override
+	public String toString() {
+		return productName + "  " + quantity + "  " + Money.format(unitPrice) + "   " + Money.format(getTotal());
+	}
+}
@@ -1,9 +1,11 @@
 package edu.metrostate.ics372.project1.entities;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.time.LocalDate;
 import java.util.Calendar;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -15,7 +17,7 @@ public class Member implements Serializable {
 	private String address;
 	private String phone;
 	private String id;
-	private Calendar date;
+	private int joinDay;
 
 	// Make the paid fee the same for each Member
 	private int fee = (int) 2.00;
@@ -37,16 +39,32 @@ public class Member implements Serializable {
 	 * @param name    name of the member
 	 * @param address address of the member
 	 * @param phone   phone number of the member
+	 * @param joinDay the day the member joined, as the number of days since
+	 *                1/1/1970
+	 * @param fees    the fee paid
 	 */
-	public Member(String name, String address, String phone, Calendar date, int fees) {
+	public Member(String name, String address, String phone, long joinDay, int fees) {
 		this.name = name;
 		this.address = address;
 		this.phone = phone;
-		this.date = date;
+		this.joinDay = (int) joinDay;
 		this.fee = fees;
 		id = MEMBER_STRING + ++idCounter;
 	}
 
+	/**
+	 * Creates a single member
+	 * 
+	 * @param name    name of the member
+	 * @param address address of the member
+	 * @param phone   phone number of the member
+	 * @param date    the date the member joined
+	 * @param fees    the fee paid
+	 */
+	public Member(String name, String address, String phone, Calendar date, int fees) {
+		this(name, address, phone, epochDay(date), fees);
+	}
+
 	/**
 	 * Issue the product to the member
 	 * 
@@ -54,11 +72,26 @@ public class Member implements Serializable {
 	 * @return true if the product could be marked as issued. always true currently
 	 */
 	public boolean issue(Product product) {
-		if (products.add(product)) {
-			transactions.add(new Transaction("Add to cart!", product.getProductName()));
-			return true;
+		return products.add(product);
+	}
+
+	/**
+	 * Checks out the given items. The total is the sum of the line totals, in
+	 * cents. The sale is added to the member's transactions and to SalesLedger.
+	 * 
+	 * @param items the items bought
+	 * @return the transaction of the sale
+	 */
+	public Transaction checkout(Iterator<LineItem> items) {
+		long total = 0;
+		while (items.hasNext()) {
+			total += items.next().getTotal();
 		}
-		return false;
+		long today = LocalDate.now().toEpochDay();
+		Transaction transaction = new Transaction(total, String.valueOf(transactions.size() + 1), today);
+		transactions.add(transaction);
+		SalesLedger.instance().record(id, today, total);
+		return transaction;
 	}
 
 	// Make the shipments for the members?
@@ -158,12 +191,21 @@ public class Member implements Serializable {
 	}
 
 	/**
-	 * Getter for Date
+	 * Getter for the join date
+	 * 
+	 * @return the number of days since 1/1/1970
+	 */
+	public long getJoinDay() {
+		return joinDay;
+	}
+
+	/**
+	 * Setter for the join date
 	 * 
-	 * @return date
+	 * @param joinDay member's join date as the number of days since 1/1/1970
 	 */
-	public Calendar getDate() {
-		return date;
+	public void setJoinDay(long joinDay) {
+		this.joinDay = (int) joinDay;
 	}
 
 	/**
@@ -172,7 +214,38 @@ public class Member implements Serializable {
 	 * @param date member's join date
 	 */
 	public void setDate(Calendar date) {
-		this.date = date;
+		joinDay = (int) epochDay(date);
+	}
+
+	/*
+	 * Converts the year, month and day of a date to the number of days since
+	 * 1/1/1970
+	 */
+	private static long epochDay(Calendar date) {
+		return LocalDate.of(date.get(Calendar.YEAR), date.get(Calendar.MONTH) + 1, date.get(Calendar.DATE))
+				.toEpochDay();
+	}
+
+	/*
+	 * Data saved before the join date was kept as a day has a Calendar in the
+	 * date field instead.
+	 */
+	@SuppressWarnings("unchecked")
+	private void readObject(ObjectInputStream input) throws IOException, ClassNotFoundException {
+		ObjectInputStream.GetField fields = input.readFields();
+		name = (String) fields.get("name", null);
+		address = (String) fields.get("address", null);
+		phone = (String) fields.get("phone", null);
+		id = (String) fields.get("id", null);
+		fee = fields.get("fee", 0);
+		products = (List<Product>) fields.get("products", null);
+		transactions = (List<Transaction>) fields.get("transactions", null);
+		if (fields.getObjectStreamClass().getField("date") != null) {
+			Calendar date = (Calendar) fields.get("date", null);
+			joinDay = date == null ? 0 : (int) epochDay(date);
+		} else {
+			joinDay = fields.get("joinDay", 0);
+		}
 	}
 
 	/**
@@ -230,12 +303,34 @@ public class Member implements Serializable {
 		return result;
 	}
 
+	/**
+	 * Writes the member id counter and the SalesLedger, which are not part of
+	 * any member
+	 * 
+	 * @param output the stream
+	 * @throws IOException if the stream cannot be written
+	 */
 	public static void save(ObjectOutputStream output) throws IOException {
 		output.writeObject(idCounter);
+		output.writeObject(SalesLedger.instance());
 	}
 
+	/**
+	 * Reads what save wrote. The ledger read becomes the singleton. Data saved
+	 * before the ledger was kept ends after the id counter and leaves the
+	 * ledger as it is.
+	 * 
+	 * @param input the stream
+	 * @throws IOException            if the stream cannot be read
+	 * @throws ClassNotFoundException if a class of the data cannot be found
+	 */
 	public static void retrieve(ObjectInputStream input) throws IOException, ClassNotFoundException {
 		idCounter = (int) input.readObject();
+		try {
+			input.readObject();
+		} catch (EOFException eofe) {
+			// saved before the ledger was kept
+		}
 	}
 
 	/**
@@ -245,7 +340,7 @@ public class Member implements Serializable {
 	@Override
 	public String toString() {
 		String string = "Member Name: " + name + ", Address: " + address + ", Phone: " + phone + ", MemberID: " + id
-				+ ", Date Joined: " + this.date + ", Amount Fee: " + fee;
+				+ ", Date Joined: " + LocalDate.ofEpochDay(joinDay) + ", Amount Fee: " + fee;
 		string += " Purchased: [";
 		for (Iterator iterator = products.iterator(); iterator.hasNext();) {
 			Product product = (Product) iterator.next();
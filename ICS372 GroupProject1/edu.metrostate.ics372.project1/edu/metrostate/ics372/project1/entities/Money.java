@@ -0,0 +1,39 @@
+package edu.metrostate.ics372.project1.entities;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Converts amounts of money between whole cents, the way they are stored, and
+ * the dollar Strings that are typed in and printed. Amounts are parsed once,
+ * when they are entered, so totals are sums of longs.
+ *
+ */
+public final class Money {
+	private Money() {
+	}
+
+	/**
+	 * Converts a dollar amount such as "12.5" or "3" to cents. Fractions of a
+	 * cent are rounded half up.
+	 * 
+	 * @param dollars the amount in dollars
+	 * @return the amount in cents
+	 * @throws NumberFormatException if the String is not a number
+	 */
+	public static long parse(String dollars) {
+		return new BigDecimal(dollars.trim()).setScale(2, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+	}
+
+	/**
+	 * Formats an amount in cents as dollars with two decimals, such as "12.50"
+	 * 
+	 * @param cents the amount in cents
+	 * @return the amount in dollars
+	 */
+	public static String format(long cents) {
+		long whole = Math.abs(cents / 100);
+		long fraction = Math.abs(cents % 100);
+		return (cents < 0 ? "-" : "") + whole + (fraction < 10 ? ".0" : ".") + fraction;
+	}
+}
@@ -1,25 +1,27 @@
 package edu.metrostate.ics372.project1.entities;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 
 public class Product implements Serializable {
 	private static final long serialVersionUID = 1L;
 	private String productName;
 	private String productID;
-	private int productPrice;
+	private long price;
 	private int productReorder;
 
 	/**
 	 * 
 	 * @param name  Product Name
 	 * @param id    Product ID
-	 * @param price Product Price
+	 * @param price Product Price in cents
 	 * @param order Product Minimum Reorder
 	 */
-	public Product(String name, String id, int price, int reorder) {
+	public Product(String name, String id, long price, int reorder) {
 		this.productName = name;
 		this.productID = id;
-		this.productPrice = price;
+		this.price = price;
 		this.productReorder = reorder;
 	}
 
@@ -39,12 +41,22 @@ public class Product implements Serializable {
 		this.productID = productID;
 	}
 
-	public int getProductPrice() {
-		return productPrice;
+	/**
+	 * Get the Product Price
+	 * 
+	 * @return the price in cents
+	 */
+	public long getProductPrice() {
+		return price;
 	}
 
-	public void setProductPrice(int productPrice) {
-		this.productPrice = productPrice;
+	/**
+	 * Set the Product Price
+	 * 
+	 * @param price the price in cents
+	 */
+	public void setProductPrice(long price) {
+		this.price = price;
 	}
 
 	/**
@@ -90,8 +102,24 @@ public class Product implements Serializable {
 		return result;
 	}
 
+	/*
+	 * Data saved before prices were kept in cents has a whole dollar price in the
+	 * productPrice field instead.
+	 */
+	private void readObject(ObjectInputStream input) throws IOException, ClassNotFoundException {
+		ObjectInputStream.GetField fields = input.readFields();
+		productName = (String) fields.get("productName", null);
+		productID = (String) fields.get("productID", null);
+		productReorder = fields.get("productReorder", 0);
+		if (fields.getObjectStreamClass().getField("productPrice") != null) {
+			price = fields.get("productPrice", 0) * 100L;
+		} else {
+			price = fields.get("price", 0L);
+		}
+	}
+
 	public String toString() {
-		return "Product Name: " + productName + "Product ID: " + productID + "Product Price: " + productPrice
+		return "Product Name: " + productName + "Product ID: " + productID + "Product Price: " + Money.format(price)
 				+ "Minimum Reorder Level: " + productReorder;
 	}
 
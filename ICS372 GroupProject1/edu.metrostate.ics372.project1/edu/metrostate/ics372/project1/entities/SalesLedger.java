@@ -0,0 +1,249 @@
+package edu.metrostate.ics372.project1.entities;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The store-wide record of checkout totals, kept in primitive arrays so that
+ * sums never parse or box anything. Each sale is one row: the day, the member
+ * and the total in cents. Alongside the totals the ledger keeps their running
+ * sum, so the total of any range of rows is one subtraction.
+ * 
+ * The rows are kept in order of day, so the rows of a range of days are found
+ * by a binary search on the day; the total and count of sales over any range of
+ * days then cost a logarithm. Sales are mostly recorded in time order and are
+ * then appended; one dated before the last is inserted among the rows of its
+ * day, which moves the rows after it. The total and count of each member are
+ * kept as the sales are recorded.
+ * 
+ * The ledger is saved and retrieved with the member id counter (see
+ * Member.save and Member.retrieve).
+ *
+ */
+public class SalesLedger implements Serializable {
+	private static final long serialVersionUID = 1L;
+	private static final int INITIAL_CAPACITY = 16;
+	private static SalesLedger salesLedger;
+	private int[] days = new int[INITIAL_CAPACITY];
+	private int[] members = new int[INITIAL_CAPACITY];
+	private long[] totals = new long[INITIAL_CAPACITY];
+	private int size;
+	private String[] memberIds = new String[INITIAL_CAPACITY];
+	private int memberCount;
+	private transient long[] runningTotals;
+	private transient long[] memberTotals;
+	private transient int[] memberSales;
+	private transient Map<String, Integer> memberCodes;
+
+	/**
+	 * Private constructor to create singleton
+	 */
+	private SalesLedger() {
+		rebuild();
+	}
+
+	/**
+	 * SalesLedger Singleton
+	 * 
+	 * @return the SalesLedger singleton object
+	 */
+	public static SalesLedger instance() {
+		if (salesLedger == null) {
+			salesLedger = new SalesLedger();
+		}
+		return salesLedger;
+	}
+
+	/**
+	 * Records a sale, after the sales recorded earlier for the same day
+	 * 
+	 * @param memberId the member who bought
+	 * @param epochDay the day as the number of days since 1/1/1970
+	 * @param total    the total in cents
+	 */
+	public void record(String memberId, long epochDay, long total) {
+		if (size == days.length) {
+			int capacity = size + (size >> 1);
+			days = Arrays.copyOf(days, capacity);
+			members = Arrays.copyOf(members, capacity);
+			totals = Arrays.copyOf(totals, capacity);
+			runningTotals = Arrays.copyOf(runningTotals, capacity + 1);
+		}
+		int member = encode(memberId);
+		int row = size;
+		if (size > 0 && epochDay < days[size - 1]) {
+			row = firstOnOrAfter(epochDay + 1);
+			System.arraycopy(days, row, days, row + 1, size - row);
+			System.arraycopy(members, row, members, row + 1, size - row);
+			System.arraycopy(totals, row, totals, row + 1, size - row);
+		}
+		days[row] = (int) epochDay;
+		members[row] = member;
+		totals[row] = total;
+		for (int next = row; next <= size; next++) {
+			runningTotals[next + 1] = runningTotals[next] + totals[next];
+		}
+		memberTotals[member] += total;
+		memberSales[member]++;
+		size++;
+	}
+
+	/**
+	 * Returns the sum of the sales of a member
+	 * 
+	 * @param memberId the member
+	 * @return the total in cents
+	 */
+	public long getTotal(String memberId) {
+		Integer member = memberCodes.get(memberId);
+		return member == null ? 0 : memberTotals[member];
+	}
+
+	/**
+	 * Returns the number of sales of a member
+	 * 
+	 * @param memberId the member
+	 * @return the number of sales
+	 */
+	public int getCount(String memberId) {
+		Integer member = memberCodes.get(memberId);
+		return member == null ? 0 : memberSales[member];
+	}
+
+	/**
+	 * Returns the sum of the sales of all members from one day through another
+	 * 
+	 * @param fromDay the first day
+	 * @param toDay   the last day
+	 * @return the total in cents
+	 */
+	public long getTotal(long fromDay, long toDay) {
+		return runningTotals[firstOnOrAfter(toDay + 1)] - runningTotals[firstOnOrAfter(fromDay)];
+	}
+
+	/**
+	 * Returns the number of sales of all members from one day through another
+	 * 
+	 * @param fromDay the first day
+	 * @param toDay   the last day
+	 * @return the number of sales
+	 */
+	public int getCount(long fromDay, long toDay) {
+		return Math.max(0, firstOnOrAfter(toDay + 1) - firstOnOrAfter(fromDay));
+	}
+
+	/**
+	 * Returns the sum of each member's sales from one day through another. This
+	 * reads every sale in the range once.
+	 * 
+	 * @param fromDay the first day
+	 * @param toDay   the last day
+	 * @return the total in cents for every member who bought in the range
+	 */
+	public Map<String, Long> getTotalsByMember(long fromDay, long toDay) {
+		long[] sums = new long[memberCount];
+		boolean[] bought = new boolean[memberCount];
+		for (int row = firstOnOrAfter(fromDay), end = firstOnOrAfter(toDay + 1); row < end; row++) {
+			sums[members[row]] += totals[row];
+			bought[members[row]] = true;
+		}
+		Map<String, Long> result = new HashMap<String, Long>();
+		for (int member = 0; member < memberCount; member++) {
+			if (bought[member]) {
+				result.put(memberIds[member], sums[member]);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the number of sales recorded
+	 * 
+	 * @return the number of sales
+	 */
+	public int size() {
+		return size;
+	}
+
+	/*
+	 * Returns the first row whose day is not before the given day
+	 */
+	private int firstOnOrAfter(long epochDay) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (days[middle] < epochDay) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	private int encode(String memberId) {
+		Integer code = memberCodes.get(memberId);
+		if (code == null) {
+			if (memberCount == memberIds.length) {
+				int capacity = memberCount + (memberCount >> 1);
+				memberIds = Arrays.copyOf(memberIds, capacity);
+				memberTotals = Arrays.copyOf(memberTotals, capacity);
+				memberSales = Arrays.copyOf(memberSales, capacity);
+			}
+			code = memberCount++;
+			memberIds[code] = memberId;
+			memberCodes.put(memberId, code);
+		}
+		return code;
+	}
+
+	/*
+	 * Computes the running totals and the sums of each member from the rows
+	 */
+	private void rebuild() {
+		runningTotals = new long[days.length + 1];
+		memberTotals = new long[memberIds.length];
+		memberSales = new int[memberIds.length];
+		memberCodes = new HashMap<String, Integer>();
+		for (int member = 0; member < memberCount; member++) {
+			memberCodes.put(memberIds[member], member);
+		}
+		for (int row = 0; row < size; row++) {
+			runningTotals[row + 1] = runningTotals[row] + totals[row];
+			memberTotals[members[row]] += totals[row];
+			memberSales[members[row]]++;
+		}
+	}
+
+	/*
+	 * The unused capacity of the columns is not written.
+	 */
+	private void writeObject(ObjectOutputStream output) throws IOException {
+		days = Arrays.copyOf(days, Math.max(size, INITIAL_CAPACITY));
+		members = Arrays.copyOf(members, days.length);
+		totals = Arrays.copyOf(totals, days.length);
+		runningTotals = Arrays.copyOf(runningTotals, days.length + 1);
+		output.defaultWriteObject();
+	}
+
+	/*
+	 * The running totals and the member sums are rebuilt from the rows. The
+	 * retrieved ledger becomes the singleton.
+	 */
+	private void readObject(ObjectInputStream input) throws IOException, ClassNotFoundException {
+		input.defaultReadObject();
+		rebuild();
+		salesLedger = this;
+	}
+
+	@Override
+	public String toString() {
+		return "Sales: " + size + ", Total: " + Money.format(runningTotals[size]);
+	}
+}
@@ -1,8 +1,10 @@
 package edu.metrostate.ics372.project1.entities;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.time.LocalDate;
 import java.util.Calendar;
-import java.util.GregorianCalendar;
 
 /**
  * Represent a single Transaction (User visited the store, total price paid
@@ -13,22 +15,34 @@ import java.util.GregorianCalendar;
  */
 public class Transaction implements Serializable {
 	private static final long serialVersionUID = 1L;
-	private String total;
+	private long totalCents;
 	private String visited;
-	private Calendar date;
+	private int epochDay;
+	private transient String date;
 
 	/**
 	 * Creates the transaction with the member visited the store and how much they
 	 * invested. The date is the current date.
 	 * 
-	 * @param type  The type of transaction
-	 * @param title The title of the book
+	 * @param total   The amount spent in cents
+	 * @param visited The number of visits
 	 * 
 	 */
-	public Transaction(String total, String visited) {
-		this.total = total;
+	public Transaction(long total, String visited) {
+		this(total, visited, LocalDate.now().toEpochDay());
+	}
+
+	/**
+	 * Creates the transaction with the amount spent, the visits and the day
+	 * 
+	 * @param total    The amount spent in cents
+	 * @param visited  The number of visits
+	 * @param epochDay The day as the number of days since 1/1/1970
+	 */
+	public Transaction(long total, String visited, long epochDay) {
+		this.totalCents = total;
 		this.visited = visited;
-		date = new GregorianCalendar();
+		this.epochDay = (int) epochDay;
 	}
 
 	/**
@@ -38,18 +52,25 @@ public class Transaction implements Serializable {
 	 * @return true if the dates match
 	 */
 	public boolean onDate(Calendar date) {
-		return ((date.get(Calendar.YEAR) == this.date.get(Calendar.YEAR))
-				&& (date.get(Calendar.MONTH) == this.date.get(Calendar.MONTH))
-				&& (date.get(Calendar.DATE) == this.date.get(Calendar.DATE)));
+		return epochDay(date) == epochDay;
+	}
+
+	/**
+	 * Returns the day of the transaction as the number of days since 1/1/1970
+	 * 
+	 * @return the epoch day of the transaction
+	 */
+	public long getEpochDay() {
+		return epochDay;
 	}
 
 	/**
 	 * Return the total field
 	 * 
-	 * @return total field
+	 * @return total field in cents
 	 */
-	public String getTotal() {
-		return total;
+	public long getTotal() {
+		return totalCents;
 	}
 
 	/**
@@ -62,12 +83,51 @@ public class Transaction implements Serializable {
 	}
 
 	/**
-	 * Returns the date as a String
+	 * Returns the date as a String. As before, months are numbered from 0, the
+	 * way Calendar numbers them. The String is made on the first call.
 	 * 
 	 * @return date with month, date, and year
 	 */
 	public String getDate() {
-		return date.get(Calendar.MONTH) + "/" + date.get(Calendar.DATE) + "/" + date.get(Calendar.YEAR);
+		if (date == null) {
+			LocalDate day = LocalDate.ofEpochDay(epochDay);
+			date = (day.getMonthValue() - 1) + "/" + day.getDayOfMonth() + "/" + day.getYear();
+		}
+		return date;
+	}
+
+	/*
+	 * Converts the year, month and day of a date to the number of days since
+	 * 1/1/1970
+	 */
+	private static long epochDay(Calendar date) {
+		return LocalDate.of(date.get(Calendar.YEAR), date.get(Calendar.MONTH) + 1, date.get(Calendar.DATE))
+				.toEpochDay();
+	}
+
+	/*
+	 * Data saved before dates were kept as days has a Calendar in the date field
+	 * instead. Data saved before totals were kept in cents has a String in the
+	 * total field; a total that is not a number is read as 0.
+	 */
+	private void readObject(ObjectInputStream input) throws IOException, ClassNotFoundException {
+		ObjectInputStream.GetField fields = input.readFields();
+		if (fields.getObjectStreamClass().getField("total") != null) {
+			String total = (String) fields.get("total", null);
+			try {
+				totalCents = total == null ? 0 : Money.parse(total);
+			} catch (NumberFormatException nfe) {
+				totalCents = 0;
+			}
+		} else {
+			totalCents = fields.get("totalCents", 0L);
+		}
+		visited = (String) fields.get("visited", null);
+		if (fields.getObjectStreamClass().getField("date") != null) {
+			epochDay = (int) epochDay((Calendar) fields.get("date", null));
+		} else {
+			epochDay = fields.get("epochDay", 0);
+		}
 	}
 
 	/**
@@ -76,6 +136,7 @@ public class Transaction implements Serializable {
 	 */
 	@Override
 	public String toString() {
-		return ("Amount of Money You Spend:$ " + total + "   " + "Amount of Time You Visited: " + visited);
+		return ("Amount of Money You Spend:$ " + Money.format(totalCents) + "   " + "Amount of Time You Visited: "
+				+ visited);
 	}
 }
@@ -0,0 +1,683 @@
+package org.oobook.libraryv1.business.collections;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * A B+tree in a file, from string keys to byte arrays, read and written a page
+ * at a time through a BufferPool. The first page holds the number of the root,
+ * the number of pages, the number of entries and the first free page. Every
+ * other page is a node, an overflow page or free.
+ *
+ * A node has a header (the kind of node, the number of cells, a page number and
+ * where the cells start), an array of the offsets of its cells sorted by key,
+ * and the cells themselves at the end of the page. The cells of a leaf are a
+ * key with its value, and the page number of a leaf is the next leaf, so the
+ * leaves form a list in key order. The cells of an inner node are a key with
+ * the page of the keys from that key on; the page number in the header is the
+ * page of the keys before the first key. Keys are compared as their UTF-8
+ * bytes, and are no longer than MAXIMUM_KEY bytes unless the tree is opened
+ * with a longer limit. A value longer than MAXIMUM_INLINE bytes is kept in a
+ * chain of overflow pages, and the leaf has the number of the first.
+ *
+ * A node that becomes too full is split in two by size, and the first key of
+ * the new node is added to the parent, which may split in turn. Removing an
+ * entry does not merge nodes, so a node may be left empty; the pages of
+ * overflow chains that are no longer used are reused.
+ *
+ * The tree is not thread-safe.
+ *
+ */
+class BTree {
+	static final int PAGE_SIZE = 4096;
+	static final int MAXIMUM_KEY = 256;
+	private static final int MAXIMUM_INLINE = 1024;
+	private static final int MAGIC = 0x42545245;
+	private static final byte LEAF = 1;
+	private static final byte INNER = 2;
+	private static final int NODE_HEADER = 9;
+	private static final int OVERFLOW_HEADER = 2 * Integer.BYTES;
+	private final BufferPool pool;
+	private final int maximumKey;
+	private int root;
+	private int pageCount;
+	private int size;
+	private int freePage;
+	private int modifications;
+
+	/**
+	 * Opens the tree in the file, creating an empty tree if the file is empty
+	 *
+	 * @param channel     the file
+	 * @param cachedPages the number of pages kept in memory
+	 * @throws IOException if the file cannot be read or is not a tree
+	 */
+	BTree(FileChannel channel, int cachedPages) throws IOException {
+		this(channel, cachedPages, MAXIMUM_KEY);
+	}
+
+	/**
+	 * Opens the tree in the file as the other constructor does, with keys of up
+	 * to the given number of bytes. A node must hold at least two cells of the
+	 * longest key and the longest value kept in a leaf, which limits the length
+	 * to about a quarter of a page.
+	 *
+	 * @param channel     the file
+	 * @param cachedPages the number of pages kept in memory
+	 * @param maximumKey  the longest key in bytes
+	 * @throws IOException if the file cannot be read or is not a tree
+	 */
+	BTree(FileChannel channel, int cachedPages, int maximumKey) throws IOException {
+		if (maximumKey < 1 || NODE_HEADER
+				+ 2 * (2 * Short.BYTES + maximumKey + Integer.BYTES + MAXIMUM_INLINE) > PAGE_SIZE) {
+			throw new IllegalArgumentException("invalid length of key: " + maximumKey);
+		}
+		this.maximumKey = maximumKey;
+		pool = new BufferPool(channel, PAGE_SIZE, cachedPages);
+		if (channel.size() == 0) {
+			pageCount = 2;
+			root = 1;
+			BufferPool.Page page = pool.create(root);
+			writeNode(page, LEAF, 0, new ArrayList<byte[]>());
+			pool.unpin(page);
+			writeHeader();
+			return;
+		}
+		BufferPool.Page header = pool.pin(0);
+		try {
+			if (header.data.getInt(0) != MAGIC) {
+				throw new IOException("not a B+tree file");
+			}
+			root = header.data.getInt(4);
+			pageCount = header.data.getInt(8);
+			size = header.data.getInt(12);
+			freePage = header.data.getInt(16);
+		} finally {
+			pool.unpin(header);
+		}
+	}
+
+	/**
+	 * Returns the value of the key
+	 *
+	 * @param key the key
+	 * @return the value, or null if the key is not in the tree
+	 * @throws IOException if a page cannot be read
+	 */
+	byte[] get(String key) throws IOException {
+		byte[] bytes = encode(key);
+		BufferPool.Page page = pool.pin(findLeaf(bytes, null));
+		try {
+			int index = search(page.data, bytes);
+			return index < 0 ? null : value(page.data, cellOffset(page.data, index));
+		} finally {
+			pool.unpin(page);
+		}
+	}
+
+	/**
+	 * Sets the value of the key, adding the key if it is not in the tree
+	 *
+	 * @param key   the key
+	 * @param value the value
+	 * @throws IOException if a page cannot be read or written
+	 */
+	void put(String key, byte[] value) throws IOException {
+		byte[] bytes = encode(key);
+		int[] path = new int[height()];
+		int leaf = findLeaf(bytes, path);
+		byte[] cell = leafCell(bytes, value);
+		BufferPool.Page page = pool.pin(leaf);
+		List<byte[]> cells;
+		int link;
+		int index;
+		try {
+			cells = cells(page.data);
+			link = page.data.getInt(3);
+			index = search(page.data, bytes);
+			if (index >= 0) {
+				freeOverflow(cells.get(index));
+				cells.set(index, cell);
+			} else {
+				index = -index - 1;
+				cells.add(index, cell);
+				size++;
+			}
+			if (fits(cells)) {
+				writeNode(page, LEAF, link, cells);
+				modifications++;
+				writeHeader();
+				return;
+			}
+		} finally {
+			pool.unpin(page);
+		}
+		split(path, path.length - 1, leaf, LEAF, link, cells);
+		modifications++;
+		writeHeader();
+	}
+
+	/**
+	 * Removes the key
+	 *
+	 * @param key the key
+	 * @return true iff the key was in the tree
+	 * @throws IOException if a page cannot be read or written
+	 */
+	boolean remove(String key) throws IOException {
+		byte[] bytes = encode(key);
+		BufferPool.Page page = pool.pin(findLeaf(bytes, null));
+		try {
+			int index = search(page.data, bytes);
+			if (index < 0) {
+				return false;
+			}
+			List<byte[]> cells = cells(page.data);
+			freeOverflow(cells.remove(index));
+			writeNode(page, LEAF, page.data.getInt(3), cells);
+		} finally {
+			pool.unpin(page);
+		}
+		size--;
+		modifications++;
+		writeHeader();
+		return true;
+	}
+
+	/**
+	 * Returns the number of keys
+	 *
+	 * @return the number of keys
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the keys and their values in key order. The leaves are read one at
+	 * a time as the iterator gets to them. If the tree changes while the
+	 * iterator is in use, it goes on with the keys after the last one it
+	 * returned.
+	 *
+	 * @return iterator to the entries
+	 */
+	Iterator<Map.Entry<String, byte[]>> entries() {
+		return new EntryIterator(null);
+	}
+
+	/**
+	 * Returns the keys from the given one on and their values in key order, as
+	 * entries does. Only the leaves from the one where the key belongs are
+	 * read.
+	 *
+	 * @param from the first key, which need not be in the tree
+	 * @return iterator to the entries
+	 */
+	Iterator<Map.Entry<String, byte[]>> entries(String from) {
+		return new EntryIterator(encode(from));
+	}
+
+	/**
+	 * Writes every changed page to the file
+	 *
+	 * @throws IOException if a page cannot be written
+	 */
+	void flush() throws IOException {
+		pool.flush();
+	}
+
+	BufferPool getPool() {
+		return pool;
+	}
+
+	/*
+	 * Returns the leaf where the key belongs, filling in the path of inner nodes
+	 * from the root if one is given
+	 */
+	private int findLeaf(byte[] key, int[] path) throws IOException {
+		int number = root;
+		for (int depth = 0;; depth++) {
+			BufferPool.Page page = pool.pin(number);
+			try {
+				if (page.data.get(0) == LEAF) {
+					return number;
+				}
+				if (path != null) {
+					path[depth] = number;
+				}
+				number = child(page.data, search(page.data, key));
+			} finally {
+				pool.unpin(page);
+			}
+		}
+	}
+
+	/*
+	 * The number of inner nodes on the way from the root to a leaf
+	 */
+	private int height() throws IOException {
+		int height = 0;
+		for (int number = root;; height++) {
+			BufferPool.Page page = pool.pin(number);
+			try {
+				if (page.data.get(0) == LEAF) {
+					return height;
+				}
+				number = page.data.getInt(3);
+			} finally {
+				pool.unpin(page);
+			}
+		}
+	}
+
+	/*
+	 * Splits a node whose cells no longer fit in its page, and adds the first key
+	 * of the new node to the parent, at the given depth of the path
+	 */
+	private void split(int[] path, int depth, int number, byte kind, int link, List<byte[]> cells)
+			throws IOException {
+		int total = 0;
+		for (byte[] cell : cells) {
+			total += cell.length + Short.BYTES;
+		}
+		int middle = 0;
+		for (int half = 0; middle < cells.size() - 1 && half < total / 2; middle++) {
+			half += cells.get(middle).length + Short.BYTES;
+		}
+		middle = Math.max(middle, 1);
+		int right = allocate();
+		byte[] separator;
+		BufferPool.Page rightPage = pool.create(right);
+		BufferPool.Page leftPage = pool.pin(number);
+		try {
+			List<byte[]> leftCells = new ArrayList<byte[]>(cells.subList(0, middle));
+			if (kind == LEAF) {
+				List<byte[]> rightCells = new ArrayList<byte[]>(cells.subList(middle, cells.size()));
+				separator = key(cells.get(middle));
+				writeNode(rightPage, LEAF, link, rightCells);
+				writeNode(leftPage, LEAF, right, leftCells);
+			} else {
+				List<byte[]> rightCells = new ArrayList<byte[]>(cells.subList(middle + 1, cells.size()));
+				separator = key(cells.get(middle));
+				writeNode(rightPage, INNER, child(cells.get(middle)), rightCells);
+				writeNode(leftPage, INNER, link, leftCells);
+			}
+		} finally {
+			pool.unpin(leftPage);
+			pool.unpin(rightPage);
+		}
+		byte[] cell = innerCell(separator, right);
+		if (depth < 0) {
+			int newRoot = allocate();
+			BufferPool.Page page = pool.create(newRoot);
+			List<byte[]> rootCells = new ArrayList<byte[]>();
+			rootCells.add(cell);
+			writeNode(page, INNER, number, rootCells);
+			pool.unpin(page);
+			root = newRoot;
+			return;
+		}
+		BufferPool.Page parent = pool.pin(path[depth]);
+		List<byte[]> parentCells;
+		int parentLink;
+		try {
+			parentCells = cells(parent.data);
+			parentLink = parent.data.getInt(3);
+			parentCells.add(-search(parent.data, separator) - 1, cell);
+			if (fits(parentCells)) {
+				writeNode(parent, INNER, parentLink, parentCells);
+				return;
+			}
+		} finally {
+			pool.unpin(parent);
+		}
+		split(path, depth - 1, path[depth], INNER, parentLink, parentCells);
+	}
+
+	/*
+	 * Returns the index of the cell with the key, or -(the index where it
+	 * belongs) - 1
+	 */
+	private static int search(ByteBuffer data, byte[] key) {
+		int low = 0;
+		int high = (data.getShort(1) & 0xFFFF) - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int comparison = compare(data, cellOffset(data, middle), key);
+			if (comparison < 0) {
+				low = middle + 1;
+			} else if (comparison > 0) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -low - 1;
+	}
+
+	/*
+	 * Returns the child of an inner node for the result of a search
+	 */
+	private static int child(ByteBuffer data, int index) {
+		if (index < 0) {
+			index = -index - 2;
+		}
+		if (index < 0) {
+			return data.getInt(3);
+		}
+		int offset = cellOffset(data, index);
+		return data.getInt(offset + Short.BYTES + data.getShort(offset));
+	}
+
+	private static int cellOffset(ByteBuffer data, int index) {
+		return data.getShort(NODE_HEADER + index * Short.BYTES) & 0xFFFF;
+	}
+
+	private static int compare(ByteBuffer data, int offset, byte[] key) {
+		int length = data.getShort(offset);
+		int start = offset + Short.BYTES;
+		for (int index = 0; index < Math.min(length, key.length); index++) {
+			int difference = (data.get(start + index) & 0xFF) - (key[index] & 0xFF);
+			if (difference != 0) {
+				return difference;
+			}
+		}
+		return length - key.length;
+	}
+
+	/*
+	 * Reads the cells of a node, in order
+	 */
+	private static List<byte[]> cells(ByteBuffer data) {
+		int count = data.getShort(1) & 0xFFFF;
+		boolean leaf = data.get(0) == LEAF;
+		List<byte[]> cells = new ArrayList<byte[]>(count + 1);
+		for (int index = 0; index < count; index++) {
+			int offset = cellOffset(data, index);
+			int length = Short.BYTES + data.getShort(offset) + Integer.BYTES;
+			if (leaf) {
+				int valueLength = data.getInt(offset + length - Integer.BYTES);
+				length += valueLength > MAXIMUM_INLINE ? Integer.BYTES : valueLength;
+			}
+			byte[] cell = new byte[length];
+			data.get(offset, cell);
+			cells.add(cell);
+		}
+		return cells;
+	}
+
+	private static boolean fits(List<byte[]> cells) {
+		int total = NODE_HEADER;
+		for (byte[] cell : cells) {
+			total += cell.length + Short.BYTES;
+		}
+		return total <= PAGE_SIZE;
+	}
+
+	/*
+	 * Writes the cells to the page, packed at its end
+	 */
+	private static void writeNode(BufferPool.Page page, byte kind, int link, List<byte[]> cells) {
+		ByteBuffer data = page.data;
+		data.put(0, kind);
+		data.putShort(1, (short) cells.size());
+		data.putInt(3, link);
+		int offset = PAGE_SIZE;
+		for (int index = 0; index < cells.size(); index++) {
+			byte[] cell = cells.get(index);
+			offset -= cell.length;
+			data.put(offset, cell);
+			data.putShort(NODE_HEADER + index * Short.BYTES, (short) offset);
+		}
+		data.putShort(7, (short) offset);
+		page.markDirty();
+	}
+
+	private static byte[] key(byte[] cell) {
+		return Arrays.copyOfRange(cell, Short.BYTES, Short.BYTES + ByteBuffer.wrap(cell).getShort(0));
+	}
+
+	private static int child(byte[] cell) {
+		return ByteBuffer.wrap(cell).getInt(cell.length - Integer.BYTES);
+	}
+
+	/**
+	 * Checks whether the string can be a key, that is, whether it is no longer
+	 * than MAXIMUM_KEY bytes in UTF-8
+	 *
+	 * @param key the string
+	 * @return true iff the string can be a key
+	 */
+	static boolean isValidKey(String key) {
+		return key != null && key.getBytes(StandardCharsets.UTF_8).length <= MAXIMUM_KEY;
+	}
+
+	private byte[] encode(String key) {
+		byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length > maximumKey) {
+			throw new IllegalArgumentException("key longer than " + maximumKey + " bytes: " + key);
+		}
+		return bytes;
+	}
+
+	private static byte[] innerCell(byte[] key, int child) {
+		ByteBuffer cell = ByteBuffer.allocate(Short.BYTES + key.length + Integer.BYTES);
+		cell.putShort((short) key.length).put(key).putInt(child);
+		return cell.array();
+	}
+
+	/*
+	 * Makes the cell of a leaf, writing the value to overflow pages if it is too
+	 * long to be kept in the leaf
+	 */
+	private byte[] leafCell(byte[] key, byte[] value) throws IOException {
+		boolean inline = value.length <= MAXIMUM_INLINE;
+		ByteBuffer cell = ByteBuffer
+				.allocate(Short.BYTES + key.length + Integer.BYTES + (inline ? value.length : Integer.BYTES));
+		cell.putShort((short) key.length).put(key).putInt(value.length);
+		if (inline) {
+			cell.put(value);
+		} else {
+			cell.putInt(writeOverflow(value));
+		}
+		return cell.array();
+	}
+
+	/*
+	 * Reads the value of the cell at the offset of a leaf
+	 */
+	private byte[] value(ByteBuffer data, int offset) throws IOException {
+		int position = offset + Short.BYTES + data.getShort(offset);
+		int length = data.getInt(position);
+		position += Integer.BYTES;
+		byte[] value = new byte[length];
+		if (length <= MAXIMUM_INLINE) {
+			data.get(position, value);
+			return value;
+		}
+		int filled = 0;
+		for (int number = data.getInt(position); filled < length;) {
+			BufferPool.Page page = pool.pin(number);
+			try {
+				int count = page.data.getInt(Integer.BYTES);
+				page.data.get(OVERFLOW_HEADER, value, filled, count);
+				filled += count;
+				number = page.data.getInt(0);
+			} finally {
+				pool.unpin(page);
+			}
+		}
+		return value;
+	}
+
+	private int writeOverflow(byte[] value) throws IOException {
+		int capacity = PAGE_SIZE - OVERFLOW_HEADER;
+		int next = 0;
+		for (int end = value.length; end > 0;) {
+			int start = (end - 1) / capacity * capacity;
+			int number = allocate();
+			BufferPool.Page page = pool.create(number);
+			page.data.putInt(0, next);
+			page.data.putInt(Integer.BYTES, end - start);
+			page.data.put(OVERFLOW_HEADER, value, start, end - start);
+			pool.unpin(page);
+			next = number;
+			end = start;
+		}
+		return next;
+	}
+
+	/*
+	 * Frees the overflow pages of a leaf cell, if it has any
+	 */
+	private void freeOverflow(byte[] cell) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(cell);
+		int position = Short.BYTES + buffer.getShort(0);
+		if (buffer.getInt(position) <= MAXIMUM_INLINE) {
+			return;
+		}
+		for (int number = buffer.getInt(position + Integer.BYTES); number != 0;) {
+			BufferPool.Page page = pool.pin(number);
+			int next = page.data.getInt(0);
+			page.data.putInt(0, freePage);
+			page.markDirty();
+			pool.unpin(page);
+			freePage = number;
+			number = next;
+		}
+	}
+
+	/*
+	 * Returns a page that is not in use, from the free pages if there are any
+	 */
+	private int allocate() throws IOException {
+		if (freePage == 0) {
+			return pageCount++;
+		}
+		int number = freePage;
+		BufferPool.Page page = pool.pin(number);
+		freePage = page.data.getInt(0);
+		pool.unpin(page);
+		return number;
+	}
+
+	private void writeHeader() throws IOException {
+		BufferPool.Page header = pool.pin(0);
+		header.data.putInt(0, MAGIC);
+		header.data.putInt(4, root);
+		header.data.putInt(8, pageCount);
+		header.data.putInt(12, size);
+		header.data.putInt(16, freePage);
+		header.markDirty();
+		pool.unpin(header);
+	}
+
+	/*
+	 * Walks the leaves, reading the keys and values of one leaf at a time,
+	 * starting from the leaf of the first key if one is given. If the tree
+	 * changes, the iterator finds the leaf of the last key returned again and
+	 * goes on from the key after it.
+	 */
+	private class EntryIterator implements Iterator<Map.Entry<String, byte[]>> {
+		private int expectedModifications = modifications;
+		private List<byte[]> keys = new ArrayList<byte[]>();
+		private List<byte[]> values = new ArrayList<byte[]>();
+		private int index;
+		private int next;
+		private final byte[] from;
+		private byte[] lastKey;
+
+		EntryIterator(byte[] from) {
+			this.from = from;
+			try {
+				next = from == null ? firstLeaf() : findLeaf(from, null);
+			} catch (IOException ioe) {
+				throw new UncheckedIOException(ioe);
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			try {
+				if (modifications != expectedModifications) {
+					expectedModifications = modifications;
+					if (lastKey != null) {
+						next = findLeaf(lastKey, null);
+					} else {
+						next = from == null ? firstLeaf() : findLeaf(from, null);
+					}
+					keys.clear();
+					values.clear();
+					index = 0;
+				}
+				while (index == values.size() && next != 0) {
+					readLeaf();
+				}
+			} catch (IOException ioe) {
+				throw new UncheckedIOException(ioe);
+			}
+			return index < values.size();
+		}
+
+		@Override
+		public Map.Entry<String, byte[]> next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			lastKey = keys.get(index);
+			return new AbstractMap.SimpleImmutableEntry<String, byte[]>(
+					new String(lastKey, StandardCharsets.UTF_8), values.get(index++));
+		}
+
+		private int firstLeaf() throws IOException {
+			for (int number = root;;) {
+				BufferPool.Page page = pool.pin(number);
+				try {
+					if (page.data.get(0) == LEAF) {
+						return number;
+					}
+					number = page.data.getInt(3);
+				} finally {
+					pool.unpin(page);
+				}
+			}
+		}
+
+		/*
+		 * Reads the entries of the next leaf that come after the last key returned,
+		 * or from the first key on
+		 */
+		private void readLeaf() throws IOException {
+			BufferPool.Page page = pool.pin(next);
+			try {
+				int count = page.data.getShort(1) & 0xFFFF;
+				keys = new ArrayList<byte[]>(count);
+				values = new ArrayList<byte[]>(count);
+				for (int cell = 0; cell < count; cell++) {
+					int offset = cellOffset(page.data, cell);
+					if (lastKey != null ? compare(page.data, offset, lastKey) > 0
+							: from == null || compare(page.data, offset, from) >= 0) {
+						byte[] key = new byte[page.data.getShort(offset)];
+						page.data.get(offset + Short.BYTES, key);
+						keys.add(key);
+						values.add(value(page.data, offset));
+					}
+				}
+				index = 0;
+				next = page.data.getInt(3);
+			} finally {
+				pool.unpin(page);
+			}
+		}
+	}
+}
@@ -0,0 +1,634 @@
+package org.oobook.libraryv1.business.collections;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.oobook.libraryv1.business.entities.Book;
+import org.oobook.libraryv1.business.entities.Member;
+
+/**
+ * Keeps books or members in a B+tree in a file (see BTree), keyed by id, so
+ * that a library larger than memory can be kept. The pages of the tree that
+ * were used last are cached in a BufferPool.
+ *
+ * Every entity inserted is kept in memory, and its id is put in the tree. An
+ * entity read from the tree is kept in memory too, so that whoever holds it
+ * changes the entity the store hands out. When the store is released and has
+ * more entities in memory than its limit, it drops those that can be read
+ * again as they are, first read first: those that did not change since they
+ * were last saved or checkpointed and that no other entity refers to, which
+ * for a book means that it is not issued and has no holds, and for a member
+ * that they have no loans or holds. Each is written to the tree as it is
+ * dropped, unless it is the same as the record it was read from, so only the
+ * entities not in memory are ever read from the tree. The others stay in
+ * memory, so the books and members linked by loans and holds, and everything
+ * the next checkpoint writes, are never read twice.
+ *
+ * The keys under which the codec indexes an entity, such as the words of the
+ * title and author of a book, are kept in a second B+tree, in a file named
+ * after the first with ".index" appended. Each key of that tree is an index
+ * key, cut to its first 512 bytes of UTF-8, followed by an id, so the ids
+ * under an index key are in order and those under keys with the same
+ * beginning are next to each other. findAll seeks each index key in turn to
+ * the largest id found so far until all have the same id, so it reads little
+ * more of the index than the ids it returns; findByPrefix reads the keys from
+ * the prefix on.
+ *
+ * The file is a place to keep what does not fit in memory, not a copy of the
+ * library: it is emptied when the store is opened, and the library is still
+ * saved and checkpointed as before. The same goes for the index.
+ *
+ * The store is not thread-safe; Catalog and MemberList are used under the
+ * lock of the Library.
+ *
+ * @param <T> the type of entity
+ */
+public class BTreeStore<T> implements EntityStore<T>, Closeable {
+	private static final int SWEEP = 64;
+	private static final int TERM_BYTES = 512;
+	private static final char SEPARATOR = '\u0000';
+	private final FileChannel channel;
+	private final BTree tree;
+	private final FileChannel indexChannel;
+	private final BTree index;
+	private final int residentEntities;
+	private final Codec<T> codec;
+	private final Map<String, T> resident = new LinkedHashMap<String, T>();
+	private final Map<String, byte[]> records = new HashMap<String, byte[]>();
+	private int added;
+
+	/**
+	 * How the entities of a store are written and read
+	 *
+	 * @param <T> the type of entity
+	 */
+	public interface Codec<T> {
+		/**
+		 * Returns the id of the entity
+		 *
+		 * @param entity the entity
+		 * @return the id
+		 */
+		String idOf(T entity);
+
+		/**
+		 * Writes the entity
+		 *
+		 * @param entity the entity
+		 * @param output the stream
+		 * @throws IOException if the stream cannot be written
+		 */
+		void write(T entity, DataOutput output) throws IOException;
+
+		/**
+		 * Reads an entity written by write
+		 *
+		 * @param input the stream
+		 * @return the entity
+		 * @throws IOException if the stream cannot be read
+		 */
+		T read(DataInput input) throws IOException;
+
+		/**
+		 * Checks whether the entity can be dropped from memory: it did not change
+		 * since it was last written and no other entity refers to it
+		 *
+		 * @param entity the entity
+		 * @return true iff the entity can be read again as write writes it
+		 */
+		boolean isIdle(T entity);
+
+		/**
+		 * Returns the keys under which the entity is indexed, which stay the same
+		 * until the store is told otherwise by reindex (see findAll and
+		 * findByPrefix)
+		 *
+		 * @param entity the entity
+		 * @return the keys; none unless overridden
+		 */
+		default Collection<String> indexKeysOf(T entity) {
+			return Collections.emptySet();
+		}
+	}
+
+	/**
+	 * Opens a store in the file, which is emptied, with its index in the file of
+	 * the same name with ".index" appended, which is emptied too
+	 *
+	 * @param file             the file
+	 * @param cachedPages      the number of pages of the files kept in memory, a
+	 *                         quarter of them for the index
+	 * @param residentEntities the number of entities kept in memory once
+	 *                         released, unless more cannot be dropped
+	 * @param codec            writes, reads and indexes the entities
+	 * @throws IOException if a file cannot be opened
+	 */
+	public BTreeStore(File file, int cachedPages, int residentEntities, Codec<T> codec) throws IOException {
+		if (cachedPages < 1 || residentEntities < 0) {
+			throw new IllegalArgumentException("invalid number of pages or entities kept in memory");
+		}
+		int indexPages = Math.max(1, cachedPages / 4);
+		this.channel = open(file);
+		this.residentEntities = residentEntities;
+		this.codec = codec;
+		FileChannel indexChannel = null;
+		try {
+			this.tree = new BTree(channel, Math.max(1, cachedPages - indexPages));
+			indexChannel = open(new File(file.getPath() + ".index"));
+			this.index = new BTree(indexChannel, indexPages, TERM_BYTES + 1 + BTree.MAXIMUM_KEY + 1);
+		} catch (IOException ioe) {
+			channel.close();
+			if (indexChannel != null) {
+				indexChannel.close();
+			}
+			throw ioe;
+		}
+		this.indexChannel = indexChannel;
+	}
+
+	/**
+	 * Opens a store of books in the file. A book is idle if it is clean, not
+	 * issued and has no holds, so it is written without members. The books are
+	 * indexed under the words of their titles and authors and under their
+	 * titles, for the keyword and title searches of Catalog.
+	 *
+	 * @param file             the file
+	 * @param cachedPages      the number of pages of the file kept in memory
+	 * @param residentEntities the number of books kept in memory once released
+	 * @return the store
+	 * @throws IOException if the file cannot be opened
+	 */
+	public static BTreeStore<Book> forBooks(File file, int cachedPages, int residentEntities) throws IOException {
+		return new BTreeStore<Book>(file, cachedPages, residentEntities, new Codec<Book>() {
+			@Override
+			public String idOf(Book book) {
+				return book.getId();
+			}
+
+			@Override
+			public void write(Book book, DataOutput output) throws IOException {
+				book.writeSnapshot(output, member -> -1);
+			}
+
+			@Override
+			public Book read(DataInput input) throws IOException {
+				return Book.readSnapshot(input, position -> null);
+			}
+
+			@Override
+			public boolean isIdle(Book book) {
+				return !book.isDirty() && book.getBorrower() == null && !book.hasHold();
+			}
+
+			@Override
+			public Collection<String> indexKeysOf(Book book) {
+				return Catalog.indexKeysOf(book);
+			}
+		});
+	}
+
+	/**
+	 * Opens a store of members in the file. A member is idle if they are clean
+	 * and have no loans or holds. Members are indexed under their name and phone
+	 * number (see MemberList.indexKeysOf).
+	 *
+	 * @param file             the file
+	 * @param cachedPages      the number of pages of the file kept in memory
+	 * @param residentEntities the number of members kept in memory once released
+	 * @return the store
+	 * @throws IOException if the file cannot be opened
+	 */
+	public static BTreeStore<Member> forMembers(File file, int cachedPages, int residentEntities)
+			throws IOException {
+		return new BTreeStore<Member>(file, cachedPages, residentEntities, new Codec<Member>() {
+			@Override
+			public String idOf(Member member) {
+				return member.getId();
+			}
+
+			@Override
+			public void write(Member member, DataOutput output) throws IOException {
+				member.writeChanges(output);
+			}
+
+			@Override
+			public Member read(DataInput input) throws IOException {
+				return Member.readSnapshot(input);
+			}
+
+			@Override
+			public boolean isIdle(Member member) {
+				return !member.isDirty() && !member.getBooksIssued().hasNext() && !member.getHolds().hasNext();
+			}
+
+			@Override
+			public Collection<String> indexKeysOf(Member member) {
+				return MemberList.indexKeysOf(member.getName(), member.getPhone());
+			}
+		});
+	}
+
+	@Override
+	public T get(String id) {
+		T entity = resident.get(id);
+		if (entity != null || !BTree.isValidKey(id)) {
+			return entity;
+		}
+		byte[] record;
+		try {
+			record = tree.get(id);
+			if (record == null) {
+				return null;
+			}
+			entity = decode(record);
+		} catch (IOException ioe) {
+			throw new UncheckedIOException(ioe);
+		}
+		resident.put(id, entity);
+		records.put(id, record);
+		added++;
+		return entity;
+	}
+
+	/**
+	 * Adds an entity whose id is not in the store
+	 *
+	 * @param entity the entity
+	 * @throws IllegalArgumentException if the id is longer than a key of the
+	 *                                  tree can be
+	 */
+	@Override
+	public void insert(T entity) {
+		String id = codec.idOf(entity);
+		if (!BTree.isValidKey(id)) {
+			throw new IllegalArgumentException("id longer than " + BTree.MAXIMUM_KEY + " bytes: " + id);
+		}
+		try {
+			tree.put(id, new byte[0]);
+			for (String key : codec.indexKeysOf(entity)) {
+				index.put(indexKey(key, id), new byte[0]);
+			}
+		} catch (IOException ioe) {
+			throw new UncheckedIOException(ioe);
+		}
+		resident.put(id, entity);
+		added++;
+	}
+
+	/**
+	 * Removes the entity with the given id, and its index keys, for which an
+	 * entity not in memory is read
+	 *
+	 * @param id the id
+	 * @return true iff there was such an entity
+	 */
+	@Override
+	public boolean remove(String id) {
+		if (!BTree.isValidKey(id)) {
+			return false;
+		}
+		T entity = resident.remove(id);
+		records.remove(id);
+		try {
+			if (entity == null) {
+				byte[] record = tree.get(id);
+				if (record == null) {
+					return false;
+				}
+				entity = decode(record);
+			}
+			for (String key : codec.indexKeysOf(entity)) {
+				index.remove(indexKey(key, id));
+			}
+			return tree.remove(id);
+		} catch (IOException ioe) {
+			throw new UncheckedIOException(ioe);
+		}
+	}
+
+	@Override
+	public void reindex(T entity, Collection<String> oldKeys) {
+		String id = codec.idOf(entity);
+		try {
+			for (String key : oldKeys) {
+				index.remove(indexKey(key, id));
+			}
+			for (String key : codec.indexKeysOf(entity)) {
+				index.put(indexKey(key, id), new byte[0]);
+			}
+		} catch (IOException ioe) {
+			throw new UncheckedIOException(ioe);
+		}
+	}
+
+	@Override
+	public int size() {
+		return tree.size();
+	}
+
+	/**
+	 * Returns an iterator to all entities in order of id. An entity kept in
+	 * memory is returned as it is; the others are read for the iterator only.
+	 *
+	 * @return iterator to the entities
+	 */
+	@Override
+	public Iterator<T> iterator() {
+		Iterator<Map.Entry<String, byte[]>> entries = tree.entries();
+		return new Iterator<T>() {
+			@Override
+			public boolean hasNext() {
+				return entries.hasNext();
+			}
+
+			@Override
+			public T next() {
+				Map.Entry<String, byte[]> entry = entries.next();
+				T kept = resident.get(entry.getKey());
+				if (kept != null) {
+					return kept;
+				}
+				try {
+					return decode(entry.getValue());
+				} catch (IOException ioe) {
+					throw new UncheckedIOException(ioe);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Returns an iterator to the entities indexed under every one of the keys,
+	 * in order of id. The ids under each key are found by seeking the index to
+	 * the key and the largest id found so far, until the ids agree.
+	 *
+	 * @param keys the keys
+	 * @return iterator to the entities; empty if no keys are given
+	 */
+	@Override
+	public Iterator<T> findAll(Collection<String> keys) {
+		List<String> prefixes = new ArrayList<String>(keys.size());
+		for (String key : keys) {
+			prefixes.add(term(key) + SEPARATOR);
+		}
+		return entities(new Iterator<String>() {
+			private String from = "";
+			private String next;
+			private boolean ended = prefixes.isEmpty();
+
+			@Override
+			public boolean hasNext() {
+				if (next == null && !ended) {
+					next = agree();
+					ended = next == null;
+				}
+				return next != null;
+			}
+
+			@Override
+			public String next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				String id = next;
+				next = null;
+				from = id + SEPARATOR;
+				return id;
+			}
+
+			/*
+			 * Seeks the prefixes in turn, each to the largest id found so far, until
+			 * all of them are at the same id, which is returned; null once one of
+			 * them has no more ids
+			 */
+			private String agree() {
+				String candidate = from;
+				for (int turn = 0, agreed = 0; agreed < prefixes.size(); turn = (turn + 1) % prefixes.size()) {
+					String id = seek(prefixes.get(turn), candidate);
+					if (id == null) {
+						return null;
+					}
+					if (id.equals(candidate)) {
+						agreed++;
+					} else {
+						candidate = id;
+						agreed = 1;
+					}
+				}
+				return candidate;
+			}
+		});
+	}
+
+	/**
+	 * Returns an iterator to the entities indexed under a key that starts with
+	 * the prefix, in order of index key and then of id. Keys are ordered by
+	 * their UTF-8 bytes, and keys longer than 512 bytes by their first 512.
+	 *
+	 * @param prefix the beginning of the key
+	 * @return iterator to the entities
+	 */
+	@Override
+	public Iterator<T> findByPrefix(String prefix) {
+		String start = term(prefix);
+		Iterator<Map.Entry<String, byte[]>> entries = index.entries(start);
+		return entities(new Iterator<String>() {
+			private String next;
+
+			@Override
+			public boolean hasNext() {
+				if (next == null && entries.hasNext()) {
+					String key = entries.next().getKey();
+					next = key.startsWith(start) ? key.substring(key.lastIndexOf(SEPARATOR) + 1) : null;
+				}
+				return next != null;
+			}
+
+			@Override
+			public String next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				String id = next;
+				next = null;
+				return id;
+			}
+		});
+	}
+
+	@Override
+	public Iterator<T> getResident() {
+		return Collections.unmodifiableCollection(resident.values()).iterator();
+	}
+
+	/**
+	 * Drops idle entities from memory, first read first, until no more than the
+	 * limit are kept, writing each to the tree unless it is written as it was
+	 * read. Entities that cannot be dropped
+	 * are moved behind the others. So that a release does not go through every
+	 * entity when more than the limit cannot be dropped, it looks at no more
+	 * entities than were added to memory since the last release, plus a few.
+	 */
+	@Override
+	public void release() {
+		List<Map.Entry<String, T>> busy = new ArrayList<Map.Entry<String, T>>();
+		int budget = added + SWEEP;
+		added = 0;
+		for (Iterator<Map.Entry<String, T>> iterator = resident.entrySet().iterator(); budget > 0
+				&& resident.size() + busy.size() > residentEntities && iterator.hasNext(); budget--) {
+			Map.Entry<String, T> entry = iterator.next();
+			iterator.remove();
+			if (codec.isIdle(entry.getValue())) {
+				write(entry.getKey(), entry.getValue(), records.remove(entry.getKey()));
+			} else {
+				busy.add(entry);
+			}
+		}
+		for (Map.Entry<String, T> entry : busy) {
+			resident.put(entry.getKey(), entry.getValue());
+		}
+	}
+
+	/**
+	 * Returns the number of times a page was found in the buffer pool
+	 *
+	 * @return the number of hits
+	 */
+	public long getPageHits() {
+		return tree.getPool().getHits();
+	}
+
+	/**
+	 * Returns the number of times a page had to be read from the file
+	 *
+	 * @return the number of misses
+	 */
+	public long getPageMisses() {
+		return tree.getPool().getMisses();
+	}
+
+	/**
+	 * Writes the changed pages and closes the files
+	 *
+	 * @throws IOException if a file cannot be written
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			tree.flush();
+			index.flush();
+		} finally {
+			try {
+				channel.close();
+			} finally {
+				indexChannel.close();
+			}
+		}
+	}
+
+	private static FileChannel open(File file) throws IOException {
+		return FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+	}
+
+	/*
+	 * The first TERM_BYTES bytes of the index key, cut where a character
+	 * starts, followed by the id
+	 */
+	private static String indexKey(String key, String id) {
+		return term(key) + SEPARATOR + id;
+	}
+
+	private static String term(String key) {
+		int bytes = 0;
+		for (int index = 0; index < key.length(); index += Character.charCount(key.codePointAt(index))) {
+			int codePoint = key.codePointAt(index);
+			bytes += codePoint < 0x80 ? 1 : codePoint < 0x800 ? 2 : codePoint < 0x10000 ? 3 : 4;
+			if (bytes > TERM_BYTES) {
+				return key.substring(0, index);
+			}
+		}
+		return key;
+	}
+
+	/*
+	 * Returns the first id from the given one on under the prefix of the index,
+	 * or null if there is none
+	 */
+	private String seek(String prefix, String from) {
+		Iterator<Map.Entry<String, byte[]>> entries = index.entries(prefix + from);
+		if (!entries.hasNext()) {
+			return null;
+		}
+		String key = entries.next().getKey();
+		return key.startsWith(prefix) ? key.substring(prefix.length()) : null;
+	}
+
+	/*
+	 * Returns the entities with the ids, those not in memory read for the
+	 * iterator only
+	 */
+	private Iterator<T> entities(Iterator<String> ids) {
+		return new Iterator<T>() {
+			@Override
+			public boolean hasNext() {
+				return ids.hasNext();
+			}
+
+			@Override
+			public T next() {
+				String id = ids.next();
+				T kept = resident.get(id);
+				if (kept != null) {
+					return kept;
+				}
+				try {
+					return decode(tree.get(id));
+				} catch (IOException ioe) {
+					throw new UncheckedIOException(ioe);
+				}
+			}
+		};
+	}
+
+	/*
+	 * Writes the entity to the tree if it differs from the record it was read
+	 * from, if any
+	 */
+	private void write(String id, T entity, byte[] read) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try {
+			codec.write(entity, new DataOutputStream(bytes));
+			byte[] record = bytes.toByteArray();
+			if (!Arrays.equals(record, read)) {
+				tree.put(id, record);
+			}
+		} catch (IOException ioe) {
+			throw new UncheckedIOException(ioe);
+		}
+	}
+
+	private T decode(byte[] record) throws IOException {
+		return codec.read(new DataInputStream(new ByteArrayInputStream(record)));
+	}
+}
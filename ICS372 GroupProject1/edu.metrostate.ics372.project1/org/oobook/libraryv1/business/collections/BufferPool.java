@@ -0,0 +1,180 @@
+package org.oobook.libraryv1.business.collections;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caches the pages of a file, a fixed number of them at most. A page is pinned
+ * while it is in use and cannot be dropped until it is unpinned; the page
+ * dropped to make room is the one least recently pinned. A changed page is
+ * written to the file when it is dropped or the pool is flushed. If every page
+ * is pinned, the pool holds more pages than its capacity until some are
+ * unpinned.
+ *
+ */
+class BufferPool {
+	private final FileChannel channel;
+	private final int pageSize;
+	private final int capacity;
+	private final Map<Integer, Page> pages = new LinkedHashMap<Integer, Page>(16, 0.75f, true);
+	private long hits;
+	private long misses;
+
+	/**
+	 * A page in the pool
+	 */
+	static class Page {
+		final int number;
+		final ByteBuffer data;
+		private boolean dirty;
+		private int pins;
+
+		private Page(int number, ByteBuffer data) {
+			this.number = number;
+			this.data = data;
+		}
+
+		/**
+		 * Marks the page as changed, so that it is written back
+		 */
+		void markDirty() {
+			dirty = true;
+		}
+	}
+
+	/**
+	 * Creates a pool for the file
+	 *
+	 * @param channel  the file
+	 * @param pageSize the size of a page in bytes
+	 * @param capacity the number of pages kept
+	 */
+	BufferPool(FileChannel channel, int pageSize, int capacity) {
+		this.channel = channel;
+		this.pageSize = pageSize;
+		this.capacity = Math.max(capacity, 1);
+	}
+
+	/**
+	 * Pins the page with the given number, reading it if it is not in the pool.
+	 * A page beyond the end of the file reads as zeros.
+	 *
+	 * @param number the number of the page
+	 * @return the page
+	 * @throws IOException if the page cannot be read
+	 */
+	Page pin(int number) throws IOException {
+		Page page = pages.get(number);
+		if (page != null) {
+			hits++;
+		} else {
+			misses++;
+			page = new Page(number, ByteBuffer.allocate(pageSize));
+			long position = (long) number * pageSize;
+			while (page.data.hasRemaining()) {
+				if (channel.read(page.data, position + page.data.position()) < 0) {
+					break;
+				}
+			}
+			page.data.clear();
+			makeRoom();
+			pages.put(number, page);
+		}
+		page.pins++;
+		return page;
+	}
+
+	/**
+	 * Pins a new page, filled with zeros, without reading it
+	 *
+	 * @param number the number of the page
+	 * @return the page
+	 * @throws IOException if a page cannot be written to make room
+	 */
+	Page create(int number) throws IOException {
+		Page page = pages.get(number);
+		if (page == null) {
+			page = new Page(number, ByteBuffer.allocate(pageSize));
+			makeRoom();
+			pages.put(number, page);
+		} else {
+			page.data.clear();
+			page.data.put(new byte[pageSize]);
+			page.data.clear();
+		}
+		page.pins++;
+		page.dirty = true;
+		return page;
+	}
+
+	/**
+	 * Unpins a page pinned by pin or create
+	 *
+	 * @param page the page
+	 */
+	void unpin(Page page) {
+		page.pins--;
+	}
+
+	/**
+	 * Writes every changed page to the file
+	 *
+	 * @throws IOException if a page cannot be written
+	 */
+	void flush() throws IOException {
+		for (Page page : pages.values()) {
+			write(page);
+		}
+	}
+
+	/**
+	 * Drops every page without writing it
+	 */
+	void clear() {
+		pages.clear();
+	}
+
+	int getPageSize() {
+		return pageSize;
+	}
+
+	long getHits() {
+		return hits;
+	}
+
+	long getMisses() {
+		return misses;
+	}
+
+	/*
+	 * Drops unpinned pages, least recently pinned first, until there is room for
+	 * one more
+	 */
+	private void makeRoom() throws IOException {
+		for (Iterator<Page> iterator = pages.values().iterator(); pages.size() >= capacity
+				&& iterator.hasNext();) {
+			Page page = iterator.next();
+			if (page.pins == 0) {
+				write(page);
+				iterator.remove();
+			}
+		}
+	}
+
+	private void write(Page page) throws IOException {
+		if (!page.dirty) {
+			return;
+		}
+		ByteBuffer data = page.data.duplicate();
+		data.clear();
+		long position = (long) page.number * pageSize;
+		while (data.hasRemaining()) {
+			channel.write(data, position + data.position());
+		}
+		page.dirty = false;
+	}
+}
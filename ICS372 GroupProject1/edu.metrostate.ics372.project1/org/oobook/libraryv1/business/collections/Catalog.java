@@ -1,9 +1,18 @@
 package org.oobook.libraryv1.business.collections;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
 
 import org.oobook.libraryv1.business.entities.Book;
 
@@ -28,15 +37,45 @@ import org.oobook.libraryv1.business.entities.Book;
  */
 
 /**
- * The collection class for Book objects
+ * The collection class for Book objects. Books are kept in a hash table keyed
+ * by book id, so search and removal do not depend on the size of the catalog.
+ * Iteration is in the order in which the books were inserted. The words in
+ * titles and author names are kept in an inverted index for keyword searches,
+ * and the titles are kept sorted for prefix (type-ahead) searches.
+ * 
+ * The ids of the books removed since the last checkpoint are remembered, so
+ * that a checkpoint can record the removals.
+ * 
+ * The catalog may be given a source of books not read yet (see EntitySource).
+ * A search by id then asks the source for a book it does not have, and the
+ * books read are added without being indexed. Anything that needs every book
+ * (iteration, the size and the keyword and title searches) first reads the
+ * rest from the source, puts the books in the order of the source followed by
+ * those inserted since, and rebuilds the indexes.
+ * 
+ * The books may instead be kept in a store (see setStore and BTreeStore) for
+ * a catalog larger than memory. The store then takes the place of the hash
+ * table and the indexes: iteration is in order of id, and the store indexes
+ * each book under the words of its title and author and under its title (see
+ * indexKeysOf), which the keyword and title searches look up. A store may
+ * index only the beginning of a long word or title, so the books it finds
+ * are checked as the indexes in memory would find them. Books with the same
+ * title are then found in order of id.
  * 
  * @author Brahma Dathan and Sarnath Ramnath
  *
  */
 public class Catalog implements Iterable<Book>, Serializable {
 	private static final long serialVersionUID = 1L;
+	private static final String WORD_KEY = "w";
+	private static final String TITLE_KEY = "t";
 	private static Catalog catalog;
-	private List<Book> books = new LinkedList<Book>();
+	private Map<String, Book> books = new LinkedHashMap<String, Book>();
+	private transient KeywordIndex keywordIndex = new KeywordIndex();
+	private transient TitlePrefixIndex titleIndex = new TitlePrefixIndex();
+	private transient List<String> removedIds = new ArrayList<String>();
+	private transient EntitySource<Book> source;
+	private transient EntityStore<Book> store;
 
 	private Catalog() {
 
@@ -49,6 +88,16 @@ public class Catalog implements Iterable<Book>, Serializable {
 		return catalog;
 	}
 
+	/**
+	 * Replaces the singleton with an empty catalog, into which retrieved books
+	 * are then inserted
+	 * 
+	 * @return the new catalog
+	 */
+	public static Catalog reset() {
+		return catalog = new Catalog();
+	}
+
 	/**
 	 * Checks whether a book with a given book id exists.
 	 * 
@@ -57,13 +106,60 @@ public class Catalog implements Iterable<Book>, Serializable {
 	 * 
 	 */
 	public Book search(String bookId) {
-		for (Iterator<Book> iterator = books.iterator(); iterator.hasNext();) {
-			Book book = (Book) iterator.next();
-			if (book.getId().equals(bookId)) {
-				return book;
-			}
+		if (store != null) {
+			return store.get(bookId);
+		}
+		Book book = books.get(bookId);
+		if (book == null && source != null) {
+			book = source.find(bookId);
 		}
-		return null;
+		return book;
+	}
+
+	/**
+	 * Sets the source of the books not read yet
+	 * 
+	 * @param source the source; null for none
+	 */
+	public void setSource(EntitySource<Book> source) {
+		this.source = source;
+	}
+
+	/**
+	 * Moves every book into an empty store, which from then on keeps the books
+	 * of the catalog in place of its hash table and indexes
+	 * 
+	 * @param store the store
+	 */
+	public void setStore(EntityStore<Book> store) {
+		loadAll();
+		for (Book book : books.values()) {
+			store.insert(book);
+		}
+		books = new LinkedHashMap<String, Book>();
+		keywordIndex = new KeywordIndex();
+		titleIndex = new TitlePrefixIndex();
+		this.store = store;
+	}
+
+	/**
+	 * Lets the store, if there is one, drop books from memory. Called after
+	 * each operation, when no book is still in use.
+	 */
+	public void release() {
+		if (store != null) {
+			store.release();
+		}
+	}
+
+	/**
+	 * Adds a book read from the source. The book is not indexed until all books
+	 * have been read.
+	 * 
+	 * @param book the book read
+	 */
+	public void attach(Book book) {
+		books.putIfAbsent(book.getId(), book);
 	}
 
 	/**
@@ -73,32 +169,210 @@ public class Catalog implements Iterable<Book>, Serializable {
 	 * @return true iff book could be removed
 	 */
 	public boolean removeBook(String bookId) {
-		Book book = search(bookId);
-		if (book == null) {
+		if (search(bookId) == null) {
 			return false;
-		} else {
-			return books.remove(book);
 		}
+		if (store != null) {
+			store.remove(bookId);
+			removedIds.add(bookId);
+			return true;
+		}
+		Book book = books.remove(bookId);
+		keywordIndex.remove(book);
+		titleIndex.remove(book);
+		removedIds.add(bookId);
+		return true;
 	}
 
 	/**
 	 * Inserts a book into the collection
 	 * 
 	 * @param book the book to be inserted
-	 * @return true iff the book could be inserted. Currently always true
+	 * @return true iff the book could be inserted; false if a book with the same
+	 *         id is already in the catalog
 	 */
 	public boolean insertBook(Book book) {
-		books.add(book);
+		if (search(book.getId()) != null) {
+			return false;
+		}
+		if (store != null) {
+			store.insert(book);
+			return true;
+		}
+		books.put(book.getId(), book);
+		keywordIndex.add(book);
+		titleIndex.add(book);
 		return true;
 	}
 
+	/**
+	 * Finds the books whose title or author contains every word of the query.
+	 * Case and punctuation are ignored.
+	 * 
+	 * @param keywords the words to look for
+	 * @return iterator to the matching books, in catalog order
+	 */
+	public Iterator<Book> searchKeywords(String keywords) {
+		if (store != null) {
+			Set<String> keys = new LinkedHashSet<String>();
+			for (String word : KeywordIndex.tokenize(keywords)) {
+				keys.add(WORD_KEY + word);
+			}
+			return KeywordIndex.scan(store.findAll(keys), keywords);
+		}
+		loadAll();
+		return keywordIndex.search(keywords);
+	}
+
+	/**
+	 * Finds at most limit books whose titles start with the given prefix, in
+	 * alphabetical order of title. Case is ignored.
+	 * 
+	 * @param prefix the beginning of the title
+	 * @param limit  the maximum number of books to return
+	 * @return iterator to the matching books
+	 */
+	public Iterator<Book> searchTitlePrefix(String prefix, int limit) {
+		if (store != null) {
+			return TitlePrefixIndex
+					.first(store.findByPrefix(TITLE_KEY + TitlePrefixIndex.normalize(prefix)), prefix, limit)
+					.iterator();
+		}
+		loadAll();
+		return titleIndex.search(prefix, limit).iterator();
+	}
+
+	/**
+	 * Returns the keys under which a store indexes a book for the keyword and
+	 * title searches: each word of its title and author, and its title
+	 * 
+	 * @param book the book
+	 * @return the keys
+	 */
+	static Set<String> indexKeysOf(Book book) {
+		Set<String> keys = new LinkedHashSet<String>();
+		for (String word : KeywordIndex.words(book)) {
+			keys.add(WORD_KEY + word);
+		}
+		keys.add(TITLE_KEY + TitlePrefixIndex.normalize(book.getTitle()));
+		return keys;
+	}
+
+	/**
+	 * Returns the ids of the books removed since clearRemovedIds was last
+	 * called, in the order in which they were removed
+	 * 
+	 * @return the ids
+	 */
+	public List<String> getRemovedIds() {
+		return Collections.unmodifiableList(removedIds);
+	}
+
+	/**
+	 * Forgets the books removed so far. Called once the removals are written.
+	 */
+	public void clearRemovedIds() {
+		removedIds.clear();
+	}
+
+	/**
+	 * Forgets the first count books removed, keeping those removed after them.
+	 * Called once a save that started after the first count removals is
+	 * written.
+	 * 
+	 * @param count the number of removals written
+	 */
+	public void clearRemovedIds(int count) {
+		removedIds.subList(0, Math.min(count, removedIds.size())).clear();
+	}
+
+	/**
+	 * Returns the number of books
+	 * 
+	 * @return the number of books in the catalog
+	 */
+	public int size() {
+		if (store != null) {
+			return store.size();
+		}
+		loadAll();
+		return books.size();
+	}
+
 	/**
 	 * Returns an iterator to all books
 	 * 
 	 * @return iterator to the collection
 	 */
 	public Iterator<Book> iterator() {
-		return books.iterator();
+		if (store != null) {
+			return store.iterator();
+		}
+		loadAll();
+		return Collections.unmodifiableCollection(books.values()).iterator();
+	}
+
+	/**
+	 * Returns an iterator to the books read so far, without reading the rest
+	 * from the source, or the books the store keeps in memory. Books not read
+	 * or not in memory cannot have changed since they were written.
+	 * 
+	 * @return iterator to the books read
+	 */
+	public Iterator<Book> getLoadedBooks() {
+		if (store != null) {
+			return store.getResident();
+		}
+		return Collections.unmodifiableCollection(books.values()).iterator();
+	}
+
+	/*
+	 * Reads the books the source still has, orders all books and indexes them
+	 */
+	private void loadAll() {
+		if (source == null) {
+			return;
+		}
+		List<Book> read = source.loadAll();
+		source = null;
+		Map<String, Book> ordered = new LinkedHashMap<String, Book>(2 * books.size());
+		for (Book book : read) {
+			if (books.get(book.getId()) == book) {
+				ordered.put(book.getId(), book);
+			}
+		}
+		for (Book book : books.values()) {
+			ordered.putIfAbsent(book.getId(), book);
+		}
+		books = ordered;
+		index();
+	}
+
+	private void index() {
+		keywordIndex = new KeywordIndex();
+		titleIndex = new TitlePrefixIndex();
+		for (Book book : books.values()) {
+			keywordIndex.add(book);
+			titleIndex.add(book);
+		}
+	}
+
+	/*
+	 * The indexes are not serialized; they are rebuilt from the books. Data
+	 * saved before the books were kept by id has them in a list, which is put in
+	 * the table in the same order; of books with the same id, the first is
+	 * kept, since it was the one found. The retrieved catalog becomes the
+	 * singleton.
+	 */
+	private void readObject(ObjectInputStream input) throws IOException, ClassNotFoundException {
+		Object saved = input.readFields().get("books", null);
+		books = new LinkedHashMap<String, Book>();
+		for (Object book : saved instanceof Map ? ((Map<?, ?>) saved).values() : (Collection<?>) saved) {
+			books.putIfAbsent(((Book) book).getId(), (Book) book);
+		}
+		removedIds = new ArrayList<String>();
+		index();
+		catalog = this;
 	}
 
 	/**
@@ -106,6 +380,14 @@ public class Catalog implements Iterable<Book>, Serializable {
 	 * 
 	 */
 	public String toString() {
-		return books.toString();
+		if (store != null) {
+			StringJoiner joiner = new StringJoiner(", ", "[", "]");
+			for (Book book : store) {
+				joiner.add(String.valueOf(book));
+			}
+			return joiner.toString();
+		}
+		loadAll();
+		return books.values().toString();
 	}
 }
@@ -0,0 +1,29 @@
+package org.oobook.libraryv1.business.collections;
+
+import java.util.List;
+
+/**
+ * Where Catalog and MemberList find the books or members that they have not
+ * read yet, such as the tables of a snapshot that is read lazily. The source
+ * hands each entity it reads to the collection before returning it, so the
+ * collection asks for a given id at most once.
+ *
+ * @param <T> the type of entity
+ */
+public interface EntitySource<T> {
+	/**
+	 * Reads the entity with the given id, if the source has one that was not
+	 * read before
+	 *
+	 * @param id the id of the entity
+	 * @return the entity, or null if there is none or it was read before
+	 */
+	T find(String id);
+
+	/**
+	 * Reads every entity not read before
+	 *
+	 * @return all entities of the source, in the order of the source
+	 */
+	List<T> loadAll();
+}
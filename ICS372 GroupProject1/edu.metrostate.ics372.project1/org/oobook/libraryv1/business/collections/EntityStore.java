@@ -0,0 +1,101 @@
+package org.oobook.libraryv1.business.collections;
+
+import java.util.Collection;
+import java.util.Iterator;
+
+/**
+ * Where Catalog or MemberList keeps its books or members instead of in memory
+ * (see setStore), such as a BTreeStore. The store hands out the same object
+ * for an id as long as it keeps that object in memory, and it keeps in memory
+ * every entity that may have changed since it was written or that other
+ * entities refer to. It may drop the others when released. The store may also
+ * index each entity under keys of its own, such as the words of a title, for
+ * findAll and findByPrefix.
+ *
+ * @param <T> the type of entity
+ */
+public interface EntityStore<T> extends Iterable<T> {
+	/**
+	 * Returns the entity with the given id, which is kept in memory
+	 *
+	 * @param id the id
+	 * @return the entity, or null if there is none
+	 */
+	T get(String id);
+
+	/**
+	 * Adds an entity whose id is not in the store
+	 *
+	 * @param entity the entity
+	 */
+	void insert(T entity);
+
+	/**
+	 * Removes the entity with the given id
+	 *
+	 * @param id the id
+	 * @return true iff there was such an entity
+	 */
+	boolean remove(String id);
+
+	/**
+	 * Returns the number of entities
+	 *
+	 * @return the number of entities
+	 */
+	int size();
+
+	/**
+	 * Returns an iterator to all entities, in the order of the store. Entities
+	 * not kept in memory are read for the iterator only, and are not to be
+	 * changed.
+	 *
+	 * @return iterator to the entities
+	 */
+	@Override
+	Iterator<T> iterator();
+
+	/**
+	 * Returns an iterator to the entities indexed under every one of the keys,
+	 * in the order of the store. The store may index an entity under only the
+	 * beginning of a long key, so the caller checks the entities for what the
+	 * keys stand for. Entities not kept in memory are read for the iterator
+	 * only, and are not to be changed.
+	 *
+	 * @param keys the keys
+	 * @return iterator to the entities; empty if no keys are given
+	 */
+	Iterator<T> findAll(Collection<String> keys);
+
+	/**
+	 * Returns an iterator to the entities indexed under a key that starts with
+	 * the prefix, in order of that key. As for findAll, the caller checks the
+	 * entities, and those not kept in memory are read for the iterator only.
+	 *
+	 * @param prefix the beginning of the key
+	 * @return iterator to the entities
+	 */
+	Iterator<T> findByPrefix(String prefix);
+
+	/**
+	 * Indexes an entity under the keys it has now in place of those it had,
+	 * after a change to what they stand for
+	 *
+	 * @param entity  the entity, which is in the store
+	 * @param oldKeys the keys under which the entity was indexed
+	 */
+	void reindex(T entity, Collection<String> oldKeys);
+
+	/**
+	 * Returns an iterator to the entities kept in memory
+	 *
+	 * @return iterator to the entities in memory
+	 */
+	Iterator<T> getResident();
+
+	/**
+	 * Drops entities from memory that can be read again as they are. Called
+	 * when no one else holds on to an entity that they may still change.
+	 */
+	void release();
+}
@@ -0,0 +1,138 @@
+package org.oobook.libraryv1.business.collections;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.oobook.libraryv1.business.entities.Hold;
+
+/**
+ * A hierarchical timing wheel that hands back holds once their end date has
+ * passed. Time is divided into ticks of one second. The wheel has several
+ * levels of 64 slots; a hold goes into the level of the highest base-64 digit
+ * in which its expiry tick differs from the current tick. When the current
+ * tick crosses a boundary of a level, the slot of that level is emptied and
+ * its holds are placed again, now one level lower. A hold therefore moves at
+ * most once per level, and advancing the wheel costs the number of ticks
+ * passed plus the number of holds that expire.
+ *
+ * Holds are never taken out of the wheel when they are removed from a book or
+ * member for another reason; the caller is expected to ignore such holds when
+ * they are handed back.
+ *
+ */
+public class HoldExpiryWheel {
+	private static final long TICK_MILLISECONDS = 1000;
+	private static final int SLOT_BITS = 6;
+	private static final int SLOTS = 1 << SLOT_BITS;
+	private static final int SLOT_MASK = SLOTS - 1;
+	private static final int LEVELS = 6;
+	private List<List<Hold>> slots = new ArrayList<List<Hold>>(LEVELS * SLOTS);
+	private List<Hold> expired = new ArrayList<Hold>();
+	private long currentTick;
+	private int size;
+
+	/**
+	 * Creates an empty wheel whose current time is the given time
+	 *
+	 * @param time the current time in milliseconds
+	 */
+	public HoldExpiryWheel(long time) {
+		for (int index = 0; index < LEVELS * SLOTS; index++) {
+			slots.add(null);
+		}
+		currentTick = time / TICK_MILLISECONDS;
+	}
+
+	/**
+	 * Adds a hold to the wheel. A hold whose end date has already passed is
+	 * handed back by the next call to advance.
+	 *
+	 * @param hold the hold
+	 */
+	public void schedule(Hold hold) {
+		size++;
+		place(hold);
+	}
+
+	/**
+	 * Moves the wheel forward to the given time and returns the holds whose end
+	 * dates are at or before that time. Going backwards has no effect.
+	 *
+	 * @param time the current time in milliseconds
+	 * @return the holds that expired
+	 */
+	public List<Hold> advance(long time) {
+		long targetTick = time / TICK_MILLISECONDS;
+		while (currentTick < targetTick) {
+			if (size == expired.size()) {
+				currentTick = targetTick;
+				break;
+			}
+			currentTick++;
+			cascade(1);
+			List<Hold> slot = slots.get((int) (currentTick & SLOT_MASK));
+			if (slot != null) {
+				slots.set((int) (currentTick & SLOT_MASK), null);
+				expired.addAll(slot);
+			}
+		}
+		List<Hold> result = expired;
+		size -= result.size();
+		expired = new ArrayList<Hold>();
+		return result;
+	}
+
+	/**
+	 * Returns the number of holds in the wheel
+	 *
+	 * @return the number of holds
+	 */
+	public int size() {
+		return size;
+	}
+
+	/*
+	 * If the current tick has just crossed a boundary of the given level, empties
+	 * the slot of that level for the current tick and places its holds again,
+	 * after first doing the same for the levels above.
+	 */
+	private void cascade(int level) {
+		if (level >= LEVELS || ((currentTick >>> (SLOT_BITS * (level - 1))) & SLOT_MASK) != 0) {
+			return;
+		}
+		cascade(level + 1);
+		int index = level * SLOTS + (int) ((currentTick >>> (SLOT_BITS * level)) & SLOT_MASK);
+		List<Hold> slot = slots.get(index);
+		if (slot != null) {
+			slots.set(index, null);
+			for (Hold hold : slot) {
+				place(hold);
+			}
+		}
+	}
+
+	/*
+	 * Puts the hold in the level given by the highest base-64 digit in which its
+	 * expiry tick differs from the current tick. Ticks too far ahead for the
+	 * wheel go into the top level and are placed again when that slot comes up.
+	 */
+	private void place(Hold hold) {
+		long expiryTick = (hold.getEndTime() + TICK_MILLISECONDS - 1) / TICK_MILLISECONDS;
+		if (expiryTick <= currentTick) {
+			expired.add(hold);
+			return;
+		}
+		int level = 0;
+		while (level < LEVELS - 1
+				&& (expiryTick >>> (SLOT_BITS * (level + 1))) != (currentTick >>> (SLOT_BITS * (level + 1)))) {
+			level++;
+		}
+		int index = level * SLOTS + (int) ((expiryTick >>> (SLOT_BITS * level)) & SLOT_MASK);
+		List<Hold> slot = slots.get(index);
+		if (slot == null) {
+			slot = new ArrayList<Hold>(2);
+			slots.set(index, slot);
+		}
+		slot.add(hold);
+	}
+}
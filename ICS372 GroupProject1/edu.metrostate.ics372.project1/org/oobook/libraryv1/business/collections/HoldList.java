@@ -1,12 +1,20 @@
 package org.oobook.libraryv1.business.collections;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.ListIterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
 
 import org.oobook.libraryv1.business.entities.Hold;
+import org.oobook.libraryv1.business.entities.LibraryClock;
 
 /**
  * 
@@ -31,11 +39,32 @@ import org.oobook.libraryv1.business.entities.Hold;
 /**
  * Maintains a list of Hold objects. It is used by both Member and Book.
  * 
+ * The holds are kept in the order in which they were placed. A priority queue
+ * ordered by end date tells when the earliest hold expires, so as long as that
+ * time has not come, every hold is valid and the first one is the next valid
+ * hold. Once it has come, exactly the expired holds are taken off the queue
+ * and removed. Holds removed for other reasons stay in the queue until they
+ * reach its front or the queue is rebuilt.
+ * 
+ * Two hash tables map book ids and member ids to linked hash sets of the holds
+ * on them, in placement order, so that a hold is found and removed without a
+ * scan.
+ * 
+ * The list remembers whether a hold was added or removed since it was last
+ * marked clean, so that a checkpoint writes only the lists that changed.
+ * 
  * @author Brahma Dathan
  *
  */
 public class HoldList implements Iterable<Hold>, Serializable {
-	private List<Hold> holds = new LinkedList<Hold>();
+	private static final long serialVersionUID = 3127723022386278187L;
+	private static final Comparator<Hold> BY_END_DATE = Comparator.comparingLong(Hold::getEndTime);
+	private Set<Hold> holds = new LinkedHashSet<Hold>();
+	private transient PriorityQueue<Hold> expiries = new PriorityQueue<Hold>(BY_END_DATE);
+	private transient Hold first;
+	private transient Map<String, Set<Hold>> holdsByBook = new HashMap<String, Set<Hold>>();
+	private transient Map<String, Set<Hold>> holdsByMember = new HashMap<String, Set<Hold>>();
+	private transient boolean dirty;
 
 	/**
 	 * Adds a Hold object to the list.
@@ -43,7 +72,13 @@ public class HoldList implements Iterable<Hold>, Serializable {
 	 * @param hold the Hold object to be added
 	 */
 	public boolean addHold(Hold hold) {
-		holds.add(hold);
+		rebuildIfRead();
+		if (!holds.add(hold)) {
+			return false;
+		}
+		expiries.add(hold);
+		index(hold);
+		dirty = true;
 		return true;
 	}
 
@@ -54,15 +89,14 @@ public class HoldList implements Iterable<Hold>, Serializable {
 	 * @return the removed Hold object if the hold could be removed; otherwise, nul
 	 */
 	public Hold removeHoldOnBook(String bookId) {
-		for (ListIterator<Hold> iterator = holds.listIterator(); iterator.hasNext();) {
-			Hold hold = iterator.next();
-			String id = hold.getBook().getId();
-			if (id.equals(bookId)) {
-				iterator.remove();
-				return hold;
-			}
+		rebuildIfRead();
+		Set<Hold> set = holdsByBook.get(bookId);
+		if (set == null) {
+			return null;
 		}
-		return null;
+		Hold hold = set.iterator().next();
+		remove(hold);
+		return hold;
 	}
 
 	/**
@@ -72,15 +106,29 @@ public class HoldList implements Iterable<Hold>, Serializable {
 	 * @return the removed Hold object if the hold could be removed; otherwise, nul
 	 */
 	public Hold removeHoldOnMember(String memberId) {
-		for (ListIterator<Hold> iterator = holds.listIterator(); iterator.hasNext();) {
-			Hold hold = iterator.next();
-			String id = hold.getMember().getId();
-			if (id.equals(memberId)) {
-				iterator.remove();
-				return hold;
-			}
+		rebuildIfRead();
+		Set<Hold> set = holdsByMember.get(memberId);
+		if (set == null) {
+			return null;
+		}
+		Hold hold = set.iterator().next();
+		remove(hold);
+		return hold;
+	}
+
+	/**
+	 * Removes the given hold
+	 * 
+	 * @param hold the Hold object to be removed
+	 * @return true iff the hold was in the list
+	 */
+	public boolean removeHold(Hold hold) {
+		rebuildIfRead();
+		if (!holds.contains(hold)) {
+			return false;
 		}
-		return null;
+		remove(hold);
+		return true;
 	}
 
 	/**
@@ -93,26 +141,126 @@ public class HoldList implements Iterable<Hold>, Serializable {
 	}
 
 	/**
-	 * Returns a valid hold and removes all invalid holds until a valid one of
-	 * found.
+	 * Returns a valid hold and removes all invalid holds. Unless a hold has
+	 * expired since the last call, this takes constant time.
 	 * 
 	 * @return the next valid hold
 	 */
 	public Hold getNextValidHold() {
-		for (ListIterator<Hold> iterator = holds.listIterator(); iterator.hasNext();) {
-			Hold hold = iterator.next();
-			if (hold.isValid()) {
-				return hold;
-			} else {
-				iterator.remove();
+		rebuildIfRead();
+		Hold earliest = expiries.peek();
+		if (earliest != null) {
+			long time = LibraryClock.currentTimeMillis();
+			if (!earliest.isValid(time)) {
+				removeExpiredHolds(time);
 			}
 		}
-		return null;
+		if (first == null && !holds.isEmpty()) {
+			first = holds.iterator().next();
+		}
+		return first;
+	}
+
+	/**
+	 * Checks whether a hold was added or removed since the list was last marked
+	 * clean
+	 * 
+	 * @return true iff the list changed
+	 */
+	public boolean isDirty() {
+		return dirty;
+	}
+
+	/**
+	 * Marks the list as written
+	 */
+	public void markClean() {
+		dirty = false;
 	}
 
 	@Override
 	public Iterator<Hold> iterator() {
-		return holds.iterator();
+		return Collections.unmodifiableSet(holds).iterator();
+	}
+
+	/*
+	 * Removes the hold from the list. The hold stays in the expiry queue, which is
+	 * rebuilt when mostly made up of such holds.
+	 */
+	private void remove(Hold hold) {
+		holds.remove(hold);
+		dirty = true;
+		unindex(hold);
+		if (hold == first) {
+			first = null;
+		}
+		if (expiries.size() > 2 * holds.size() + 16) {
+			expiries = new PriorityQueue<Hold>(BY_END_DATE);
+			expiries.addAll(holds);
+		}
+	}
+
+	/*
+	 * Takes every hold whose end date is not after the given time off the expiry
+	 * queue and removes it from the list.
+	 */
+	private void removeExpiredHolds(long time) {
+		while (!expiries.isEmpty() && expiries.peek().getEndTime() <= time) {
+			Hold hold = expiries.poll();
+			if (holds.remove(hold)) {
+				unindex(hold);
+				dirty = true;
+				if (hold == first) {
+					first = null;
+				}
+			}
+		}
+	}
+
+	private void index(Hold hold) {
+		holdsByBook.computeIfAbsent(hold.getBook().getId(), id -> new LinkedHashSet<Hold>(2)).add(hold);
+		holdsByMember.computeIfAbsent(hold.getMember().getId(), id -> new LinkedHashSet<Hold>(2)).add(hold);
+	}
+
+	private void unindex(Hold hold) {
+		unindex(holdsByBook, hold.getBook().getId(), hold);
+		unindex(holdsByMember, hold.getMember().getId(), hold);
+	}
+
+	private static void unindex(Map<String, Set<Hold>> index, String id, Hold hold) {
+		Set<Hold> set = index.get(id);
+		if (set != null && set.remove(hold) && set.isEmpty()) {
+			index.remove(id);
+		}
+	}
+
+	/*
+	 * Data saved before the holds were kept in a set has them in a list, in the
+	 * order in which they were placed. The holds may be only partly read, so
+	 * they are only put in the set, which does not look at them.
+	 */
+	private void readObject(ObjectInputStream input) throws IOException, ClassNotFoundException {
+		holds = new LinkedHashSet<Hold>();
+		for (Object hold : (Collection<?>) input.readFields().get("holds", null)) {
+			holds.add((Hold) hold);
+		}
 	}
 
+	/*
+	 * The expiry queue and the id indexes are not serialized. They are rebuilt on
+	 * first use rather than in readObject, because while a HoldList is being read
+	 * the books and members of its holds may be only partly read.
+	 */
+	private void rebuildIfRead() {
+		if (expiries != null) {
+			return;
+		}
+		expiries = new PriorityQueue<Hold>(BY_END_DATE);
+		expiries.addAll(holds);
+		holdsByBook = new HashMap<String, Set<Hold>>();
+		holdsByMember = new HashMap<String, Set<Hold>>();
+		for (Hold hold : holds) {
+			index(hold);
+		}
+	}
 }
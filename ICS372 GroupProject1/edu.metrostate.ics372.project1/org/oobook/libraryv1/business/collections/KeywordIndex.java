@@ -0,0 +1,261 @@
+package org.oobook.libraryv1.business.collections;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.oobook.libraryv1.business.entities.Book;
+
+/**
+ * An inverted index from the words in book titles and author names to books.
+ * Every indexed book gets an ordinal number; each word maps to a posting list,
+ * the sorted array of the ordinals of the books containing the word. A query
+ * with several words is answered by intersecting the posting lists, starting
+ * with the shortest one.
+ *
+ * Removing a book only marks its ordinal as dead; the posting lists keep it,
+ * and a search leaves out the dead ordinals it finds. Once there are more dead
+ * ordinals than live ones, the books are numbered again and the posting lists
+ * rebuilt without them.
+ *
+ * The index is maintained by Catalog and is rebuilt rather than serialized.
+ *
+ */
+class KeywordIndex {
+	private static final int MINIMUM_DEAD_ORDINALS = 1024;
+	private Map<String, PostingList> postings = new HashMap<String, PostingList>();
+	private Map<String, Integer> ordinals = new HashMap<String, Integer>();
+	private List<Book> books = new ArrayList<Book>();
+	private int deadOrdinals;
+
+	/**
+	 * Adds the words of the book's title and author to the index
+	 *
+	 * @param book the book to be indexed
+	 */
+	public void add(Book book) {
+		int ordinal = books.size();
+		books.add(book);
+		ordinals.put(book.getId(), ordinal);
+		for (String word : words(book)) {
+			PostingList list = postings.get(word);
+			if (list == null) {
+				list = new PostingList();
+				postings.put(word, list);
+			}
+			list.append(ordinal);
+		}
+	}
+
+	/**
+	 * Removes the book from the index. Its ordinal stays in the posting lists
+	 * until they are rebuilt.
+	 *
+	 * @param book the book to be removed
+	 */
+	public void remove(Book book) {
+		Integer ordinal = ordinals.remove(book.getId());
+		if (ordinal == null) {
+			return;
+		}
+		books.set(ordinal, null);
+		if (++deadOrdinals > MINIMUM_DEAD_ORDINALS && deadOrdinals > ordinals.size()) {
+			renumber();
+		}
+	}
+
+	/**
+	 * Returns the books that contain every word in the query, either in the title
+	 * or in the author name. The books are returned in the order in which they
+	 * were indexed.
+	 *
+	 * @param query one or more words
+	 * @return iterator to the matching books
+	 */
+	public Iterator<Book> search(String query) {
+		List<PostingList> lists = new ArrayList<PostingList>();
+		for (String word : tokenize(query)) {
+			PostingList list = postings.get(word);
+			if (list == null) {
+				return Collections.emptyIterator();
+			}
+			lists.add(list);
+		}
+		if (lists.isEmpty()) {
+			return Collections.emptyIterator();
+		}
+		lists.sort(Comparator.comparingInt(PostingList::size));
+		int[] matches = lists.get(0).toArray();
+		int count = matches.length;
+		for (int index = 1; index < lists.size() && count > 0; index++) {
+			count = lists.get(index).retain(matches, count);
+		}
+		int live = 0;
+		for (int index = 0; index < count; index++) {
+			if (books.get(matches[index]) != null) {
+				matches[live++] = matches[index];
+			}
+		}
+		return new BookIterator(matches, live);
+	}
+
+	/**
+	 * Goes through the books for those that contain every word in the query, as
+	 * search does, without this index. Catalog uses it to check the books a
+	 * store finds under the words (see EntityStore.findAll).
+	 *
+	 * @param books the books to look at
+	 * @param query one or more words
+	 * @return the matching books, in the order given
+	 */
+	static Iterator<Book> scan(Iterator<Book> books, String query) {
+		Set<String> words = tokenize(query);
+		List<Book> matches = new ArrayList<Book>();
+		while (!words.isEmpty() && books.hasNext()) {
+			Book book = books.next();
+			if (words(book).containsAll(words)) {
+				matches.add(book);
+			}
+		}
+		return matches.iterator();
+	}
+
+	/**
+	 * Splits text into lower-case words made up of letters and digits.
+	 *
+	 * @param text the text to split
+	 * @return the distinct words in the order found
+	 */
+	static Set<String> tokenize(String text) {
+		Set<String> words = new LinkedHashSet<String>();
+		if (text == null) {
+			return words;
+		}
+		int start = -1;
+		for (int index = 0; index <= text.length(); index++) {
+			boolean wordCharacter = index < text.length() && Character.isLetterOrDigit(text.charAt(index));
+			if (wordCharacter && start < 0) {
+				start = index;
+			} else if (!wordCharacter && start >= 0) {
+				words.add(text.substring(start, index).toLowerCase(Locale.ROOT));
+				start = -1;
+			}
+		}
+		return words;
+	}
+
+	/**
+	 * Returns the words under which a book is indexed
+	 *
+	 * @param book the book
+	 * @return the distinct words of its title and author
+	 */
+	static Set<String> words(Book book) {
+		Set<String> words = tokenize(book.getTitle());
+		words.addAll(tokenize(book.getAuthor()));
+		return words;
+	}
+
+	/*
+	 * Assigns fresh ordinals to the remaining books once removals have left more
+	 * dead ordinals than live ones, and rebuilds the posting lists without the
+	 * dead ones.
+	 */
+	private void renumber() {
+		List<Book> live = new ArrayList<Book>(ordinals.size());
+		for (Book book : books) {
+			if (book != null) {
+				live.add(book);
+			}
+		}
+		postings.clear();
+		ordinals.clear();
+		books.clear();
+		deadOrdinals = 0;
+		for (Book book : live) {
+			add(book);
+		}
+	}
+
+	/*
+	 * Iterates over the books whose ordinals are in the first count entries of
+	 * the array
+	 */
+	private class BookIterator implements Iterator<Book> {
+		private int[] matches;
+		private int count;
+		private int position;
+
+		private BookIterator(int[] matches, int count) {
+			this.matches = matches;
+			this.count = count;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return position < count;
+		}
+
+		@Override
+		public Book next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException("No such element");
+			}
+			return books.get(matches[position++]);
+		}
+	}
+
+	/*
+	 * A sorted, growable array of ordinals. Ordinals are handed out in increasing
+	 * order, so appending keeps the array sorted.
+	 */
+	private static class PostingList {
+		private int[] ordinals = new int[2];
+		private int size;
+
+		private void append(int ordinal) {
+			if (size == ordinals.length) {
+				ordinals = Arrays.copyOf(ordinals, 2 * size);
+			}
+			ordinals[size++] = ordinal;
+		}
+
+		private int size() {
+			return size;
+		}
+
+		private int[] toArray() {
+			return Arrays.copyOf(ordinals, size);
+		}
+
+		/*
+		 * Keeps, in place, only those of the first count candidates that are also
+		 * in this list and returns how many remain. Both arrays are sorted, so each
+		 * candidate is located by a binary search that starts where the previous
+		 * one ended.
+		 */
+		private int retain(int[] candidates, int count) {
+			int kept = 0;
+			int from = 0;
+			for (int index = 0; index < count && from < size; index++) {
+				int position = Arrays.binarySearch(ordinals, from, size, candidates[index]);
+				if (position >= 0) {
+					candidates[kept++] = candidates[index];
+					from = position + 1;
+				} else {
+					from = -position - 1;
+				}
+			}
+			return kept;
+		}
+	}
+}
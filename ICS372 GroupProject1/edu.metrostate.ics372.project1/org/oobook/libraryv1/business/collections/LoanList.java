@@ -0,0 +1,115 @@
+package org.oobook.libraryv1.business.collections;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import org.oobook.libraryv1.business.entities.Book;
+
+/**
+ * The collection of all books currently issued, ordered by due date. Books
+ * with the same due date (all books issued on the same day have one) share an
+ * entry, so finding the books due before some time costs a search in the tree
+ * plus the number of books returned. Book keeps this collection up to date
+ * when it is issued, renewed and returned.
+ *
+ */
+public class LoanList {
+	private static LoanList loanList;
+	private NavigableMap<Long, Map<String, Book>> loansByDueDate = new TreeMap<Long, Map<String, Book>>();
+	private int size;
+
+	private LoanList() {
+
+	}
+
+	public static LoanList getInstance() {
+		if (loanList == null) {
+			loanList = new LoanList();
+		}
+		return loanList;
+	}
+
+	/**
+	 * Records the book as issued until its current due date
+	 *
+	 * @param book the issued book
+	 */
+	public void insertLoan(Book book) {
+		Map<String, Book> books = loansByDueDate.get(book.getDueDateInMillis());
+		if (books == null) {
+			books = new LinkedHashMap<String, Book>();
+			loansByDueDate.put(book.getDueDateInMillis(), books);
+		}
+		if (books.put(book.getId(), book) == null) {
+			size++;
+		}
+	}
+
+	/**
+	 * Removes the book, which is filed under its current due date
+	 *
+	 * @param book the book that is no longer issued with that due date
+	 * @return true iff the book was in the collection
+	 */
+	public boolean removeLoan(Book book) {
+		Map<String, Book> books = loansByDueDate.get(book.getDueDateInMillis());
+		if (books == null || books.remove(book.getId()) == null) {
+			return false;
+		}
+		if (books.isEmpty()) {
+			loansByDueDate.remove(book.getDueDateInMillis());
+		}
+		size--;
+		return true;
+	}
+
+	/**
+	 * Returns the issued books whose due date is before the given time, the
+	 * earliest due first.
+	 *
+	 * @param time time in milliseconds
+	 * @return iterator to the books
+	 */
+	public Iterator<Book> getLoansDueBefore(long time) {
+		Iterator<Map<String, Book>> dates = loansByDueDate.headMap(time, false).values().iterator();
+		return new Iterator<Book>() {
+			private Iterator<Book> books = Collections.emptyIterator();
+
+			@Override
+			public boolean hasNext() {
+				while (!books.hasNext() && dates.hasNext()) {
+					books = Collections.unmodifiableCollection(dates.next().values()).iterator();
+				}
+				return books.hasNext();
+			}
+
+			@Override
+			public Book next() {
+				hasNext();
+				return books.next();
+			}
+		};
+	}
+
+	/**
+	 * Returns the number of books issued
+	 *
+	 * @return the number of loans
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Removes all loans. Used before the collection is rebuilt from a retrieved
+	 * catalog.
+	 */
+	public void clear() {
+		loansByDueDate.clear();
+		size = 0;
+	}
+}
@@ -1,9 +1,20 @@
 package org.oobook.libraryv1.business.collections;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.function.Predicate;
 
 import org.oobook.libraryv1.business.entities.Member;
 
@@ -28,14 +39,43 @@ import org.oobook.libraryv1.business.entities.Member;
  */
 
 /**
- * The collection class for Member objects
+ * The collection class for Member objects. Member ids generated by Member have
+ * the form M followed by a number; such members are stored in an array indexed
+ * by that number, so a search is an array access. Members whose ids do not
+ * have that form are kept in a hash table, as are those whose number was
+ * beyond the array when they were added. Members can also be looked up by
+ * name and by phone number through hash tables that allow several members per
+ * key; Member reports changes to either field so that these stay current.
+ * 
+ * As with Catalog, the list may be given a source of members not read yet
+ * (see EntitySource), which a search by id falls back on. Iteration, the size
+ * and the searches by name and phone number first read the rest.
+ * 
+ * As with Catalog, the members may instead be kept in a store (see setStore),
+ * which takes the place of the array and the hash tables. Iteration is then in
+ * order of id. The store indexes each member under their name and phone
+ * number (see indexKeysOf), which the searches look up; the members it finds
+ * are checked, as a store may index only the beginning of a long key, and
+ * are in order of id. Member reports changes to either field to the store
+ * instead.
  * 
  * @author Brahma Dathan and Sarnath Ramnath
  *
  */
 public class MemberList implements Iterable<Member>, Serializable {
 	private static final long serialVersionUID = 1L;
-	private List<Member> members = new LinkedList<Member>();
+	private static final char ID_PREFIX = 'M';
+	private static final int MAXIMUM_ID_DIGITS = 9;
+	private static final int MINIMUM_CAPACITY = 16;
+	private static final String NAME_KEY = "n";
+	private static final String PHONE_KEY = "p";
+	private List<Member> members = new ArrayList<Member>();
+	private Member[] numberedMembers = new Member[MINIMUM_CAPACITY];
+	private Map<String, Member> otherMembers = new HashMap<String, Member>();
+	private transient Map<String, List<Member>> membersByName = new HashMap<String, List<Member>>();
+	private transient Map<String, List<Member>> membersByPhone = new HashMap<String, List<Member>>();
+	private transient EntitySource<Member> source;
+	private transient EntityStore<Member> store;
 	private static MemberList memberList;
 
 	private MemberList() {
@@ -49,6 +89,16 @@ public class MemberList implements Iterable<Member>, Serializable {
 		return memberList;
 	}
 
+	/**
+	 * Replaces the singleton with an empty list, into which retrieved members
+	 * are then inserted
+	 * 
+	 * @return the new list
+	 */
+	public static MemberList reset() {
+		return memberList = new MemberList();
+	}
+
 	/**
 	 * Checks whether a member with a given member id exists.
 	 * 
@@ -57,28 +107,335 @@ public class MemberList implements Iterable<Member>, Serializable {
 	 * 
 	 */
 	public Member search(String memberId) {
-		for (Iterator<Member> iterator = members.iterator(); iterator.hasNext();) {
-			Member member = iterator.next();
-			if (member.getId().equals(memberId)) {
-				return member;
-			}
+		if (memberId == null) {
+			return null;
 		}
-		return null;
+		if (store != null) {
+			return store.get(memberId);
+		}
+		int number = idNumber(memberId);
+		Member member = null;
+		if (number >= 0 && number < numberedMembers.length) {
+			member = numberedMembers[number];
+		}
+		if (member == null) {
+			member = otherMembers.get(memberId);
+		}
+		if (member == null && source != null) {
+			member = source.find(memberId);
+		}
+		return member;
+	}
+
+	/**
+	 * Sets the source of the members not read yet
+	 * 
+	 * @param source the source; null for none
+	 */
+	public void setSource(EntitySource<Member> source) {
+		this.source = source;
+	}
+
+	/**
+	 * Moves every member into an empty store, which from then on keeps the
+	 * members of the list in place of its array and hash tables
+	 * 
+	 * @param store the store
+	 */
+	public void setStore(EntityStore<Member> store) {
+		loadAll();
+		for (Member member : members) {
+			store.insert(member);
+		}
+		members = new ArrayList<Member>();
+		numberedMembers = new Member[MINIMUM_CAPACITY];
+		otherMembers = new HashMap<String, Member>();
+		membersByName = new HashMap<String, List<Member>>();
+		membersByPhone = new HashMap<String, List<Member>>();
+		this.store = store;
+	}
+
+	/**
+	 * Lets the store, if there is one, drop members from memory. Called after
+	 * each operation, when no member is still in use.
+	 */
+	public void release() {
+		if (store != null) {
+			store.release();
+		}
+	}
+
+	/**
+	 * Adds a member read from the source. The member is not indexed by name and
+	 * phone number until all members have been read.
+	 * 
+	 * @param member the member read
+	 */
+	public void attach(Member member) {
+		place(member);
 	}
 
 	/**
 	 * Inserts a member into the collection
 	 * 
 	 * @param member the member to be inserted
-	 * @return true iff the member could be inserted. Currently always true
+	 * @return true iff the member could be inserted; false if a member with the
+	 *         same id is already in the collection
 	 */
 	public boolean insertMember(Member member) {
-		members.add(member);
+		String memberId = member.getId();
+		if (search(memberId) != null) {
+			return false;
+		}
+		if (store != null) {
+			store.insert(member);
+			return true;
+		}
+		place(member);
+		addToIndex(membersByName, member.getName(), member);
+		addToIndex(membersByPhone, member.getPhone(), member);
 		return true;
 	}
 
+	private void place(Member member) {
+		String memberId = member.getId();
+		int number = idNumber(memberId);
+		if (number >= numberedMembers.length && number <= 2 * members.size() + MINIMUM_CAPACITY) {
+			numberedMembers = Arrays.copyOf(numberedMembers, Math.max(number + 1, 2 * numberedMembers.length));
+		}
+		if (number >= 0 && number < numberedMembers.length) {
+			numberedMembers[number] = member;
+		} else {
+			otherMembers.put(memberId, member);
+		}
+		members.add(member);
+	}
+
+	/**
+	 * Finds the members with the given name
+	 * 
+	 * @param name the name of the members
+	 * @return iterator to the members with that name
+	 */
+	public Iterator<Member> searchByName(String name) {
+		if (store != null) {
+			return matching(store.findAll(Collections.singleton(NAME_KEY + keyOf(name))),
+					member -> Objects.equals(member.getName(), name));
+		}
+		loadAll();
+		return fromIndex(membersByName, name);
+	}
+
+	/**
+	 * Finds the members with the given phone number
+	 * 
+	 * @param phone the phone number of the members
+	 * @return iterator to the members with that phone number
+	 */
+	public Iterator<Member> searchByPhone(String phone) {
+		if (store != null) {
+			return matching(store.findAll(Collections.singleton(PHONE_KEY + keyOf(phone))),
+					member -> Objects.equals(member.getPhone(), phone));
+		}
+		loadAll();
+		return fromIndex(membersByPhone, phone);
+	}
+
+	/**
+	 * Moves the member to the right entry of the name index after the name has
+	 * changed. Called by Member.
+	 * 
+	 * @param member  the member whose name changed
+	 * @param oldName the name before the change
+	 */
+	public void nameChanged(Member member, String oldName) {
+		if (store != null) {
+			if (store.get(member.getId()) == member) {
+				store.reindex(member, indexKeysOf(oldName, member.getPhone()));
+			}
+		} else if (search(member.getId()) == member) {
+			removeFromIndex(membersByName, oldName, member);
+			addToIndex(membersByName, member.getName(), member);
+		}
+	}
+
+	/**
+	 * Moves the member to the right entry of the phone index after the phone
+	 * number has changed. Called by Member.
+	 * 
+	 * @param member   the member whose phone number changed
+	 * @param oldPhone the phone number before the change
+	 */
+	public void phoneChanged(Member member, String oldPhone) {
+		if (store != null) {
+			if (store.get(member.getId()) == member) {
+				store.reindex(member, indexKeysOf(member.getName(), oldPhone));
+			}
+		} else if (search(member.getId()) == member) {
+			removeFromIndex(membersByPhone, oldPhone, member);
+			addToIndex(membersByPhone, member.getPhone(), member);
+		}
+	}
+
+	private static void addToIndex(Map<String, List<Member>> index, String key, Member member) {
+		index.computeIfAbsent(key, newKey -> new ArrayList<Member>(1)).add(member);
+	}
+
+	private static void removeFromIndex(Map<String, List<Member>> index, String key, Member member) {
+		List<Member> list = index.get(key);
+		if (list != null && list.remove(member) && list.isEmpty()) {
+			index.remove(key);
+		}
+	}
+
+	private static Iterator<Member> fromIndex(Map<String, List<Member>> index, String key) {
+		List<Member> list = index.get(key);
+		if (list == null) {
+			return Collections.emptyIterator();
+		}
+		return Collections.unmodifiableList(list).iterator();
+	}
+
+	/**
+	 * Returns the keys under which a store indexes a member with the given name
+	 * and phone number for the searches
+	 * 
+	 * @param name  the name
+	 * @param phone the phone number
+	 * @return the keys
+	 */
+	static List<String> indexKeysOf(String name, String phone) {
+		return Arrays.asList(NAME_KEY + keyOf(name), PHONE_KEY + keyOf(phone));
+	}
+
+	/*
+	 * A name or phone number that is not set is indexed as an empty one
+	 */
+	private static String keyOf(String value) {
+		return value == null ? "" : value;
+	}
+
+	/*
+	 * Returns the members found in the store that match
+	 */
+	private static Iterator<Member> matching(Iterator<Member> found, Predicate<Member> condition) {
+		List<Member> matches = new ArrayList<Member>();
+		while (found.hasNext()) {
+			Member member = found.next();
+			if (condition.test(member)) {
+				matches.add(member);
+			}
+		}
+		return Collections.unmodifiableList(matches).iterator();
+	}
+
+	/*
+	 * Returns the number in a member id of the form M followed by digits without
+	 * a leading zero, or -1 if the id does not have that form. Ids with leading
+	 * zeros are rejected so that distinct ids never share an array slot.
+	 */
+	private static int idNumber(String memberId) {
+		int length = memberId.length();
+		if (length < 2 || length > MAXIMUM_ID_DIGITS + 1 || memberId.charAt(0) != ID_PREFIX
+				|| memberId.charAt(1) == '0') {
+			return -1;
+		}
+		int number = 0;
+		for (int index = 1; index < length; index++) {
+			char digit = memberId.charAt(index);
+			if (digit < '0' || digit > '9') {
+				return -1;
+			}
+			number = number * 10 + (digit - '0');
+		}
+		return number;
+	}
+
+	/**
+	 * Returns the number of members
+	 * 
+	 * @return the number of members in the list
+	 */
+	public int size() {
+		if (store != null) {
+			return store.size();
+		}
+		loadAll();
+		return members.size();
+	}
+
 	public Iterator<Member> iterator() {
-		return members.iterator();
+		if (store != null) {
+			return store.iterator();
+		}
+		loadAll();
+		return Collections.unmodifiableList(members).iterator();
+	}
+
+	/**
+	 * Returns an iterator to the members read so far, without reading the rest
+	 * from the source, or the members the store keeps in memory
+	 * 
+	 * @return iterator to the members read
+	 */
+	public Iterator<Member> getLoadedMembers() {
+		if (store != null) {
+			return store.getResident();
+		}
+		return Collections.unmodifiableList(members).iterator();
+	}
+
+	/*
+	 * Reads the members the source still has, puts them in the order of the
+	 * source followed by those inserted since, and indexes them
+	 */
+	private void loadAll() {
+		if (source == null) {
+			return;
+		}
+		List<Member> read = source.loadAll();
+		source = null;
+		Set<Member> inTable = Collections.newSetFromMap(new IdentityHashMap<Member, Boolean>(2 * read.size()));
+		inTable.addAll(read);
+		List<Member> ordered = new ArrayList<Member>(members.size());
+		ordered.addAll(read);
+		for (Member member : members) {
+			if (!inTable.contains(member)) {
+				ordered.add(member);
+			}
+		}
+		members = ordered;
+		index();
+	}
+
+	private void index() {
+		membersByName = new HashMap<String, List<Member>>();
+		membersByPhone = new HashMap<String, List<Member>>();
+		for (Member member : members) {
+			addToIndex(membersByName, member.getName(), member);
+			addToIndex(membersByPhone, member.getPhone(), member);
+		}
+	}
+
+	/*
+	 * The name and phone indexes are rebuilt rather than serialized. Data saved
+	 * before members were kept by id number has only the list, from which the
+	 * array and the hash table are built. The retrieved list becomes the
+	 * singleton, since members report changes to it.
+	 */
+	private void readObject(ObjectInputStream input) throws IOException, ClassNotFoundException {
+		input.defaultReadObject();
+		if (numberedMembers == null) {
+			List<Member> saved = members;
+			members = new ArrayList<Member>(saved.size());
+			numberedMembers = new Member[MINIMUM_CAPACITY];
+			otherMembers = new HashMap<String, Member>();
+			for (Member member : saved) {
+				place(member);
+			}
+		}
+		index();
+		memberList = this;
 	}
 
 	/**
@@ -87,6 +444,14 @@ public class MemberList implements Iterable<Member>, Serializable {
 	 */
 	@Override
 	public String toString() {
+		if (store != null) {
+			StringJoiner joiner = new StringJoiner(", ", "[", "]");
+			for (Member member : store) {
+				joiner.add(String.valueOf(member));
+			}
+			return joiner.toString();
+		}
+		loadAll();
 		return members.toString();
 	}
 }
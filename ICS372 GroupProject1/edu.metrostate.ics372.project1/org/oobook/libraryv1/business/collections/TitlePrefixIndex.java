@@ -0,0 +1,104 @@
+package org.oobook.libraryv1.business.collections;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import org.oobook.libraryv1.business.entities.Book;
+
+/**
+ * Keeps the books sorted by lower-case title so that the books whose titles
+ * start with a given prefix form one contiguous range. The range is located by
+ * a search in a balanced tree, and only as many entries as the caller asks for
+ * are visited, so the cost of a query does not depend on the catalog size.
+ *
+ * The index is maintained by Catalog and is rebuilt rather than serialized.
+ *
+ */
+class TitlePrefixIndex {
+	private static final char SEPARATOR = '\u0000';
+	private NavigableMap<String, Book> titles = new TreeMap<String, Book>();
+
+	/**
+	 * Adds the book to the index
+	 *
+	 * @param book the book to be added
+	 */
+	public void add(Book book) {
+		titles.put(key(book), book);
+	}
+
+	/**
+	 * Removes the book from the index
+	 *
+	 * @param book the book to be removed
+	 */
+	public void remove(Book book) {
+		titles.remove(key(book));
+	}
+
+	/**
+	 * Returns at most limit books whose titles start with the prefix, in
+	 * alphabetical order of title. Case is ignored.
+	 *
+	 * @param prefix the start of the title
+	 * @param limit  the maximum number of books returned
+	 * @return the matching books
+	 */
+	public List<Book> search(String prefix, int limit) {
+		String normalized = normalize(prefix);
+		List<Book> matches = new ArrayList<Book>(Math.min(limit, 64));
+		for (Map.Entry<String, Book> entry : titles.tailMap(normalized, true).entrySet()) {
+			if (matches.size() >= limit || !entry.getKey().startsWith(normalized)) {
+				break;
+			}
+			matches.add(entry.getValue());
+		}
+		return matches;
+	}
+
+	/**
+	 * Takes the first limit books whose titles start with the prefix from books
+	 * already in order of title, such as those a store finds under the
+	 * beginning of a title (see EntityStore.findByPrefix), which may include
+	 * books whose titles do not start with the prefix
+	 *
+	 * @param books  the books in order of title
+	 * @param prefix the start of the title
+	 * @param limit  the maximum number of books returned
+	 * @return the matching books
+	 */
+	static List<Book> first(Iterator<Book> books, String prefix, int limit) {
+		String normalized = normalize(prefix);
+		List<Book> matches = new ArrayList<Book>(Math.min(limit, 64));
+		while (matches.size() < limit && books.hasNext()) {
+			Book book = books.next();
+			if (normalize(book.getTitle()).startsWith(normalized)) {
+				matches.add(book);
+			}
+		}
+		return matches;
+	}
+
+	/*
+	 * Books with the same title are told apart by appending the id after a
+	 * character that sorts before any character of a title.
+	 */
+	private static String key(Book book) {
+		return normalize(book.getTitle()) + SEPARATOR + book.getId();
+	}
+
+	/**
+	 * Returns the title as it is kept in the index
+	 *
+	 * @param title the title
+	 * @return the title in lower case; empty for none
+	 */
+	static String normalize(String title) {
+		return title == null ? "" : title.toLowerCase(Locale.ROOT);
+	}
+}
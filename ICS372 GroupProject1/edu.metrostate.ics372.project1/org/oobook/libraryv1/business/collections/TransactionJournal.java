@@ -0,0 +1,783 @@
+package org.oobook.libraryv1.business.collections;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.stream.IntStream;
+
+import org.oobook.libraryv1.business.entities.Transaction;
+
+/**
+ * The library-wide, append-only record of all transactions. Each transaction
+ * is one row spread over four primitive arrays: the type, the epoch day, the
+ * member and the book title. Types, member ids and titles are each replaced by
+ * their position in a dictionary, so a row takes 13 bytes no matter how long
+ * the strings are, and 4 more in memory for the order in which it was
+ * appended. Transaction objects are created only while iterating.
+ *
+ * For every member the journal also keeps the numbers of that member's rows.
+ * Rows are kept in order of day, so the rows of one member, or of the whole
+ * library, within a range of days are found by a binary search on the day and
+ * then read one at a time; a query costs a logarithm plus the size of its
+ * result. Transactions mostly come in time order and are then appended; one
+ * dated before the last row, as when the clock was set back, is inserted
+ * after the rows of its day, which moves the rows after it.
+ *
+ * Only recent transactions stay in memory. Older ones are moved into
+ * compressed segment files, one or more per calendar month, in the archive
+ * directory; only a short description of each segment is kept. A query that
+ * reaches back before the oldest transaction in memory reads the segments for
+ * the days it asks about, one at a time as the iterator gets to them.
+ *
+ */
+public class TransactionJournal implements Serializable {
+	private static final long serialVersionUID = 1L;
+	private static final int INITIAL_CAPACITY = 16;
+	private static final int DEFAULT_RETENTION_DAYS = 365;
+	private static final String DEFAULT_ARCHIVE_DIRECTORY = "LibraryArchive";
+	private static TransactionJournal journal;
+	private byte[] types = new byte[INITIAL_CAPACITY];
+	private int[] days = new int[INITIAL_CAPACITY];
+	private int[] members = new int[INITIAL_CAPACITY];
+	private int[] titles = new int[INITIAL_CAPACITY];
+	private int size;
+	private List<String> typeNames = new ArrayList<String>();
+	private List<String> memberIds = new ArrayList<String>();
+	private List<String> titleNames = new ArrayList<String>();
+	private List<TransactionSegment> segments = new ArrayList<TransactionSegment>();
+	private String archiveDirectory = DEFAULT_ARCHIVE_DIRECTORY;
+	private int retentionDays = DEFAULT_RETENTION_DAYS;
+	private transient Map<String, Integer> typeCodes = new HashMap<String, Integer>();
+	private transient Map<String, Integer> memberCodes = new HashMap<String, Integer>();
+	private transient Map<String, Integer> titleCodes = new HashMap<String, Integer>();
+	private transient List<RowList> memberRows = new ArrayList<RowList>();
+	private transient int[] sequences = new int[INITIAL_CAPACITY];
+	private transient List<TransactionSegment> archiving = new ArrayList<TransactionSegment>();
+	private transient long archivingBefore;
+	private transient int archivingMark;
+	private transient int archivingRows;
+
+	private TransactionJournal() {
+
+	}
+
+	public static TransactionJournal getInstance() {
+		if (journal == null) {
+			journal = new TransactionJournal();
+		}
+		return journal;
+	}
+
+	/**
+	 * Adds a transaction after the rows of its day and of the days before it
+	 *
+	 * @param memberId the member involved
+	 * @param type     the type of transaction
+	 * @param title    the title of the book
+	 * @param epochDay the day of the transaction
+	 */
+	public void append(String memberId, String type, String title, long epochDay) {
+		if (size == days.length) {
+			int capacity = size + (size >> 1);
+			types = Arrays.copyOf(types, capacity);
+			days = Arrays.copyOf(days, capacity);
+			members = Arrays.copyOf(members, capacity);
+			titles = Arrays.copyOf(titles, capacity);
+			sequences = Arrays.copyOf(sequences, capacity);
+		}
+		int member = encode(memberIds, memberCodes, memberId);
+		if (member == memberRows.size()) {
+			memberRows.add(new RowList());
+		}
+		int row = size;
+		if (size > 0 && epochDay < days[size - 1]) {
+			row = firstOnOrAfter(epochDay + 1);
+			System.arraycopy(types, row, types, row + 1, size - row);
+			System.arraycopy(days, row, days, row + 1, size - row);
+			System.arraycopy(members, row, members, row + 1, size - row);
+			System.arraycopy(titles, row, titles, row + 1, size - row);
+			System.arraycopy(sequences, row, sequences, row + 1, size - row);
+			for (RowList rows : memberRows) {
+				rows.moveFrom(row);
+			}
+		}
+		types[row] = (byte) encode(typeNames, typeCodes, type);
+		days[row] = (int) epochDay;
+		members[row] = member;
+		titles[row] = encode(titleNames, titleCodes, title);
+		sequences[row] = size;
+		memberRows.get(member).insert(row);
+		size++;
+	}
+
+	/**
+	 * Returns all transactions of a member, oldest first
+	 *
+	 * @param memberId the member
+	 * @return iterator to the transactions
+	 */
+	public Iterator<Transaction> getTransactions(String memberId) {
+		RowList rows = rowsOf(memberId);
+		return new ArchiveIterator(memberId, Long.MIN_VALUE, Long.MAX_VALUE,
+				new TransactionIterator(rows, 0, rows.size));
+	}
+
+	/**
+	 * Returns the transactions of a member on one day
+	 *
+	 * @param memberId the member
+	 * @param epochDay the day
+	 * @return iterator to the transactions
+	 */
+	public Iterator<Transaction> getTransactions(String memberId, long epochDay) {
+		return getTransactions(memberId, epochDay, epochDay);
+	}
+
+	/**
+	 * Returns the transactions of a member from one day through another, oldest
+	 * first
+	 *
+	 * @param memberId the member
+	 * @param fromDay  the first day
+	 * @param toDay    the last day
+	 * @return iterator to the transactions
+	 */
+	public Iterator<Transaction> getTransactions(String memberId, long fromDay, long toDay) {
+		RowList rows = rowsOf(memberId);
+		return new ArchiveIterator(memberId, fromDay, toDay,
+				new TransactionIterator(rows, rows.firstOnOrAfter(fromDay), rows.firstOnOrAfter(toDay + 1)));
+	}
+
+	/**
+	 * Returns the transactions of all members from one day through another,
+	 * oldest first
+	 *
+	 * @param fromDay the first day
+	 * @param toDay   the last day
+	 * @return iterator to the transactions
+	 */
+	public Iterator<Transaction> getTransactions(long fromDay, long toDay) {
+		return new ArchiveIterator(null, fromDay, toDay,
+				new TransactionIterator(null, firstOnOrAfter(fromDay), firstOnOrAfter(toDay + 1)));
+	}
+
+	/**
+	 * Returns the transactions in memory that were added from the given one on,
+	 * in the order they were added. The transactions are counted from 0 in the
+	 * order they were added; the count starts again from the oldest one kept
+	 * when transactions are archived.
+	 *
+	 * @param mark the number of the first transaction
+	 * @return iterator to the transactions
+	 */
+	public Iterator<Transaction> getTransactionsFrom(int mark) {
+		if (mark >= size) {
+			return new TransactionIterator(null, size, size);
+		}
+		mark = Math.max(mark, 0);
+		RowList added = new RowList(size - mark);
+		for (int row = 0; row < size; row++) {
+			if (sequences[row] >= mark) {
+				added.rows[sequences[row] - mark] = row;
+			}
+		}
+		return new TransactionIterator(added, 0, added.size);
+	}
+
+	/**
+	 * Returns the number of transactions held in memory
+	 *
+	 * @return the number of transactions in memory
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of transactions moved to segment files
+	 *
+	 * @return the number of archived transactions
+	 */
+	public int archivedSize() {
+		int archived = 0;
+		for (TransactionSegment segment : segments) {
+			archived += segment.size();
+		}
+		return archived;
+	}
+
+	/**
+	 * Sets the number of days, today included, whose transactions are kept in
+	 * memory by startRetention
+	 *
+	 * @param days the number of days; must be positive
+	 */
+	public void setRetentionDays(int days) {
+		if (days <= 0) {
+			throw new IllegalArgumentException("days must be positive");
+		}
+		retentionDays = days;
+	}
+
+	/**
+	 * Sets the directory to which segment files are written. Segments already
+	 * written are read from the directory set at the time the data is used.
+	 *
+	 * @param directory the name of the directory
+	 */
+	public void setArchiveDirectory(String directory) {
+		archiveDirectory = directory;
+	}
+
+	/**
+	 * Starts to archive the transactions older than the retention period, as
+	 * startArchive does
+	 *
+	 * @param today the current day
+	 * @return true iff the segment files could be written
+	 */
+	public boolean startRetention(long today) {
+		return startArchive(today - retentionDays + 1);
+	}
+
+	/**
+	 * Moves all transactions before a day from memory into new segment files at
+	 * once, as startArchive and then finishArchive do
+	 *
+	 * @param beforeDay the first day to keep in memory
+	 * @return true iff the transactions could be archived
+	 */
+	public boolean archive(long beforeDay) {
+		if (!startArchive(beforeDay)) {
+			return false;
+		}
+		finishArchive(true);
+		return true;
+	}
+
+	/**
+	 * Writes all transactions before a day to new segment files, one per
+	 * calendar month. Each file gets a name that no file in the directory has,
+	 * so a file left by a save that failed is never overwritten or read. If a
+	 * file cannot be written, the files this call wrote are deleted. The
+	 * transactions stay in memory, and the segments are not read, until
+	 * finishArchive; meanwhile writeSnapshot writes the journal as it will be
+	 * once they are archived. Used by a save, which archives the transactions
+	 * only once its data is written.
+	 *
+	 * @param beforeDay the first day to keep in memory
+	 * @return true iff the segment files could be written
+	 */
+	public boolean startArchive(long beforeDay) {
+		if (!archiving.isEmpty()) {
+			throw new IllegalStateException("transactions are being archived");
+		}
+		int end = firstOnOrAfter(beforeDay);
+		archivingRows = 0;
+		if (end == 0) {
+			return true;
+		}
+		File directory = new File(archiveDirectory);
+		List<TransactionSegment> written = new ArrayList<TransactionSegment>();
+		int number = segments.size();
+		try {
+			if (!directory.isDirectory() && !directory.mkdirs()) {
+				throw new IOException("cannot create " + directory);
+			}
+			for (int start = 0; start < end;) {
+				LocalDate month = LocalDate.ofEpochDay(days[start]).withDayOfMonth(1);
+				int next = Math.min(end, firstOnOrAfter(month.plusMonths(1).toEpochDay()));
+				File file;
+				do {
+					file = new File(directory, String.format("transactions-%d-%02d-%d.gz", month.getYear(),
+							month.getMonthValue(), number++));
+				} while (file.exists());
+				written.add(TransactionSegment.write(file, types, days, members, titles, typeNames, memberIds,
+						titleNames, start, next));
+				start = next;
+			}
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+			for (TransactionSegment segment : written) {
+				new File(directory, segment.getFileName()).delete();
+			}
+			return false;
+		}
+		archiving = written;
+		archivingBefore = beforeDay;
+		archivingMark = size;
+		archivingRows = end;
+		return true;
+	}
+
+	/**
+	 * Ends what startArchive started. If the data that refers to the new
+	 * segments was written, the segments are added to the journal and the
+	 * transactions they hold are dropped from memory; those added since
+	 * startArchive stay, whatever their day. Otherwise the segment files are
+	 * deleted.
+	 *
+	 * @param written true iff the data was written
+	 */
+	public void finishArchive(boolean written) {
+		if (archiving.isEmpty()) {
+			return;
+		}
+		if (written) {
+			segments.addAll(archiving);
+			dropArchived();
+		} else {
+			for (TransactionSegment segment : archiving) {
+				new File(archiveDirectory, segment.getFileName()).delete();
+			}
+		}
+		archiving = new ArrayList<TransactionSegment>();
+		archivingRows = 0;
+	}
+
+	/**
+	 * Returns the number of transactions in memory that startArchive wrote to
+	 * segment files and finishArchive has not yet dropped
+	 *
+	 * @return the number of transactions being archived
+	 */
+	public int archivingSize() {
+		return archivingRows;
+	}
+
+	/*
+	 * Returns true iff the row was written to a segment by startArchive
+	 */
+	private boolean isArchiving(int row) {
+		return archivingRows > 0 && days[row] < archivingBefore && sequences[row] < archivingMark;
+	}
+
+	/*
+	 * Removes the rows being archived. The columns, dictionaries and row lists
+	 * are rebuilt, so that ids and titles used only by the removed rows are
+	 * dropped as well. The rows kept are numbered again in the order they were
+	 * added.
+	 */
+	private void dropArchived() {
+		byte[] oldTypes = types;
+		int[] oldDays = days;
+		int[] oldMembers = members;
+		int[] oldTitles = titles;
+		int[] oldSequences = sequences;
+		int oldSize = size;
+		List<String> oldTypeNames = typeNames;
+		List<String> oldMemberIds = memberIds;
+		List<String> oldTitleNames = titleNames;
+		boolean[] dropped = new boolean[oldSize];
+		for (int row = 0; row < oldSize; row++) {
+			dropped[row] = isArchiving(row);
+		}
+		int capacity = Math.max(oldSize - archivingRows, INITIAL_CAPACITY);
+		types = new byte[capacity];
+		days = new int[capacity];
+		members = new int[capacity];
+		titles = new int[capacity];
+		sequences = new int[capacity];
+		size = 0;
+		typeNames = new ArrayList<String>();
+		memberIds = new ArrayList<String>();
+		titleNames = new ArrayList<String>();
+		typeCodes = new HashMap<String, Integer>();
+		memberCodes = new HashMap<String, Integer>();
+		titleCodes = new HashMap<String, Integer>();
+		memberRows = new ArrayList<RowList>();
+		int[] rowOf = new int[oldSize];
+		Arrays.fill(rowOf, -1);
+		for (int row = 0; row < oldSize; row++) {
+			if (!dropped[row]) {
+				rowOf[oldSequences[row]] = size;
+				append(oldMemberIds.get(oldMembers[row]), oldTypeNames.get(oldTypes[row] & 0xFF),
+						oldTitleNames.get(oldTitles[row]), oldDays[row]);
+			}
+		}
+		int sequence = 0;
+		for (int row : rowOf) {
+			if (row >= 0) {
+				sequences[row] = sequence++;
+			}
+		}
+	}
+
+	/*
+	 * Returns the first row whose day is not before the given day, or size if
+	 * there is none
+	 */
+	private int firstOnOrAfter(long epochDay) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (days[middle] < epochDay) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	private RowList rowsOf(String memberId) {
+		Integer member = memberCodes.get(memberId);
+		return member == null ? new RowList() : memberRows.get(member);
+	}
+
+	private static int encode(List<String> names, Map<String, Integer> codes, String name) {
+		Integer code = codes.get(name);
+		if (code == null) {
+			code = names.size();
+			names.add(name);
+			codes.put(name, code);
+		}
+		return code;
+	}
+
+	/**
+	 * Writes the journal in the library's snapshot format: the dictionaries, the
+	 * four columns up to the number of rows, the archived segments and the
+	 * settings. The rows being archived are left out and their segments
+	 * included.
+	 *
+	 * @param output the stream
+	 * @throws IOException if the stream cannot be written
+	 */
+	public void writeSnapshot(DataOutput output) throws IOException {
+		writeNames(output, typeNames);
+		writeNames(output, memberIds);
+		writeNames(output, titleNames);
+		int[] rows = IntStream.range(0, size).filter(row -> !isArchiving(row)).toArray();
+		output.writeInt(rows.length);
+		for (int row : rows) {
+			output.writeByte(types[row]);
+		}
+		for (int row : rows) {
+			output.writeInt(days[row]);
+		}
+		for (int row : rows) {
+			output.writeInt(members[row]);
+		}
+		for (int row : rows) {
+			output.writeInt(titles[row]);
+		}
+		output.writeInt(segments.size() + archiving.size());
+		for (TransactionSegment segment : segments) {
+			segment.writeSnapshot(output);
+		}
+		for (TransactionSegment segment : archiving) {
+			segment.writeSnapshot(output);
+		}
+		output.writeUTF(archiveDirectory);
+		output.writeInt(retentionDays);
+	}
+
+	/**
+	 * Reads a journal written by writeSnapshot. The journal becomes the
+	 * singleton.
+	 *
+	 * @param input the stream
+	 * @return the journal
+	 * @throws IOException if the stream cannot be read
+	 */
+	public static TransactionJournal readSnapshot(DataInput input) throws IOException {
+		TransactionJournal read = new TransactionJournal();
+		read.typeNames = readNames(input);
+		read.memberIds = readNames(input);
+		read.titleNames = readNames(input);
+		read.size = input.readInt();
+		int capacity = Math.max(read.size, INITIAL_CAPACITY);
+		read.types = new byte[capacity];
+		read.days = new int[capacity];
+		read.members = new int[capacity];
+		read.titles = new int[capacity];
+		input.readFully(read.types, 0, read.size);
+		readColumns(input, read.size, read.days, read.members, read.titles);
+		for (int count = input.readInt(); count > 0; count--) {
+			read.segments.add(TransactionSegment.readSnapshot(input));
+		}
+		read.archiveDirectory = input.readUTF();
+		read.retentionDays = input.readInt();
+		read.index();
+		return journal = read;
+	}
+
+	/**
+	 * Creates a journal of the given transactions, appended in order of day,
+	 * which becomes the singleton. Used for data saved when each member kept a
+	 * list of their own transactions.
+	 *
+	 * @param transactions the transactions, each with the id of its member
+	 * @return the journal
+	 */
+	public static TransactionJournal fromTransactions(List<Transaction> transactions) {
+		List<Transaction> sorted = new ArrayList<Transaction>(transactions);
+		sorted.sort(Comparator.comparingLong(Transaction::getEpochDay));
+		TransactionJournal created = new TransactionJournal();
+		for (Transaction transaction : sorted) {
+			created.append(transaction.getMemberId(), transaction.getType(), transaction.getTitle(),
+					transaction.getEpochDay());
+		}
+		return journal = created;
+	}
+
+	private static void writeNames(DataOutput output, List<String> names) throws IOException {
+		output.writeInt(names.size());
+		for (String name : names) {
+			output.writeUTF(name);
+		}
+	}
+
+	private static List<String> readNames(DataInput input) throws IOException {
+		int count = input.readInt();
+		List<String> names = new ArrayList<String>(count);
+		for (int index = 0; index < count; index++) {
+			names.add(input.readUTF());
+		}
+		return names;
+	}
+
+	/*
+	 * Reads columns of ints written one after the other. The bytes are read in
+	 * bulk and decoded in parallel on the fork-join pool, a column at a time.
+	 */
+	private static void readColumns(DataInput input, int count, int[]... columns) throws IOException {
+		byte[][] bytes = new byte[columns.length][Integer.BYTES * count];
+		for (byte[] column : bytes) {
+			input.readFully(column);
+		}
+		IntStream.range(0, columns.length).parallel()
+				.forEach(column -> ByteBuffer.wrap(bytes[column]).asIntBuffer().get(columns[column], 0, count));
+	}
+
+	/*
+	 * The unused capacity of the columns is not written.
+	 */
+	private void writeObject(ObjectOutputStream output) throws IOException {
+		types = Arrays.copyOf(types, Math.max(size, INITIAL_CAPACITY));
+		days = Arrays.copyOf(days, types.length);
+		members = Arrays.copyOf(members, types.length);
+		titles = Arrays.copyOf(titles, types.length);
+		output.defaultWriteObject();
+	}
+
+	/*
+	 * The dictionaries' reverse maps and the rows of each member are rebuilt
+	 * from the columns. The retrieved journal becomes the singleton.
+	 */
+	private void readObject(ObjectInputStream input) throws IOException, ClassNotFoundException {
+		input.defaultReadObject();
+		if (segments == null) {
+			segments = new ArrayList<TransactionSegment>();
+			archiveDirectory = DEFAULT_ARCHIVE_DIRECTORY;
+			retentionDays = DEFAULT_RETENTION_DAYS;
+		}
+		archiving = new ArrayList<TransactionSegment>();
+		index();
+		journal = this;
+	}
+
+	/*
+	 * Rebuilds the dictionaries' reverse maps and the rows of each member from
+	 * the columns
+	 */
+	private void index() {
+		typeCodes = codes(typeNames);
+		memberCodes = codes(memberIds);
+		titleCodes = codes(titleNames);
+		memberRows = new ArrayList<RowList>(memberIds.size());
+		for (int index = 0; index < memberIds.size(); index++) {
+			memberRows.add(new RowList());
+		}
+		sequences = new int[days.length];
+		for (int row = 0; row < size; row++) {
+			memberRows.get(members[row]).add(row);
+			sequences[row] = row;
+		}
+	}
+
+	private static Map<String, Integer> codes(List<String> names) {
+		Map<String, Integer> codes = new HashMap<String, Integer>();
+		for (int index = 0; index < names.size(); index++) {
+			codes.put(names.get(index), index);
+		}
+		return codes;
+	}
+
+	/*
+	 * A growable array of row numbers in increasing order
+	 */
+	private class RowList {
+		private int[] rows;
+		private int size;
+
+		private RowList() {
+			rows = new int[4];
+		}
+
+		/*
+		 * Creates a list of the given size whose rows are filled in by the caller,
+		 * in any order; such a list is only iterated
+		 */
+		private RowList(int size) {
+			rows = new int[size];
+			this.size = size;
+		}
+
+		private void add(int row) {
+			if (size == rows.length) {
+				rows = Arrays.copyOf(rows, 2 * size);
+			}
+			rows[size++] = row;
+		}
+
+		/*
+		 * Adds a row that is not yet in the list in its place
+		 */
+		private void insert(int row) {
+			int position = firstFrom(row);
+			add(row);
+			System.arraycopy(rows, position, rows, position + 1, size - 1 - position);
+			rows[position] = row;
+		}
+
+		/*
+		 * Adds 1 to the rows from the given one on, for a row inserted there
+		 */
+		private void moveFrom(int row) {
+			for (int position = firstFrom(row); position < size; position++) {
+				rows[position]++;
+			}
+		}
+
+		/*
+		 * Returns the position of the first row not before the given one, or size
+		 * if there is none
+		 */
+		private int firstFrom(int row) {
+			int low = 0;
+			int high = size;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (rows[middle] < row) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+			return low;
+		}
+
+		/*
+		 * Returns the position of the first row whose day is not before the given
+		 * day, or size if there is none
+		 */
+		private int firstOnOrAfter(long epochDay) {
+			int low = 0;
+			int high = size;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (days[rows[middle]] < epochDay) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+			return low;
+		}
+	}
+
+	/*
+	 * Returns the transactions in the segments that cover the range of days, a
+	 * segment at a time, and then those of the given iterator over the rows in
+	 * memory, which are all newer
+	 */
+	private class ArchiveIterator implements Iterator<Transaction> {
+		private String memberId;
+		private long fromDay;
+		private long toDay;
+		private Iterator<Transaction> inMemory;
+		private Iterator<TransactionSegment> segmentIterator = new ArrayList<TransactionSegment>(segments).iterator();
+		private Iterator<Transaction> archived = Collections.emptyIterator();
+
+		private ArchiveIterator(String memberId, long fromDay, long toDay, Iterator<Transaction> inMemory) {
+			this.memberId = memberId;
+			this.fromDay = fromDay;
+			this.toDay = toDay;
+			this.inMemory = inMemory;
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (!archived.hasNext() && segmentIterator.hasNext()) {
+				TransactionSegment segment = segmentIterator.next();
+				if (segment.overlaps(fromDay, toDay)) {
+					try {
+						archived = segment.read(new File(archiveDirectory), memberId, fromDay, toDay);
+					} catch (IOException ioe) {
+						throw new UncheckedIOException(ioe);
+					}
+				}
+			}
+			return archived.hasNext() || inMemory.hasNext();
+		}
+
+		@Override
+		public Transaction next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException("No such element");
+			}
+			return archived.hasNext() ? archived.next() : inMemory.next();
+		}
+	}
+
+	/*
+	 * Creates a Transaction for each row between two positions of a row list, or
+	 * between two rows of the journal if there is no row list
+	 */
+	private class TransactionIterator implements Iterator<Transaction> {
+		private RowList rows;
+		private int position;
+		private int end;
+
+		private TransactionIterator(RowList rows, int start, int end) {
+			this.rows = rows;
+			this.position = start;
+			this.end = end;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return position < end;
+		}
+
+		@Override
+		public Transaction next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException("No such element");
+			}
+			int row = rows == null ? position : rows.rows[position];
+			position++;
+			return new Transaction(typeNames.get(types[row] & 0xFF), titleNames.get(titles[row]), days[row],
+					memberIds.get(members[row]));
+		}
+	}
+}
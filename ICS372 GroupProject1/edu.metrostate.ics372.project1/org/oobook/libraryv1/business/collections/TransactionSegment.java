@@ -0,0 +1,337 @@
+package org.oobook.libraryv1.business.collections;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.oobook.libraryv1.business.entities.Transaction;
+
+/**
+ * A file of archived transactions, all from one calendar month. The file is
+ * written once and never changed. It holds its own dictionaries of types,
+ * member ids and titles, followed by the four columns of the rows, and is
+ * compressed with GZIP. Only the name of the file, the days it covers and the
+ * number of rows are kept in memory.
+ *
+ */
+class TransactionSegment implements Serializable {
+	private static final long serialVersionUID = 1L;
+	private String fileName;
+	private int firstDay;
+	private int lastDay;
+	private int size;
+
+	private TransactionSegment(String fileName, int firstDay, int lastDay, int size) {
+		this.fileName = fileName;
+		this.firstDay = firstDay;
+		this.lastDay = lastDay;
+		this.size = size;
+	}
+
+	/**
+	 * Writes rows of the journal to a new segment file. The rows are written to
+	 * a temporary file that is renamed once it is on disk, so the file either
+	 * holds all the rows or does not exist; a file that is already there is
+	 * never replaced.
+	 *
+	 * @param file       the file, which must not exist
+	 * @param types      the type of each row
+	 * @param days       the day of each row
+	 * @param members    the member of each row
+	 * @param titles     the title of each row
+	 * @param typeNames  the journal's type dictionary
+	 * @param memberIds  the journal's member dictionary
+	 * @param titleNames the journal's title dictionary
+	 * @param start      the first row to write
+	 * @param end        one past the last row to write
+	 * @return the segment
+	 * @throws IOException if the file cannot be written
+	 */
+	static TransactionSegment write(File file, byte[] types, int[] days, int[] members, int[] titles,
+			List<String> typeNames, List<String> memberIds, List<String> titleNames, int start, int end)
+			throws IOException {
+		if (file.exists()) {
+			throw new IOException(file + " already exists");
+		}
+		int[] typeCodes = new int[end - start];
+		int[] memberCodes = new int[end - start];
+		int[] titleCodes = new int[end - start];
+		List<String> segmentTypes = new ArrayList<String>();
+		List<String> segmentMembers = new ArrayList<String>();
+		List<String> segmentTitles = new ArrayList<String>();
+		Map<Integer, Integer> typeMap = new HashMap<Integer, Integer>();
+		Map<Integer, Integer> memberMap = new HashMap<Integer, Integer>();
+		Map<Integer, Integer> titleMap = new HashMap<Integer, Integer>();
+		for (int row = start; row < end; row++) {
+			typeCodes[row - start] = recode(typeMap, segmentTypes, typeNames, types[row] & 0xFF);
+			memberCodes[row - start] = recode(memberMap, segmentMembers, memberIds, members[row]);
+			titleCodes[row - start] = recode(titleMap, segmentTitles, titleNames, titles[row]);
+		}
+		File temporary = new File(file.getPath() + ".tmp");
+		try (FileOutputStream stream = new FileOutputStream(temporary)) {
+			GZIPOutputStream compressed = new GZIPOutputStream(new BufferedOutputStream(stream));
+			DataOutputStream output = new DataOutputStream(compressed);
+			output.writeInt(end - start);
+			writeStrings(output, segmentTypes);
+			writeStrings(output, segmentMembers);
+			writeStrings(output, segmentTitles);
+			for (int code : typeCodes) {
+				output.writeByte(code);
+			}
+			for (int row = start; row < end; row++) {
+				output.writeInt(days[row]);
+			}
+			for (int code : memberCodes) {
+				output.writeInt(code);
+			}
+			for (int code : titleCodes) {
+				output.writeInt(code);
+			}
+			output.flush();
+			compressed.finish();
+			compressed.flush();
+			stream.getFD().sync();
+		} catch (IOException ioe) {
+			temporary.delete();
+			throw ioe;
+		}
+		try {
+			Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException ioe) {
+			temporary.delete();
+			throw ioe;
+		}
+		return new TransactionSegment(file.getName(), days[start], days[end - 1], end - start);
+	}
+
+	/**
+	 * Reads the file and returns its transactions within a range of days, oldest
+	 * first, optionally only those of one member. The columns are stored one
+	 * after another, so they are read into arrays of primitives and the file is
+	 * closed; each Transaction is created only when the iterator reaches its
+	 * row.
+	 *
+	 * @param directory the directory holding the file
+	 * @param memberId  the member, or null for all members
+	 * @param fromDay   the first day
+	 * @param toDay     the last day
+	 * @return iterator to the transactions
+	 * @throws IOException if the file cannot be read
+	 */
+	Iterator<Transaction> read(File directory, String memberId, long fromDay, long toDay) throws IOException {
+		try (DataInputStream input = new DataInputStream(
+				new GZIPInputStream(new BufferedInputStream(new FileInputStream(new File(directory, fileName)))))) {
+			int rows = input.readInt();
+			String[] typeNames = readStrings(input);
+			String[] memberIds = readStrings(input);
+			String[] titleNames = readStrings(input);
+			int member = -1;
+			for (int index = 0; index < memberIds.length; index++) {
+				if (memberIds[index].equals(memberId)) {
+					member = index;
+				}
+			}
+			if (memberId != null && member == -1) {
+				return Collections.emptyIterator();
+			}
+			byte[] types = new byte[rows];
+			input.readFully(types);
+			int[] days = readInts(input, rows);
+			int[] members = readInts(input, rows);
+			int[] titles = readInts(input, rows);
+			return new RowIterator(typeNames, memberIds, titleNames, types, days, members, titles, member,
+					firstOnOrAfter(days, fromDay), firstAfter(days, toDay));
+		}
+	}
+
+	/**
+	 * Checks whether the segment has rows on any of the days in a range
+	 *
+	 * @param fromDay the first day
+	 * @param toDay   the last day
+	 * @return true iff the segment covers some of the days
+	 */
+	boolean overlaps(long fromDay, long toDay) {
+		return firstDay <= toDay && lastDay >= fromDay;
+	}
+
+	/**
+	 * Returns the number of rows in the segment
+	 *
+	 * @return the number of rows
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the name of the segment file
+	 *
+	 * @return the name of the file
+	 */
+	String getFileName() {
+		return fileName;
+	}
+
+	/**
+	 * Writes the description of the segment kept in memory
+	 *
+	 * @param output the stream
+	 * @throws IOException if the stream cannot be written
+	 */
+	void writeSnapshot(DataOutput output) throws IOException {
+		output.writeUTF(fileName);
+		output.writeInt(firstDay);
+		output.writeInt(lastDay);
+		output.writeInt(size);
+	}
+
+	/**
+	 * Reads a description written by writeSnapshot
+	 *
+	 * @param input the stream
+	 * @return the segment
+	 * @throws IOException if the stream cannot be read
+	 */
+	static TransactionSegment readSnapshot(DataInput input) throws IOException {
+		return new TransactionSegment(input.readUTF(), input.readInt(), input.readInt(), input.readInt());
+	}
+
+	/*
+	 * Returns the first row whose day is not before the given day, or the
+	 * number of rows if there is none
+	 */
+	private static int firstOnOrAfter(int[] days, long epochDay) {
+		int low = 0;
+		int high = days.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (days[middle] < epochDay) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/*
+	 * Returns the first row whose day is after the given day, or the number of
+	 * rows if there is none
+	 */
+	private static int firstAfter(int[] days, long epochDay) {
+		int low = 0;
+		int high = days.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (days[middle] <= epochDay) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	private static int recode(Map<Integer, Integer> map, List<String> segmentNames, List<String> names, int code) {
+		Integer segmentCode = map.get(code);
+		if (segmentCode == null) {
+			segmentCode = segmentNames.size();
+			segmentNames.add(names.get(code));
+			map.put(code, segmentCode);
+		}
+		return segmentCode;
+	}
+
+	private static void writeStrings(DataOutputStream output, List<String> strings) throws IOException {
+		output.writeInt(strings.size());
+		for (String string : strings) {
+			output.writeUTF(string);
+		}
+	}
+
+	private static String[] readStrings(DataInputStream input) throws IOException {
+		String[] strings = new String[input.readInt()];
+		for (int index = 0; index < strings.length; index++) {
+			strings[index] = input.readUTF();
+		}
+		return strings;
+	}
+
+	private static int[] readInts(DataInputStream input, int count) throws IOException {
+		int[] values = new int[count];
+		for (int index = 0; index < count; index++) {
+			values[index] = input.readInt();
+		}
+		return values;
+	}
+
+	/*
+	 * Creates a Transaction for each row between two positions, optionally only
+	 * for the rows of one member
+	 */
+	private static class RowIterator implements Iterator<Transaction> {
+		private String[] typeNames;
+		private String[] memberIds;
+		private String[] titleNames;
+		private byte[] types;
+		private int[] days;
+		private int[] members;
+		private int[] titles;
+		private int member;
+		private int row;
+		private int end;
+
+		private RowIterator(String[] typeNames, String[] memberIds, String[] titleNames, byte[] types, int[] days,
+				int[] members, int[] titles, int member, int start, int end) {
+			this.typeNames = typeNames;
+			this.memberIds = memberIds;
+			this.titleNames = titleNames;
+			this.types = types;
+			this.days = days;
+			this.members = members;
+			this.titles = titles;
+			this.member = member;
+			this.row = start;
+			this.end = end;
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (row < end && member != -1 && members[row] != member) {
+				row++;
+			}
+			return row < end;
+		}
+
+		@Override
+		public Transaction next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException("No such element");
+			}
+			Transaction transaction = new Transaction(typeNames[types[row] & 0xFF], titleNames[titles[row]],
+					days[row], memberIds[members[row]]);
+			row++;
+			return transaction;
+		}
+	}
+}
@@ -1,11 +1,24 @@
 package org.oobook.libraryv1.business.entities;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.GregorianCalendar;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
 
+import org.oobook.libraryv1.business.collections.Catalog;
 import org.oobook.libraryv1.business.collections.HoldList;
+import org.oobook.libraryv1.business.collections.LoanList;
+import org.oobook.libraryv1.business.collections.MemberList;
 
 /**
  * 
@@ -30,6 +43,10 @@ import org.oobook.libraryv1.business.collections.HoldList;
 /**
  * Book represents a book of the library.
  * 
+ * A book is dirty from the time it is created or changed until it is marked
+ * clean, which a checkpoint does once the book is written. Its holds count as
+ * part of it.
+ * 
  * @author Brahma Dathan and Sarnath Ramnath
  *
  */
@@ -40,7 +57,9 @@ public class Book implements Serializable {
 	private String id;
 	private Member borrowedBy;
 	private HoldList holds = new HoldList();
-	private Calendar dueDate;
+	private long dueTime;
+	private transient String dueDate;
+	private transient boolean dirty = true;
 
 	/**
 	 * Creates a book with the given id, title, and author name
@@ -56,21 +75,21 @@ public class Book implements Serializable {
 	}
 
 	/**
-	 * Marks the book as issued to a member
+	 * Marks the book as issued to a member and files it in LoanList under its new
+	 * due date, the end of the day one month from today
 	 * 
 	 * @param member the borrower
 	 * @return true iff the book could be issued. True currently
 	 */
 	public boolean issue(Member member) {
+		if (borrowedBy != null) {
+			LoanList.getInstance().removeLoan(this);
+		}
 		borrowedBy = member;
-		dueDate = new GregorianCalendar();
-		dueDate.set(Calendar.HOUR, 0);
-		dueDate.set(Calendar.MINUTE, 0);
-		dueDate.set(Calendar.SECOND, 0);
-		dueDate.add(Calendar.HOUR, 11);
-		dueDate.add(Calendar.MINUTE, 59);
-		dueDate.add(Calendar.SECOND, 59);
-		dueDate.add(Calendar.MONTH, 1);
+		dueTime = LibraryClock.dueTime();
+		dueDate = null;
+		dirty = true;
+		LoanList.getInstance().insertLoan(this);
 		return true;
 	}
 
@@ -84,7 +103,9 @@ public class Book implements Serializable {
 			return null;
 		} else {
 			Member borrower = borrowedBy;
+			LoanList.getInstance().removeLoan(this);
 			borrowedBy = null;
+			dirty = true;
 			return borrower;
 		}
 	}
@@ -128,6 +149,16 @@ public class Book implements Serializable {
 		return false;
 	}
 
+	/**
+	 * Removes the given hold from the book
+	 * 
+	 * @param hold the hold to be removed
+	 * @return true iff the hold was on the book
+	 */
+	public boolean removeHold(Hold hold) {
+		return holds.removeHold(hold);
+	}
+
 	/**
 	 * Returns a valid hold
 	 * 
@@ -143,7 +174,7 @@ public class Book implements Serializable {
 	 * @return true iff there is a hold
 	 */
 	public boolean hasHold() {
-		return holds.getNextValidHold() != null;
+		return !holds.isEmpty();
 	}
 
 	/**
@@ -151,7 +182,7 @@ public class Book implements Serializable {
 	 * 
 	 * @return iterator for the holds on the book
 	 */
-	public Iterator getHolds() {
+	public Iterator<Hold> getHolds() {
 		return holds.iterator();
 	}
 
@@ -172,12 +203,227 @@ public class Book implements Serializable {
 	}
 
 	/**
-	 * Returns a String version of due date
+	 * Returns a String version of due date. The String is made on the first call
+	 * after the book is issued and kept until it is issued again.
 	 * 
 	 * @return String version of due date
 	 */
 	public String getDueDate() {
-		return (dueDate.getTime().toString());
+		if (dueDate == null) {
+			dueDate = new Date(dueTime).toString();
+		}
+		return dueDate;
+	}
+
+	/**
+	 * Returns the due date in milliseconds
+	 * 
+	 * @return due date; 0 if the book has never been issued
+	 */
+	public long getDueDateInMillis() {
+		return dueTime;
+	}
+
+	/**
+	 * Returns a copy of the book as it is now, with its own list of the same
+	 * holds, for a save that must write the book as it was before it changes.
+	 * The copy is not in the catalog or in LoanList.
+	 * 
+	 * @return the copy
+	 */
+	public Book copy() {
+		Book copy = new Book(title, author, id);
+		copy.borrowedBy = borrowedBy;
+		copy.dueTime = dueTime;
+		for (Hold hold : holds) {
+			copy.holds.addHold(hold);
+		}
+		return copy;
+	}
+
+	/**
+	 * Checks whether the book or its holds changed since the book was last
+	 * marked clean
+	 * 
+	 * @return true iff the book changed
+	 */
+	public boolean isDirty() {
+		return dirty || holds.isDirty();
+	}
+
+	/**
+	 * Marks the book and its holds as written
+	 */
+	public void markClean() {
+		dirty = false;
+		holds.markClean();
+	}
+
+	/**
+	 * Writes the fields of the book and its holds, with the borrower and the
+	 * members holding the book given by id, for readChanges
+	 * 
+	 * @param output the stream
+	 * @throws IOException if the stream cannot be written
+	 */
+	public void writeChanges(DataOutput output) throws IOException {
+		StringCodec.write(output, id);
+		StringCodec.write(output, title);
+		StringCodec.write(output, author);
+		StringCodec.write(output, borrowedBy == null ? null : borrowedBy.getId());
+		output.writeLong(dueTime);
+		List<Hold> list = new ArrayList<Hold>();
+		for (Hold hold : holds) {
+			list.add(hold);
+		}
+		output.writeInt(list.size());
+		for (Hold hold : list) {
+			StringCodec.write(output, hold.getMember().getId());
+			output.writeLong(hold.getEndTime());
+		}
+	}
+
+	/**
+	 * Reads a book written by writeChanges. If the catalog has a book with that
+	 * id, the book is brought up to date; otherwise it is added to the catalog.
+	 * The loans and holds of the members are changed along with those of the
+	 * book, without recording transactions. The members must already be in the
+	 * member list. The book is left clean.
+	 * 
+	 * @param input the stream
+	 * @return the book
+	 * @throws IOException if the stream cannot be read
+	 */
+	public static Book readChanges(DataInput input) throws IOException {
+		String id = StringCodec.read(input);
+		String title = StringCodec.read(input);
+		String author = StringCodec.read(input);
+		MemberList members = MemberList.getInstance();
+		Member borrower = members.search(StringCodec.read(input));
+		long dueTime = input.readLong();
+		Book book = Catalog.getInstance().search(id);
+		if (book == null) {
+			book = new Book(title, author, id);
+			Catalog.getInstance().insertBook(book);
+		}
+		book.restoreLoan(borrower, dueTime);
+		Map<String, Hold> current = new HashMap<String, Hold>();
+		for (Hold hold : book.holds) {
+			current.put(hold.getMember().getId() + '@' + hold.getEndTime(), hold);
+		}
+		int count = input.readInt();
+		List<Hold> added = new ArrayList<Hold>();
+		for (int index = 0; index < count; index++) {
+			Member member = members.search(StringCodec.read(input));
+			long endTime = input.readLong();
+			if (current.remove(member.getId() + '@' + endTime) == null) {
+				added.add(new Hold(member, book, endTime));
+			}
+		}
+		for (Hold hold : current.values()) {
+			book.holds.removeHold(hold);
+			hold.getMember().restoreHold(hold, false);
+		}
+		for (Hold hold : added) {
+			book.holds.addHold(hold);
+			hold.getMember().restoreHold(hold, true);
+		}
+		book.markClean();
+		return book;
+	}
+
+	/**
+	 * Writes the book in the library's snapshot format, with the borrower and
+	 * the members holding the book given by their position in the member table
+	 * 
+	 * @param output  the stream
+	 * @param members gives the position of a member
+	 * @throws IOException if the stream cannot be written
+	 */
+	public void writeSnapshot(DataOutput output, ToIntFunction<Member> members) throws IOException {
+		StringCodec.write(output, id);
+		StringCodec.write(output, title);
+		StringCodec.write(output, author);
+		output.writeInt(borrowedBy == null ? -1 : members.applyAsInt(borrowedBy));
+		output.writeLong(dueTime);
+		List<Hold> list = new ArrayList<Hold>();
+		for (Hold hold : holds) {
+			list.add(hold);
+		}
+		output.writeInt(list.size());
+		for (Hold hold : list) {
+			output.writeInt(members.applyAsInt(hold.getMember()));
+			output.writeLong(hold.getEndTime());
+		}
+	}
+
+	/**
+	 * Reads a book written by writeSnapshot. The book is not put in the catalog
+	 * or in LoanList, and the members' loans and holds are not changed. The book
+	 * is clean.
+	 * 
+	 * @param input   the stream
+	 * @param members gives the member at a position in the member table
+	 * @return the book
+	 * @throws IOException if the stream cannot be read
+	 */
+	public static Book readSnapshot(DataInput input, IntFunction<Member> members) throws IOException {
+		String id = StringCodec.read(input);
+		String title = StringCodec.read(input);
+		String author = StringCodec.read(input);
+		Book book = new Book(title, author, id);
+		int borrower = input.readInt();
+		book.borrowedBy = borrower < 0 ? null : members.apply(borrower);
+		book.dueTime = input.readLong();
+		for (int count = input.readInt(); count > 0; count--) {
+			book.holds.addHold(new Hold(members.apply(input.readInt()), book, input.readLong()));
+		}
+		book.markClean();
+		return book;
+	}
+
+	/*
+	 * Sets the borrower and the due date as read from a checkpoint, moving the
+	 * book in LoanList and between the borrowers' loans
+	 */
+	private void restoreLoan(Member borrower, long dueTime) {
+		if (borrowedBy == borrower && this.dueTime == dueTime) {
+			return;
+		}
+		if (borrowedBy != null) {
+			LoanList.getInstance().removeLoan(this);
+			if (borrowedBy != borrower) {
+				borrowedBy.restoreLoan(this, false);
+			}
+		}
+		if (borrower != null && borrowedBy != borrower) {
+			borrower.restoreLoan(this, true);
+		}
+		borrowedBy = borrower;
+		this.dueTime = dueTime;
+		dueDate = null;
+		if (borrower != null) {
+			LoanList.getInstance().insertLoan(this);
+		}
+	}
+
+	/*
+	 * Data saved before due dates were kept in milliseconds has a Calendar in the
+	 * dueDate field instead.
+	 */
+	private void readObject(ObjectInputStream input) throws IOException, ClassNotFoundException {
+		ObjectInputStream.GetField fields = input.readFields();
+		title = (String) fields.get("title", null);
+		author = (String) fields.get("author", null);
+		id = (String) fields.get("id", null);
+		borrowedBy = (Member) fields.get("borrowedBy", null);
+		holds = (HoldList) fields.get("holds", null);
+		if (fields.getObjectStreamClass().getField("dueDate") != null) {
+			Calendar dueDate = (Calendar) fields.get("dueDate", null);
+			dueTime = dueDate == null ? 0 : dueDate.getTimeInMillis();
+		} else {
+			dueTime = fields.get("dueTime", 0L);
+		}
 	}
 
 	@Override
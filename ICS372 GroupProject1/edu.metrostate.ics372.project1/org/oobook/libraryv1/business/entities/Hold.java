@@ -19,8 +19,11 @@ package org.oobook.libraryv1.business.entities;
  * The authors do not make any claims regarding the correctness of the code in this module
  * and are not responsible for any loss or damage resulting from its use.  
  */
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.Calendar;
+import java.util.Date;
 
 /**
  * Hold represents a hold placed by a member on a book.
@@ -29,22 +32,22 @@ import java.util.Calendar;
  *
  */
 public class Hold implements Serializable {
+	private static final long serialVersionUID = -3569971504109375297L;
 	private Book book;
 	private Member member;
-	private Calendar date;
+	private long endTime;
 
 	/**
-	 * The member and book are stored. The date is computed by adding the duration
-	 * days to the current date.
+	 * The member, book and end date are stored.
 	 * 
-	 * @param member   who places the hold
-	 * @param book     the book on which hold is placed
-	 * @param duration for how long the hold is valid
+	 * @param member  who places the hold
+	 * @param book    the book on which hold is placed
+	 * @param endTime the time in milliseconds until which the hold is valid
 	 */
-	public Hold(Member member, Book book, Calendar date) {
+	public Hold(Member member, Book book, long endTime) {
 		this.book = book;
 		this.member = member;
-		this.date = date;
+		this.endTime = endTime;
 	}
 
 	public Member getMember() {
@@ -55,8 +58,13 @@ public class Hold implements Serializable {
 		return book;
 	}
 
-	public Calendar getDate() {
-		return date;
+	/**
+	 * Returns the end date of the hold
+	 * 
+	 * @return the end date in milliseconds
+	 */
+	public long getEndTime() {
+		return endTime;
 	}
 
 	/**
@@ -66,12 +74,37 @@ public class Hold implements Serializable {
 	 * @return true if and only if the hold is valid
 	 */
 	public boolean isValid() {
-		return (System.currentTimeMillis() < date.getTimeInMillis());
+		return isValid(LibraryClock.currentTimeMillis());
+	}
+
+	/**
+	 * Checks if the hold is valid at the given time
+	 * 
+	 * @param time the time in milliseconds
+	 * @return true if and only if the hold is valid
+	 */
+	public boolean isValid(long time) {
+		return time < endTime;
+	}
+
+	/*
+	 * Data saved before end dates were kept in milliseconds has a Calendar in the
+	 * date field instead.
+	 */
+	private void readObject(ObjectInputStream input) throws IOException, ClassNotFoundException {
+		ObjectInputStream.GetField fields = input.readFields();
+		book = (Book) fields.get("book", null);
+		member = (Member) fields.get("member", null);
+		if (fields.getObjectStreamClass().getField("date") != null) {
+			endTime = ((Calendar) fields.get("date", null)).getTimeInMillis();
+		} else {
+			endTime = fields.get("endTime", 0L);
+		}
 	}
 
 	@Override
 	public String toString() {
-		return "Hold [book=" + book + ", member=" + member + ", date=" + date + "]";
+		return "Hold [book=" + book + ", member=" + member + ", date=" + new Date(endTime) + "]";
 	}
 
 }
@@ -0,0 +1,106 @@
+package org.oobook.libraryv1.business.entities;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+
+/**
+ * The source of the current time for the library. Times are milliseconds since
+ * 1/1/1970 and days are the number of days since 1/1/1970, both in the time
+ * zone of the clock. The start and end of the current day and the due date of
+ * a book issued on it are computed once per day, so asking for them costs a
+ * read of the clock and two comparisons.
+ *
+ * The clock is the system clock unless another one is set through
+ * Library.setClock.
+ *
+ */
+public final class LibraryClock {
+	private static final int LOAN_MONTHS = 1;
+	private static Clock clock = Clock.systemDefaultZone();
+	private static long dayStart = Long.MAX_VALUE;
+	private static long dayEnd = Long.MIN_VALUE;
+	private static long day;
+	private static long dueTime;
+
+	private LibraryClock() {
+	}
+
+	/**
+	 * Sets the clock to be used from now on
+	 *
+	 * @param newClock the clock
+	 */
+	public static synchronized void setClock(Clock newClock) {
+		clock = newClock;
+		dayStart = Long.MAX_VALUE;
+		dayEnd = Long.MIN_VALUE;
+	}
+
+	/**
+	 * Returns the clock in use
+	 *
+	 * @return the clock
+	 */
+	public static synchronized Clock getClock() {
+		return clock;
+	}
+
+	/**
+	 * Returns the current time
+	 *
+	 * @return the time in milliseconds
+	 */
+	public static synchronized long currentTimeMillis() {
+		return clock.millis();
+	}
+
+	/**
+	 * Returns the current day
+	 *
+	 * @return the number of days since 1/1/1970
+	 */
+	public static synchronized long today() {
+		return dayOf(clock.millis());
+	}
+
+	/**
+	 * Returns the due date of a book issued now: the last second of the same day
+	 * one month from now.
+	 *
+	 * @return the due date in milliseconds
+	 */
+	public static synchronized long dueTime() {
+		dayOf(clock.millis());
+		return dueTime;
+	}
+
+	/**
+	 * Returns the time the given number of days from now
+	 *
+	 * @param days the number of days
+	 * @return the time in milliseconds
+	 */
+	public static synchronized long daysFromNow(int days) {
+		return clock.instant().atZone(clock.getZone()).plusDays(days).toInstant().toEpochMilli();
+	}
+
+	/*
+	 * Returns the day of the given time, first moving the cached day to it if the
+	 * time is not on the cached day.
+	 */
+	private static long dayOf(long time) {
+		if (time < dayStart || time >= dayEnd) {
+			ZoneId zone = clock.getZone();
+			LocalDate date = Instant.ofEpochMilli(time).atZone(zone).toLocalDate();
+			day = date.toEpochDay();
+			dayStart = date.atStartOfDay(zone).toInstant().toEpochMilli();
+			dayEnd = date.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+			dueTime = date.plusMonths(LOAN_MONTHS).atTime(LocalTime.of(23, 59, 59)).atZone(zone).toInstant()
+					.toEpochMilli();
+		}
+		return day;
+	}
+}
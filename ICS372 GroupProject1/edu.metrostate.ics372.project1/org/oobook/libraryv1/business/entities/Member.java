@@ -1,5 +1,7 @@
 package org.oobook.libraryv1.business.entities;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
@@ -23,19 +25,34 @@ import java.io.ObjectOutputStream;
  * and are not responsible for any loss or damage resulting from its use.  
  */
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
 
 import org.oobook.libraryv1.business.collections.HoldList;
-import org.oobook.libraryv1.business.facade.Result;
-import org.oobook.libraryv1.business.iterators.FilteredIterator;
-import org.oobook.libraryv1.business.iterators.SafeTransactionIterator;
+import org.oobook.libraryv1.business.collections.MemberList;
+import org.oobook.libraryv1.business.collections.TransactionJournal;
 
 /**
  * Member represents a member of the library.
  * 
+ * A member is dirty from the time it is created or its name, address or phone
+ * number changes until it is marked clean, which a checkpoint does once the
+ * member is written. The loans and holds of a member are written with the
+ * books.
+ * 
+ * A member read lazily from a snapshot may have its loans and holds read only
+ * when they are first used (see deferLinks).
+ * 
  * @author Brahma Dathan and Sarnath Ramnath
  *
  */
@@ -46,10 +63,12 @@ public class Member implements Serializable {
 	private String phone;
 	private String id;
 	private static final String MEMBER_STRING = "M";
-	private List<Book> booksBorrowed = new LinkedList<Book>();
+	private Map<String, Book> booksBorrowed = new LinkedHashMap<String, Book>();
 	private HoldList booksOnHold = new HoldList();
-	private List<Transaction> transactions = new LinkedList<Transaction>();
 	private static int idCounter;
+	private transient boolean dirty = true;
+	private transient Runnable pendingLinks;
+	private transient List<Transaction> savedTransactions;
 
 	/**
 	 * Creates a single member
@@ -65,6 +84,16 @@ public class Member implements Serializable {
 		id = MEMBER_STRING + ++idCounter;
 	}
 
+	/*
+	 * Creates a member with an id read from a checkpoint
+	 */
+	private Member(String id, String name, String address, String phone) {
+		this.id = id;
+		this.name = name;
+		this.address = address;
+		this.phone = phone;
+	}
+
 	/**
 	 * Stores the book as issued to the member
 	 * 
@@ -72,8 +101,9 @@ public class Member implements Serializable {
 	 * @return true iff the book could be marked as issued. always true currently
 	 */
 	public boolean issue(Book book) {
-		if (booksBorrowed.add(book)) {
-			transactions.add(new Transaction("Issued", book.getTitle()));
+		loadLinks();
+		if (booksBorrowed.putIfAbsent(book.getId(), book) == null) {
+			record("Issued", book.getTitle());
 			return true;
 		}
 		return false;
@@ -86,8 +116,9 @@ public class Member implements Serializable {
 	 * @return true iff the book could be marked as marked as returned
 	 */
 	public boolean returnBook(Book book) {
-		if (booksBorrowed.remove(book)) {
-			transactions.add(new Transaction("Returned", book.getTitle()));
+		loadLinks();
+		if (booksBorrowed.remove(book.getId()) != null) {
+			record("Returned", book.getTitle());
 			return true;
 		}
 		return false;
@@ -100,13 +131,10 @@ public class Member implements Serializable {
 	 * @return true iff the book could be renewed
 	 */
 	public boolean renew(Book book) {
-		for (Iterator<Book> iterator = booksBorrowed.iterator(); iterator.hasNext();) {
-			Book aBook = iterator.next();
-			String id = aBook.getId();
-			if (id.equals(book.getId())) {
-				transactions.add(new Transaction("Renewed", book.getTitle()));
-				return true;
-			}
+		loadLinks();
+		if (booksBorrowed.containsKey(book.getId())) {
+			record("Renewed", book.getTitle());
+			return true;
 		}
 		return false;
 	}
@@ -117,7 +145,8 @@ public class Member implements Serializable {
 	 * @return Iterator to the collection of issued books
 	 */
 	public Iterator<Book> getBooksIssued() {
-		return booksBorrowed.iterator();
+		loadLinks();
+		return Collections.unmodifiableCollection(booksBorrowed.values()).iterator();
 	}
 
 	/**
@@ -126,7 +155,8 @@ public class Member implements Serializable {
 	 * @param hold the book to be placed a hold
 	 */
 	public boolean placeHold(Hold hold) {
-		transactions.add(new Transaction("Hold placed", hold.getBook().getTitle()));
+		loadLinks();
+		record("Hold placed", hold.getBook().getTitle());
 		return booksOnHold.addHold(hold);
 	}
 
@@ -137,23 +167,59 @@ public class Member implements Serializable {
 	 * @return true iff the hold could be removed
 	 */
 	public boolean removeHold(String bookId) {
+		loadLinks();
 		Hold hold = booksOnHold.removeHoldOnBook(bookId);
 		if (hold != null) {
-			transactions.add(new Transaction("Hold removed", hold.getBook().getTitle()));
+			record("Hold removed", hold.getBook().getTitle());
 			return true;
 		}
 		return false;
 	}
 
 	/**
-	 * Gets an iterator to a collection of selected transactions
+	 * Removes the given hold
+	 * 
+	 * @param hold the hold to be removed
+	 * @return true iff the member had the hold
+	 */
+	public boolean removeHold(Hold hold) {
+		loadLinks();
+		if (booksOnHold.removeHold(hold)) {
+			record("Hold removed", hold.getBook().getTitle());
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Gets an iterator to a collection of selected transactions. Only the
+	 * transactions on the given date are looked at.
 	 * 
 	 * @param date the date for which the transactions have to be retrieved
 	 * @return the iterator to the collection
 	 */
-	public Iterator<Result> getTransactionsOnDate(Calendar date) {
-		return new SafeTransactionIterator(
-				new FilteredIterator(transactions.iterator(), transaction -> transaction.onDate(date)));
+	public Iterator<Transaction> getTransactionsOnDate(Calendar date) {
+		return TransactionJournal.getInstance().getTransactions(id, Transaction.epochDay(date));
+	}
+
+	/**
+	 * Gets an iterator to the transactions from one date through another, oldest
+	 * first
+	 * 
+	 * @param fromDate the first date
+	 * @param toDate   the last date
+	 * @return the iterator to the collection
+	 */
+	public Iterator<Transaction> getTransactionsBetween(Calendar fromDate, Calendar toDate) {
+		return TransactionJournal.getInstance().getTransactions(id, Transaction.epochDay(fromDate),
+				Transaction.epochDay(toDate));
+	}
+
+	/*
+	 * Appends a transaction of this member for today to the journal
+	 */
+	private void record(String type, String title) {
+		TransactionJournal.getInstance().append(id, type, title, LibraryClock.today());
 	}
 
 	/**
@@ -162,7 +228,20 @@ public class Member implements Serializable {
 	 * @return the iterator to the list of Transaction objects
 	 */
 	public Iterator<Transaction> getTransactions() {
-		return transactions.iterator();
+		return TransactionJournal.getInstance().getTransactions(id);
+	}
+
+	/**
+	 * Returns the transactions read with the member from data saved when each
+	 * member kept a list of their own, and forgets them, so that they can be
+	 * put in the journal (see TransactionJournal.fromTransactions)
+	 * 
+	 * @return the transactions, oldest first; empty if there were none
+	 */
+	public List<Transaction> takeSavedTransactions() {
+		List<Transaction> transactions = savedTransactions;
+		savedTransactions = null;
+		return transactions == null ? Collections.emptyList() : transactions;
 	}
 
 	/**
@@ -207,7 +286,10 @@ public class Member implements Serializable {
 	 * @param newName member's new name
 	 */
 	public void setName(String newName) {
+		String oldName = name;
 		name = newName;
+		dirty = true;
+		MemberList.getInstance().nameChanged(this, oldName);
 	}
 
 	/**
@@ -217,6 +299,7 @@ public class Member implements Serializable {
 	 */
 	public void setAddress(String newAddress) {
 		address = newAddress;
+		dirty = true;
 	}
 
 	/**
@@ -225,7 +308,10 @@ public class Member implements Serializable {
 	 * @param newName member's new phone
 	 */
 	public void setPhone(String newPhone) {
+		String oldPhone = phone;
 		phone = newPhone;
+		dirty = true;
+		MemberList.getInstance().phoneChanged(this, oldPhone);
 	}
 
 	/**
@@ -234,9 +320,10 @@ public class Member implements Serializable {
 	 */
 	@Override
 	public String toString() {
+		loadLinks();
 		String string = "Member name " + name + " address " + address + " id " + id + "phone " + phone;
 		string += " borrowed: [";
-		for (Iterator iterator = booksBorrowed.iterator(); iterator.hasNext();) {
+		for (Iterator iterator = booksBorrowed.values().iterator(); iterator.hasNext();) {
 			Book book = (Book) iterator.next();
 			string += " " + book.getTitle();
 		}
@@ -246,7 +333,7 @@ public class Member implements Serializable {
 			string += " " + hold.getBook().getTitle();
 		}
 		string += "] transactions: [";
-		for (Iterator iterator = transactions.iterator(); iterator.hasNext();) {
+		for (Iterator iterator = getTransactions(); iterator.hasNext();) {
 			string += (Transaction) iterator.next();
 		}
 		string += "]";
@@ -291,9 +378,253 @@ public class Member implements Serializable {
 	}
 
 	public Iterator<Hold> getHolds() {
+		loadLinks();
 		return booksOnHold.iterator();
 	}
 
+	/**
+	 * Returns a copy of the member as it is now, with its own collections of the
+	 * same loans and holds, for a save that must write the member as it was
+	 * before it changes. The copy is not in the member list.
+	 * 
+	 * @return the copy
+	 */
+	public Member copy() {
+		loadLinks();
+		Member copy = new Member(id, name, address, phone);
+		copy.booksBorrowed.putAll(booksBorrowed);
+		for (Hold hold : booksOnHold) {
+			copy.booksOnHold.addHold(hold);
+		}
+		return copy;
+	}
+
+	/**
+	 * Checks whether the member was created or changed since it was last marked
+	 * clean
+	 * 
+	 * @return true iff the member changed
+	 */
+	public boolean isDirty() {
+		return dirty;
+	}
+
+	/**
+	 * Marks the member as written
+	 */
+	public void markClean() {
+		dirty = false;
+	}
+
+	/**
+	 * Writes the id, name, address and phone number of the member for
+	 * readChanges
+	 * 
+	 * @param output the stream
+	 * @throws IOException if the stream cannot be written
+	 */
+	public void writeChanges(DataOutput output) throws IOException {
+		StringCodec.write(output, id);
+		StringCodec.write(output, name);
+		StringCodec.write(output, address);
+		StringCodec.write(output, phone);
+	}
+
+	/**
+	 * Reads a member written by writeChanges without looking in the member
+	 * list. The member is not added to the list and has no loans or holds yet.
+	 * The member is clean.
+	 * 
+	 * @param input the stream
+	 * @return the member
+	 * @throws IOException if the stream cannot be read
+	 */
+	public static Member readSnapshot(DataInput input) throws IOException {
+		Member member = new Member(StringCodec.read(input), StringCodec.read(input),
+				StringCodec.read(input), StringCodec.read(input));
+		member.markClean();
+		return member;
+	}
+
+	/**
+	 * Reads a member written by writeChanges. If the member list has a member
+	 * with that id, the member is brought up to date; otherwise the member is
+	 * added to the list. The member is left clean.
+	 * 
+	 * @param input the stream
+	 * @return the member
+	 * @throws IOException if the stream cannot be read
+	 */
+	public static Member readChanges(DataInput input) throws IOException {
+		String id = StringCodec.read(input);
+		String name = StringCodec.read(input);
+		String address = StringCodec.read(input);
+		String phone = StringCodec.read(input);
+		Member member = MemberList.getInstance().search(id);
+		if (member == null) {
+			member = new Member(id, name, address, phone);
+			MemberList.getInstance().insertMember(member);
+		} else {
+			if (!Objects.equals(name, member.name)) {
+				member.setName(name);
+			}
+			if (!Objects.equals(phone, member.phone)) {
+				member.setPhone(phone);
+			}
+			member.address = address;
+		}
+		member.markClean();
+		return member;
+	}
+
+	/**
+	 * Writes the loans and holds of the member in the library's snapshot format,
+	 * with the books given by their position in the book table. A hold is
+	 * written as its book and end date.
+	 * 
+	 * @param output the stream
+	 * @param books  gives the position of a book
+	 * @throws IOException if the stream cannot be written
+	 */
+	public void writeLinks(DataOutput output, ToIntFunction<Book> books) throws IOException {
+		loadLinks();
+		output.writeInt(booksBorrowed.size());
+		for (Book book : booksBorrowed.values()) {
+			output.writeInt(books.applyAsInt(book));
+		}
+		List<Hold> holds = new ArrayList<Hold>();
+		for (Hold hold : booksOnHold) {
+			holds.add(hold);
+		}
+		output.writeInt(holds.size());
+		for (Hold hold : holds) {
+			output.writeInt(books.applyAsInt(hold.getBook()));
+			output.writeLong(hold.getEndTime());
+		}
+	}
+
+	/**
+	 * Reads the loans and holds written by writeLinks. The books must have been
+	 * read with their holds, which are shared with the member: each hold is
+	 * looked for among the holds that holds gives for its book.
+	 * 
+	 * @param input the stream
+	 * @param books gives the book at a position in the book table
+	 * @param holds gives the holds read with a book
+	 * @throws IOException if the stream cannot be read
+	 */
+	public void readLinks(DataInput input, IntFunction<Book> books, Function<Book, Iterator<Hold>> holds)
+			throws IOException {
+		for (int count = input.readInt(); count > 0; count--) {
+			Book book = books.apply(input.readInt());
+			booksBorrowed.put(book.getId(), book);
+		}
+		for (int count = input.readInt(); count > 0; count--) {
+			Book book = books.apply(input.readInt());
+			long endTime = input.readLong();
+			for (Iterator<Hold> iterator = holds.apply(book); iterator.hasNext();) {
+				Hold hold = iterator.next();
+				if (hold.getMember() == this && hold.getEndTime() == endTime) {
+					booksOnHold.addHold(hold);
+					break;
+				}
+			}
+		}
+		booksOnHold.markClean();
+	}
+
+	/**
+	 * Leaves the loans and holds of the member to be read by the loader the
+	 * first time they are used. The loader is expected to call readLinks.
+	 * 
+	 * @param loader reads the loans and holds
+	 */
+	public void deferLinks(Runnable loader) {
+		pendingLinks = loader;
+	}
+
+	private void loadLinks() {
+		if (pendingLinks != null) {
+			Runnable loader = pendingLinks;
+			pendingLinks = null;
+			loader.run();
+		}
+	}
+
+	/*
+	 * Adds the book to or removes it from the loans, as read from a checkpoint
+	 */
+	void restoreLoan(Book book, boolean borrowed) {
+		loadLinks();
+		if (borrowed) {
+			booksBorrowed.putIfAbsent(book.getId(), book);
+		} else {
+			booksBorrowed.remove(book.getId());
+		}
+	}
+
+	/*
+	 * Adds the hold to or removes it from the holds, as read from a checkpoint
+	 */
+	void restoreHold(Hold hold, boolean held) {
+		loadLinks();
+		if (held) {
+			booksOnHold.addHold(hold);
+		} else {
+			booksOnHold.removeHold(hold);
+		}
+	}
+
+	/**
+	 * Writes the number used for the last member id
+	 * 
+	 * @param output the stream
+	 * @throws IOException if the stream cannot be written
+	 */
+	public static void writeIdCounter(DataOutput output) throws IOException {
+		output.writeInt(idCounter);
+	}
+
+	/**
+	 * Reads the number written by writeIdCounter
+	 * 
+	 * @param input the stream
+	 * @throws IOException if the stream cannot be read
+	 */
+	public static void readIdCounter(DataInput input) throws IOException {
+		idCounter = input.readInt();
+	}
+
+	/*
+	 * Data saved before loans were kept by book id has them in a list, and has
+	 * the member's transactions, which are kept for takeSavedTransactions. The
+	 * books on loan may be only partly read, so the table of loans is filled in
+	 * when the loans are first used, as for links read lazily.
+	 */
+	private void readObject(ObjectInputStream input) throws IOException, ClassNotFoundException {
+		ObjectInputStream.GetField fields = input.readFields();
+		name = (String) fields.get("name", null);
+		address = (String) fields.get("address", null);
+		phone = (String) fields.get("phone", null);
+		id = (String) fields.get("id", null);
+		booksOnHold = (HoldList) fields.get("booksOnHold", null);
+		Object saved = fields.get("booksBorrowed", null);
+		Collection<?> loans = saved instanceof Map ? ((Map<?, ?>) saved).values() : (Collection<?>) saved;
+		booksBorrowed = new LinkedHashMap<String, Book>();
+		pendingLinks = () -> {
+			for (Object book : loans) {
+				booksBorrowed.put(((Book) book).getId(), (Book) book);
+			}
+		};
+		if (fields.getObjectStreamClass().getField("transactions") != null) {
+			savedTransactions = new ArrayList<Transaction>();
+			for (Object transaction : (Collection<?>) fields.get("transactions", null)) {
+				Transaction old = (Transaction) transaction;
+				savedTransactions.add(new Transaction(old.getType(), old.getTitle(), old.getEpochDay(), id));
+			}
+		}
+	}
+
 	public static void save(ObjectOutputStream output) throws IOException {
 		output.writeObject(idCounter);
 	}
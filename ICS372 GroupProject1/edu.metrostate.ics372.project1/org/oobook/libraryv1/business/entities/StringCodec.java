@@ -0,0 +1,41 @@
+package org.oobook.libraryv1.business.entities;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Writes and reads the Strings of books and members, which may be null, in
+ * checkpoints and snapshots: a boolean that tells whether there is one, and
+ * then the String itself as writeUTF writes it.
+ *
+ */
+class StringCodec {
+	private StringCodec() {
+	}
+
+	/**
+	 * Writes a String that may be null
+	 *
+	 * @param output the stream
+	 * @param string the String
+	 * @throws IOException if the stream cannot be written
+	 */
+	static void write(DataOutput output, String string) throws IOException {
+		output.writeBoolean(string != null);
+		if (string != null) {
+			output.writeUTF(string);
+		}
+	}
+
+	/**
+	 * Reads a String written by write
+	 *
+	 * @param input the stream
+	 * @return the String, which may be null
+	 * @throws IOException if the stream cannot be read
+	 */
+	static String read(DataInput input) throws IOException {
+		return input.readBoolean() ? input.readUTF() : null;
+	}
+}
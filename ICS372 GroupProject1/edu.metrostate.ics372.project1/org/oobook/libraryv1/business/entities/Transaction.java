@@ -19,12 +19,16 @@ package org.oobook.libraryv1.business.entities;
  * The authors do not make any claims regarding the correctness of the code in this module
  * and are not responsible for any loss or damage resulting from its use.  
  */
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.time.LocalDate;
 import java.util.Calendar;
-import java.util.GregorianCalendar;
 
 /**
- * Represents a single Transaction (issue, renew, etc.)
+ * Represents a single Transaction (issue, renew, etc.). Transactions are
+ * stored in TransactionJournal; objects of this class are created when the
+ * journal is read.
  * 
  * @author Brahma Dathan
  *
@@ -33,7 +37,23 @@ public class Transaction implements Serializable {
 	private static final long serialVersionUID = 1L;
 	private String type;
 	private String title;
-	private Calendar date;
+	private int epochDay;
+	private String memberId;
+	private transient String date;
+	private static volatile FormattedDay lastFormatted = new FormattedDay(Long.MIN_VALUE, null);
+
+	/*
+	 * A day and its String form
+	 */
+	private static class FormattedDay {
+		private final long epochDay;
+		private final String date;
+
+		private FormattedDay(long epochDay, String date) {
+			this.epochDay = epochDay;
+			this.date = date;
+		}
+	}
 
 	/**
 	 * Creates the transaction with a given type and book title. The date is the
@@ -44,9 +64,33 @@ public class Transaction implements Serializable {
 	 * 
 	 */
 	public Transaction(String type, String title) {
+		this(type, title, LibraryClock.today());
+	}
+
+	/**
+	 * Creates the transaction with a given type, book title and day
+	 * 
+	 * @param type     The type of transaction
+	 * @param title    The title of the book
+	 * @param epochDay The day as the number of days since 1/1/1970
+	 */
+	public Transaction(String type, String title, long epochDay) {
+		this(type, title, epochDay, null);
+	}
+
+	/**
+	 * Creates the transaction with a given type, book title, day and member
+	 * 
+	 * @param type     The type of transaction
+	 * @param title    The title of the book
+	 * @param epochDay The day as the number of days since 1/1/1970
+	 * @param memberId The id of the member
+	 */
+	public Transaction(String type, String title, long epochDay, String memberId) {
 		this.type = type;
 		this.title = title;
-		date = new GregorianCalendar();
+		this.epochDay = (int) epochDay;
+		this.memberId = memberId;
 	}
 
 	/**
@@ -56,9 +100,28 @@ public class Transaction implements Serializable {
 	 * @return true iff the dates match
 	 */
 	public boolean onDate(Calendar date) {
-		return ((date.get(Calendar.YEAR) == this.date.get(Calendar.YEAR))
-				&& (date.get(Calendar.MONTH) == this.date.get(Calendar.MONTH))
-				&& (date.get(Calendar.DATE) == this.date.get(Calendar.DATE)));
+		return epochDay(date) == epochDay;
+	}
+
+	/**
+	 * Returns the day of the transaction as the number of days since 1/1/1970
+	 * 
+	 * @return the epoch day of the transaction
+	 */
+	public long getEpochDay() {
+		return epochDay;
+	}
+
+	/**
+	 * Converts the year, month and day of a date to the number of days since
+	 * 1/1/1970. The time of day is ignored.
+	 * 
+	 * @param date the date
+	 * @return the epoch day of the date
+	 */
+	public static long epochDay(Calendar date) {
+		return LocalDate.of(date.get(Calendar.YEAR), date.get(Calendar.MONTH) + 1, date.get(Calendar.DATE))
+				.toEpochDay();
 	}
 
 	/**
@@ -80,12 +143,59 @@ public class Transaction implements Serializable {
 	}
 
 	/**
-	 * Returns the date as a String
+	 * Returns the id of the member
+	 * 
+	 * @return member id; null if not known
+	 */
+	public String getMemberId() {
+		return memberId;
+	}
+
+	/**
+	 * Returns the date as a String. As before, months are numbered from 0, the
+	 * way Calendar numbers them. The String is made on the first call.
 	 * 
 	 * @return date with month, date, and year
 	 */
 	public String getDate() {
-		return date.get(Calendar.MONTH) + "/" + date.get(Calendar.DATE) + "/" + date.get(Calendar.YEAR);
+		if (date == null) {
+			date = formatDate(epochDay);
+		}
+		return date;
+	}
+
+	/**
+	 * Returns a day in the form used by getDate. The last day formatted is
+	 * remembered, since transactions are mostly read in order of date.
+	 * 
+	 * @param epochDay the number of days since 1/1/1970
+	 * @return date with month, date, and year
+	 */
+	public static String formatDate(long epochDay) {
+		FormattedDay formatted = lastFormatted;
+		if (formatted.epochDay != epochDay) {
+			LocalDate date = LocalDate.ofEpochDay(epochDay);
+			formatted = new FormattedDay(epochDay,
+					(date.getMonthValue() - 1) + "/" + date.getDayOfMonth() + "/" + date.getYear());
+			lastFormatted = formatted;
+		}
+		return formatted.date;
+	}
+
+	/*
+	 * Data saved before transactions were kept as epoch days has a Calendar in
+	 * the date field instead, and no member id.
+	 */
+	private void readObject(ObjectInputStream input) throws IOException, ClassNotFoundException {
+		ObjectInputStream.GetField fields = input.readFields();
+		type = (String) fields.get("type", null);
+		title = (String) fields.get("title", null);
+		memberId = (String) fields.get("memberId", null);
+		if (fields.getObjectStreamClass().getField("date") != null) {
+			epochDay = (int) epochDay((Calendar) fields.get("date", null));
+		} else {
+			epochDay = fields.get("epochDay", 0);
+		}
 	}
 
 	/**
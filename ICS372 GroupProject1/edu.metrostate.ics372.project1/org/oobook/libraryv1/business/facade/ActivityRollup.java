@@ -0,0 +1,239 @@
+package org.oobook.libraryv1.business.facade;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Daily counts of issues, returns, renewals, holds placed and holds removed.
+ * Library adds one to the right counter as each operation completes. The
+ * counters are one int array with a row of five entries per day, starting at
+ * the first day anything happened, so reading a range of days costs the number
+ * of days in it and never looks at a transaction.
+ *
+ * The rollup remembers the earliest day counted since it was last marked
+ * clean, so that a checkpoint writes only the days from there on.
+ *
+ */
+public class ActivityRollup implements Serializable {
+	private static final long serialVersionUID = 1L;
+	public static final int ISSUED = 0;
+	public static final int RETURNED = 1;
+	public static final int RENEWED = 2;
+	public static final int HOLD_PLACED = 3;
+	public static final int HOLD_REMOVED = 4;
+	private static final String[] TYPES = { "Issued", "Returned", "Renewed", "Hold placed", "Hold removed" };
+	private int[] counts = new int[0];
+	private long firstDay;
+	private transient long dirtyFrom = Long.MAX_VALUE;
+
+	/**
+	 * Adds one to the counter of the given type for the given day
+	 *
+	 * @param type     one of the type constants
+	 * @param epochDay the day
+	 */
+	public void count(int type, long epochDay) {
+		int index = indexOf(type, epochDay);
+		counts[index]++;
+		dirtyFrom = Math.min(dirtyFrom, epochDay);
+	}
+
+	/**
+	 * Writes the counters of the days from the first one counted since the
+	 * rollup was last marked clean through the last day
+	 *
+	 * @param output the stream
+	 * @throws IOException if the stream cannot be written
+	 */
+	public void writeChanges(DataOutput output) throws IOException {
+		int start = counts.length;
+		if (dirtyFrom != Long.MAX_VALUE) {
+			start = (int) Math.min(counts.length, (Math.max(dirtyFrom, firstDay) - firstDay) * TYPES.length);
+		}
+		output.writeLong(firstDay + start / TYPES.length);
+		output.writeInt(counts.length - start);
+		for (int index = start; index < counts.length; index++) {
+			output.writeInt(counts[index]);
+		}
+	}
+
+	/**
+	 * Replaces counters with those written by writeChanges. Zero counters past
+	 * the last day counted so far are skipped.
+	 *
+	 * @param input the stream
+	 * @throws IOException if the stream cannot be read
+	 */
+	public void readChanges(DataInput input) throws IOException {
+		long fromDay = input.readLong();
+		int size = input.readInt();
+		for (int index = 0; index < size; index++) {
+			int count = input.readInt();
+			int type = index % TYPES.length;
+			long epochDay = fromDay + index / TYPES.length;
+			if (count != getCount(type, epochDay)) {
+				int position = indexOf(type, epochDay);
+				counts[position] = count;
+			}
+		}
+	}
+
+	/**
+	 * Writes all counters in the library's snapshot format
+	 *
+	 * @param output the stream
+	 * @throws IOException if the stream cannot be written
+	 */
+	public void writeSnapshot(DataOutput output) throws IOException {
+		output.writeLong(firstDay);
+		output.writeInt(counts.length);
+		for (int count : counts) {
+			output.writeInt(count);
+		}
+	}
+
+	/**
+	 * Reads counters written by writeSnapshot
+	 *
+	 * @param input the stream
+	 * @return the rollup, which is clean
+	 * @throws IOException if the stream cannot be read
+	 */
+	public static ActivityRollup readSnapshot(DataInput input) throws IOException {
+		ActivityRollup rollup = new ActivityRollup();
+		rollup.firstDay = input.readLong();
+		rollup.counts = new int[input.readInt()];
+		for (int index = 0; index < rollup.counts.length; index++) {
+			rollup.counts[index] = input.readInt();
+		}
+		return rollup;
+	}
+
+	/**
+	 * Marks the counters as written
+	 */
+	public void markClean() {
+		dirtyFrom = Long.MAX_VALUE;
+	}
+
+	/*
+	 * Returns the position of the counter of the given type and day, making room
+	 * for the day first if needed
+	 */
+	private int indexOf(int type, long epochDay) {
+		if (counts.length == 0) {
+			firstDay = epochDay;
+		}
+		if (epochDay < firstDay) {
+			int[] shifted = new int[counts.length + (int) (firstDay - epochDay) * TYPES.length];
+			System.arraycopy(counts, 0, shifted, shifted.length - counts.length, counts.length);
+			counts = shifted;
+			firstDay = epochDay;
+		}
+		int index = (int) (epochDay - firstDay) * TYPES.length + type;
+		if (index >= counts.length) {
+			counts = Arrays.copyOf(counts, Math.max(index + TYPES.length, 2 * counts.length) / TYPES.length
+					* TYPES.length);
+		}
+		return index;
+	}
+
+	/**
+	 * Returns the counter of the given type for the given day
+	 *
+	 * @param type     one of the type constants
+	 * @param epochDay the day
+	 * @return the count
+	 */
+	public int getCount(int type, long epochDay) {
+		int index = (int) (epochDay - firstDay) * TYPES.length + type;
+		if (epochDay < firstDay || index >= counts.length) {
+			return 0;
+		}
+		return counts[index];
+	}
+
+	/**
+	 * Returns one Result per day and type for the days from one day through
+	 * another. Only the transaction type, date and count fields are valid. As
+	 * with the safe iterators, the same Result object is returned each time.
+	 *
+	 * @param fromDay the first day
+	 * @param toDay   the last day
+	 * @return iterator to the counts
+	 */
+	public Iterator<Result> getDailyCounts(long fromDay, long toDay) {
+		return new Iterator<Result>() {
+			private long day = fromDay;
+			private int type;
+			private Result result = new Result();
+
+			@Override
+			public boolean hasNext() {
+				return day <= toDay;
+			}
+
+			@Override
+			public Result next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException("No such element");
+				}
+				set(result, type, day, getCount(type, day));
+				if (++type == TYPES.length) {
+					type = 0;
+					day++;
+				}
+				return result;
+			}
+		};
+	}
+
+	/**
+	 * Returns one Result per type with the counts added up over the days from
+	 * one day through another. Only the transaction type, date (the first day)
+	 * and count fields are valid.
+	 *
+	 * @param fromDay the first day
+	 * @param toDay   the last day
+	 * @return iterator to the totals
+	 */
+	public Iterator<Result> getTotals(long fromDay, long toDay) {
+		int[] totals = new int[TYPES.length];
+		for (long day = Math.max(fromDay, firstDay); day <= toDay; day++) {
+			int start = (int) (day - firstDay) * TYPES.length;
+			if (start >= counts.length) {
+				break;
+			}
+			for (int type = 0; type < TYPES.length; type++) {
+				totals[type] += counts[start + type];
+			}
+		}
+		Result[] results = new Result[TYPES.length];
+		for (int type = 0; type < TYPES.length; type++) {
+			results[type] = new Result();
+			set(results[type], type, fromDay, totals[type]);
+		}
+		return Arrays.asList(results).iterator();
+	}
+
+	/*
+	 * A retrieved rollup starts clean.
+	 */
+	private void readObject(ObjectInputStream input) throws IOException, ClassNotFoundException {
+		input.defaultReadObject();
+		markClean();
+	}
+
+	private static void set(Result result, int type, long epochDay, int count) {
+		result.setTransactionType(TYPES[type]);
+		result.setTransactionDay(epochDay);
+		result.setTransactionCount(count);
+		result.setResultCode(Result.OPERATION_COMPLETED);
+	}
+}
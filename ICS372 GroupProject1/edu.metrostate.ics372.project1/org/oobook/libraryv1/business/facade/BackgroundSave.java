@@ -0,0 +1,319 @@
+package org.oobook.libraryv1.business.facade;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.Deflater;
+
+import org.oobook.libraryv1.business.collections.Catalog;
+import org.oobook.libraryv1.business.collections.MemberList;
+import org.oobook.libraryv1.business.entities.Book;
+import org.oobook.libraryv1.business.entities.Member;
+
+/**
+ * A save of the library that is written while the library goes on being used
+ * (see Library.saveInBackground). The future completes with true once the data
+ * is on disk and has taken the place of the saved data, or with false if it
+ * could not be written. getProgress tells how far the writing has got.
+ *
+ * The save starts from the ids of the members and books, taken while holding
+ * the library's lock with the journal and the activity counts already encoded.
+ * The ids are packed into arrays of bytes rather than kept as objects, and the
+ * members and books themselves are not held, so a library kept in stores (see
+ * Library.useStores) is saved without all of it in memory at once. Only the
+ * positions of the members and books linked by loans and holds are kept, as
+ * the records give the links by position. The members and books are then
+ * looked up and encoded a batch at a time, each batch holding the lock (see
+ * memberAt and bookAt). Before the library changes or removes a member or
+ * book, the save keeps a copy of it (preserve), and the copy is written
+ * instead, so what is saved is the library as it was when the save started.
+ * Members and books added meanwhile are not among the ids, and are not
+ * written.
+ *
+ * The data is written to a temporary file that is synced and then renamed
+ * over the saved data, so the saved data is never partly written. If the save
+ * was started with a level of compression, the data is compressed as it is
+ * written (see CompressedSnapshot).
+ *
+ */
+public class BackgroundSave extends CompletableFuture<Boolean> {
+	private static final int BUFFER_SIZE = 1 << 16;
+	private final Object lock;
+	private final int level;
+	private final long generation;
+	private final long logSequence;
+	private final MemberList members;
+	private final Catalog catalog;
+	private final Ids memberIds;
+	private final Ids bookIds;
+	private final Map<String, Integer> memberPositions = new HashMap<String, Integer>();
+	private final Map<String, Integer> bookPositions = new HashMap<String, Integer>();
+	private final int journalRows;
+	private final int removedBooks;
+	private final byte[] journal;
+	private final byte[] activity;
+	private final Map<String, Member> memberCopies = new HashMap<String, Member>();
+	private final Map<String, Book> bookCopies = new HashMap<String, Book>();
+	private volatile int written;
+
+	/*
+	 * Starts a save of no members and books, which add then fills in. The
+	 * lists of ids are made large enough for the members and books there are.
+	 */
+	BackgroundSave(Object lock, int level, long generation, long logSequence, MemberList members, Catalog catalog,
+			int journalRows, int removedBooks, byte[] journal, byte[] activity) {
+		this.lock = lock;
+		this.level = level;
+		this.generation = generation;
+		this.logSequence = logSequence;
+		this.members = members;
+		this.catalog = catalog;
+		this.memberIds = new Ids(members.size());
+		this.bookIds = new Ids(catalog.size());
+		this.journalRows = journalRows;
+		this.removedBooks = removedBooks;
+		this.journal = journal;
+		this.activity = activity;
+	}
+
+	/**
+	 * Returns the part of the members and books written so far
+	 *
+	 * @return a number from 0 to 1
+	 */
+	public double getProgress() {
+		int total = memberIds.size() + bookIds.size();
+		return total == 0 || isDone() ? 1 : (double) written / total;
+	}
+
+	/*
+	 * Writes the data to a temporary file, compressed unless the level is
+	 * Deflater.NO_COMPRESSION, and renames it to the given file
+	 */
+	boolean write(File file) {
+		File temporary = new File(file.getPath() + ".tmp");
+		try {
+			try (FileOutputStream stream = new FileOutputStream(temporary)) {
+				DataOutputStream output = new DataOutputStream(new BufferedOutputStream(stream, BUFFER_SIZE));
+				if (level == Deflater.NO_COMPRESSION) {
+					MappedSnapshot.write(output, this);
+				} else {
+					try (OutputStream compressed = CompressedSnapshot.compress(output, level)) {
+						MappedSnapshot.write(new DataOutputStream(compressed), this);
+					}
+				}
+				output.flush();
+				stream.getFD().sync();
+			}
+			Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			return true;
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+			return false;
+		}
+	}
+
+	/*
+	 * Adds the member to those to be saved, remembering its position if it has
+	 * loans or holds. Called while holding the lock, before the save is written.
+	 */
+	void add(Member member) {
+		if (member.getBooksIssued().hasNext() || member.getHolds().hasNext()) {
+			memberPositions.put(member.getId(), memberIds.size());
+		}
+		memberIds.add(member.getId());
+	}
+
+	/*
+	 * Adds the book to those to be saved, remembering its position if it is
+	 * issued or has holds. Called while holding the lock, before the save is
+	 * written.
+	 */
+	void add(Book book) {
+		if (book.getBorrower() != null || book.hasHold()) {
+			bookPositions.put(book.getId(), bookIds.size());
+		}
+		bookIds.add(book.getId());
+	}
+
+	/*
+	 * Keeps a copy of the member as it is, unless one is kept already. Called
+	 * while holding the lock, before the member changes, or once it is added; a
+	 * member added is not written, but is kept from being marked clean.
+	 */
+	void preserve(Member member) {
+		if (!memberCopies.containsKey(member.getId())) {
+			memberCopies.put(member.getId(), member.copy());
+		}
+	}
+
+	/*
+	 * Keeps a copy of the book as it is, unless one is kept already. Called while
+	 * holding the lock, before the book changes or is removed, or once it is
+	 * added.
+	 */
+	void preserve(Book book) {
+		if (!bookCopies.containsKey(book.getId())) {
+			bookCopies.put(book.getId(), book.copy());
+		}
+	}
+
+	/*
+	 * Returns what is to be written for the member at the position: its copy,
+	 * or else the member in the member list. Called while holding the lock.
+	 */
+	Member memberAt(int position) {
+		String id = memberIds.get(position);
+		Member copy = memberCopies.get(id);
+		return copy == null ? members.search(id) : copy;
+	}
+
+	/*
+	 * Returns what is to be written for the book at the position: its copy, or
+	 * else the book in the catalog. Called while holding the lock.
+	 */
+	Book bookAt(int position) {
+		String id = bookIds.get(position);
+		Book copy = bookCopies.get(id);
+		return copy == null ? catalog.search(id) : copy;
+	}
+
+	/*
+	 * Returns the position of a member with loans or holds when the save
+	 * started
+	 */
+	int positionOf(Member member) {
+		return memberPositions.get(member.getId());
+	}
+
+	/*
+	 * Returns the position of a book that was issued or had holds when the save
+	 * started
+	 */
+	int positionOf(Book book) {
+		return bookPositions.get(book.getId());
+	}
+
+	/*
+	 * Lets the stores drop what a batch read. Called while holding the lock.
+	 */
+	void release() {
+		members.release();
+		catalog.release();
+	}
+
+	boolean isPreserved(Member member) {
+		return memberCopies.containsKey(member.getId());
+	}
+
+	boolean isPreserved(Book book) {
+		return bookCopies.containsKey(book.getId());
+	}
+
+	/*
+	 * Tells whether no member or book has changed since the save started
+	 */
+	boolean isUnchanged() {
+		return memberCopies.isEmpty() && bookCopies.isEmpty();
+	}
+
+	void advance(int count) {
+		written += count;
+	}
+
+	Object getLock() {
+		return lock;
+	}
+
+	long getGeneration() {
+		return generation;
+	}
+
+	long getLogSequence() {
+		return logSequence;
+	}
+
+	int getMemberCount() {
+		return memberIds.size();
+	}
+
+	int getBookCount() {
+		return bookIds.size();
+	}
+
+	int getJournalRows() {
+		return journalRows;
+	}
+
+	int getRemovedBooks() {
+		return removedBooks;
+	}
+
+	byte[] getJournal() {
+		return journal;
+	}
+
+	byte[] getActivity() {
+		return activity;
+	}
+
+	/*
+	 * A list of ids kept as their UTF-8 bytes one after the other in a single
+	 * array, with an array of where each ends. Ids made of ASCII characters,
+	 * as ids usually are, are copied in without encoding them first.
+	 */
+	private static class Ids {
+		private static final int ID_BYTES = 8;
+		private byte[] bytes;
+		private int[] ends;
+		private int size;
+
+		Ids(int capacity) {
+			bytes = new byte[Math.max(1, capacity) * ID_BYTES];
+			ends = new int[Math.max(1, capacity)];
+		}
+
+		void add(String id) {
+			int start = size == 0 ? 0 : ends[size - 1];
+			if (size == ends.length) {
+				ends = Arrays.copyOf(ends, 2 * size);
+			}
+			int end = start;
+			if (start + id.length() <= bytes.length) {
+				while (end - start < id.length() && id.charAt(end - start) < 0x80) {
+					bytes[end] = (byte) id.charAt(end - start);
+					end++;
+				}
+			}
+			if (end - start < id.length()) {
+				byte[] encoded = id.getBytes(StandardCharsets.UTF_8);
+				if (start + encoded.length > bytes.length) {
+					bytes = Arrays.copyOf(bytes, Math.max(2 * bytes.length, start + encoded.length));
+				}
+				System.arraycopy(encoded, 0, bytes, start, encoded.length);
+				end = start + encoded.length;
+			}
+			ends[size++] = end;
+		}
+
+		String get(int index) {
+			int start = index == 0 ? 0 : ends[index - 1];
+			return new String(bytes, start, ends[index] - start, StandardCharsets.UTF_8);
+		}
+
+		int size() {
+			return size;
+		}
+	}
+}
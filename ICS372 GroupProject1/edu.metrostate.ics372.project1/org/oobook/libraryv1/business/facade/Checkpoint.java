@@ -0,0 +1,185 @@
+package org.oobook.libraryv1.business.facade;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.oobook.libraryv1.business.collections.Catalog;
+import org.oobook.libraryv1.business.collections.MemberList;
+import org.oobook.libraryv1.business.collections.TransactionJournal;
+import org.oobook.libraryv1.business.entities.Book;
+import org.oobook.libraryv1.business.entities.Member;
+import org.oobook.libraryv1.business.entities.Transaction;
+
+/**
+ * Writes and reads the delta files of incremental checkpoints. A delta holds
+ * what changed in the library since the previous checkpoint: the dirty members
+ * and books, the ids of the books removed, the transactions appended and the
+ * activity counts of the days counted. Books and members are written field by
+ * field with the objects they refer to given by id, so a delta costs the size
+ * of the changes and not of the library. Only the books and members read so
+ * far are looked at, since those not read from the saved data are unchanged.
+ *
+ * A delta is written to a temporary file that is renamed once it is on disk,
+ * so a delta file is always complete. Each delta names the generation of the
+ * full save it follows; deltas left over from before a later full save have an
+ * older generation and are not read.
+ *
+ */
+public class Checkpoint {
+	private static final int MAGIC = 0x4C424454;
+	private static final int VERSION = 1;
+
+	private Checkpoint() {
+	}
+
+	/**
+	 * Writes the changes since the last checkpoint and marks everything written
+	 * as clean
+	 *
+	 * @param file        the delta file
+	 * @param generation  the generation of the last full save
+	 * @param logSequence the sequence number of the last operation logged
+	 * @param fromRow     the position in the journal of the first transaction
+	 *                    appended since the last checkpoint
+	 * @param activity    the activity counts
+	 * @throws IOException if the file cannot be written
+	 */
+	public static void write(File file, long generation, long logSequence, int fromRow, ActivityRollup activity)
+			throws IOException {
+		Catalog catalog = Catalog.getInstance();
+		List<Member> members = new ArrayList<Member>();
+		for (Iterator<Member> iterator = MemberList.getInstance().getLoadedMembers(); iterator.hasNext();) {
+			Member member = iterator.next();
+			if (member.isDirty()) {
+				members.add(member);
+			}
+		}
+		List<Book> books = new ArrayList<Book>();
+		for (Iterator<Book> iterator = catalog.getLoadedBooks(); iterator.hasNext();) {
+			Book book = iterator.next();
+			if (book.isDirty()) {
+				books.add(book);
+			}
+		}
+		TransactionJournal journal = TransactionJournal.getInstance();
+		File temporary = new File(file.getPath() + ".tmp");
+		try (FileOutputStream stream = new FileOutputStream(temporary)) {
+			DataOutputStream output = new DataOutputStream(new BufferedOutputStream(stream));
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+			output.writeLong(generation);
+			output.writeLong(logSequence);
+			Member.writeIdCounter(output);
+			output.writeInt(members.size());
+			for (Member member : members) {
+				member.writeChanges(output);
+			}
+			output.writeInt(catalog.getRemovedIds().size());
+			for (String bookId : catalog.getRemovedIds()) {
+				writeString(output, bookId);
+			}
+			output.writeInt(books.size());
+			for (Book book : books) {
+				book.writeChanges(output);
+			}
+			output.writeInt(Math.max(0, journal.size() - fromRow));
+			for (Iterator<Transaction> iterator = journal.getTransactionsFrom(fromRow); iterator.hasNext();) {
+				Transaction transaction = iterator.next();
+				writeString(output, transaction.getMemberId());
+				writeString(output, transaction.getType());
+				writeString(output, transaction.getTitle());
+				output.writeLong(transaction.getEpochDay());
+			}
+			activity.writeChanges(output);
+			output.flush();
+			stream.getFD().sync();
+		}
+		Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		for (Member member : members) {
+			member.markClean();
+		}
+		for (Book book : books) {
+			book.markClean();
+		}
+		catalog.clearRemovedIds();
+		activity.markClean();
+	}
+
+	/**
+	 * Applies the changes in a delta file to the library, if the delta follows
+	 * the full save of the given generation
+	 *
+	 * @param file       the delta file
+	 * @param generation the generation of the full save that was retrieved
+	 * @param activity   the activity counts
+	 * @return the sequence number of the last operation logged before the delta
+	 *         was written, or -1 if the delta belongs to another generation
+	 * @throws IOException if the file cannot be read
+	 */
+	public static long read(File file, long generation, ActivityRollup activity) throws IOException {
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (input.readInt() != MAGIC || input.readInt() != VERSION || input.readLong() != generation) {
+				return -1;
+			}
+			long logSequence = input.readLong();
+			Member.readIdCounter(input);
+			for (int count = input.readInt(); count > 0; count--) {
+				Member.readChanges(input);
+			}
+			Catalog catalog = Catalog.getInstance();
+			for (int count = input.readInt(); count > 0; count--) {
+				catalog.removeBook(readString(input));
+			}
+			for (int count = input.readInt(); count > 0; count--) {
+				Book.readChanges(input);
+			}
+			TransactionJournal journal = TransactionJournal.getInstance();
+			for (int count = input.readInt(); count > 0; count--) {
+				journal.append(readString(input), readString(input), readString(input), input.readLong());
+			}
+			activity.readChanges(input);
+			catalog.clearRemovedIds();
+			activity.markClean();
+			return logSequence;
+		}
+	}
+
+	/**
+	 * Writes a String that may be null
+	 *
+	 * @param output the stream
+	 * @param string the String
+	 * @throws IOException if the stream cannot be written
+	 */
+	static void writeString(DataOutput output, String string) throws IOException {
+		output.writeBoolean(string != null);
+		if (string != null) {
+			output.writeUTF(string);
+		}
+	}
+
+	/**
+	 * Reads a String written by writeString
+	 *
+	 * @param input the stream
+	 * @return the String, which may be null
+	 * @throws IOException if the stream cannot be read
+	 */
+	static String readString(DataInput input) throws IOException {
+		return input.readBoolean() ? input.readUTF() : null;
+	}
+}
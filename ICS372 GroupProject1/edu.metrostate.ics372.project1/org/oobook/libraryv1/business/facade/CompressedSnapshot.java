@@ -0,0 +1,192 @@
+package org.oobook.libraryv1.business.facade;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Writes and reads the saved data compressed with Deflater. The file has a
+ * header of its own, followed by the data that MappedSnapshot writes, split
+ * into blocks of a fixed size that are compressed one at a time as the data is
+ * written. Each block is written as its length, the length compressed and the
+ * compressed bytes; a block that does not get smaller is written as it is. A
+ * block of length 0 ends the data.
+ *
+ * Reading inflates the blocks into memory, in parallel since each block is
+ * compressed on its own, and MappedSnapshot reads the data there as it would
+ * read it from the mapped file. So the books and members are still read
+ * lazily, but retrieve takes time in proportion to the size of the data.
+ *
+ */
+class CompressedSnapshot {
+	static final int VERSION = 3;
+	private static final int BLOCK_SIZE = 1 << 18;
+
+	/**
+	 * Writes the header and returns a stream that compresses what is written to
+	 * it, in blocks, to the given stream. Closing the returned stream ends the
+	 * data but does not close the given stream.
+	 *
+	 * @param output the stream
+	 * @param level  the level of compression, from 1 to 9 or
+	 *               Deflater.DEFAULT_COMPRESSION
+	 * @return the stream
+	 * @throws IOException if the header cannot be written
+	 */
+	static OutputStream compress(DataOutputStream output, int level) throws IOException {
+		output.writeInt(Library.SNAPSHOT_MAGIC);
+		output.writeInt(VERSION);
+		return new BlockOutput(output, level);
+	}
+
+	/**
+	 * Reads the blocks that follow the header, whose magic number and version
+	 * have already been read, and inflates them. The blocks are read one after
+	 * the other and then inflated in parallel on the fork-join pool, each into
+	 * its place in the data.
+	 *
+	 * @param input the stream
+	 * @return the data, as MappedSnapshot reads it
+	 * @throws IOException if the data cannot be read or is not valid
+	 */
+	static ByteBuffer inflate(DataInputStream input) throws IOException {
+		List<byte[]> blocks = new ArrayList<byte[]>();
+		List<Integer> offsets = new ArrayList<Integer>();
+		int size = 0;
+		for (int length = input.readInt(); length > 0; length = input.readInt()) {
+			int compressedLength = input.readInt();
+			if (length > BLOCK_SIZE || compressedLength > length || size > Integer.MAX_VALUE - length) {
+				throw new IOException("invalid block in the saved data");
+			}
+			byte[] block = new byte[compressedLength];
+			input.readFully(block);
+			blocks.add(block);
+			offsets.add(size);
+			size += length;
+		}
+		offsets.add(size);
+		byte[] data = new byte[size];
+		try {
+			IntStream.range(0, blocks.size()).parallel().forEach(
+					index -> inflate(blocks.get(index), data, offsets.get(index), offsets.get(index + 1)));
+		} catch (UncheckedIOException uioe) {
+			throw uioe.getCause();
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(data);
+		if (size < 2 * Integer.BYTES || buffer.getInt(0) != Library.SNAPSHOT_MAGIC
+				|| buffer.getInt(Integer.BYTES) != MappedSnapshot.VERSION) {
+			throw new IOException("the compressed data is not a snapshot");
+		}
+		return buffer;
+	}
+
+	/*
+	 * Inflates a block into the data from start to end, or copies it if it was
+	 * written as it is
+	 */
+	private static void inflate(byte[] block, byte[] data, int start, int end) {
+		if (block.length == end - start) {
+			System.arraycopy(block, 0, data, start, block.length);
+			return;
+		}
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(block);
+			if (inflater.inflate(data, start, end - start) != end - start || !inflater.finished()) {
+				throw new UncheckedIOException(new IOException("invalid block in the saved data"));
+			}
+		} catch (DataFormatException dfe) {
+			throw new UncheckedIOException(new IOException(dfe));
+		} finally {
+			inflater.end();
+		}
+	}
+
+	/*
+	 * Collects what is written into a block and writes the block compressed
+	 * once it is full
+	 */
+	private static class BlockOutput extends OutputStream {
+		private final DataOutputStream output;
+		private final Deflater deflater;
+		private final byte[] block = new byte[BLOCK_SIZE];
+		private final ByteArrayOutputStream compressed = new ByteArrayOutputStream(BLOCK_SIZE);
+		private final byte[] chunk = new byte[1 << 16];
+		private int size;
+		private boolean closed;
+
+		BlockOutput(DataOutputStream output, int level) {
+			this.output = output;
+			this.deflater = new Deflater(level);
+		}
+
+		@Override
+		public void write(int value) throws IOException {
+			if (size == BLOCK_SIZE) {
+				writeBlock();
+			}
+			block[size++] = (byte) value;
+		}
+
+		@Override
+		public void write(byte[] bytes, int offset, int length) throws IOException {
+			while (length > 0) {
+				if (size == BLOCK_SIZE) {
+					writeBlock();
+				}
+				int count = Math.min(length, BLOCK_SIZE - size);
+				System.arraycopy(bytes, offset, block, size, count);
+				size += count;
+				offset += count;
+				length -= count;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			try {
+				writeBlock();
+				output.writeInt(0);
+				output.flush();
+			} finally {
+				deflater.end();
+			}
+		}
+
+		private void writeBlock() throws IOException {
+			if (size == 0) {
+				return;
+			}
+			compressed.reset();
+			deflater.reset();
+			deflater.setInput(block, 0, size);
+			deflater.finish();
+			while (!deflater.finished() && compressed.size() < size) {
+				compressed.write(chunk, 0, deflater.deflate(chunk));
+			}
+			output.writeInt(size);
+			if (deflater.finished() && compressed.size() < size) {
+				output.writeInt(compressed.size());
+				compressed.writeTo(output);
+			} else {
+				output.writeInt(size);
+				output.write(block, 0, size);
+			}
+			size = 0;
+		}
+	}
+}
@@ -20,6 +20,8 @@
 
 package org.oobook.libraryv1.business.facade;
 
+import java.util.Date;
+
 import org.oobook.libraryv1.business.entities.Book;
 import org.oobook.libraryv1.business.entities.Member;
 import org.oobook.libraryv1.business.entities.Transaction;
@@ -39,12 +41,17 @@ public abstract class DataTransfer {
 	private String bookAuthor;
 	private String bookBorrower;
 	private String bookDueDate;
+	private Book dueDateBook;
+	private long bookDueTime;
 	private String memberId;
 	private String memberName;
 	private String memberAddress;
 	private String memberPhone;
 	private String transactionType;
 	private String transactionDate;
+	private long transactionDay;
+	private boolean transactionDaySet;
+	private int transactionCount;
 
 	/**
 	 * This sets all fields to "none".
@@ -77,12 +84,28 @@ public abstract class DataTransfer {
 		this.bookBorrower = bookBorrower;
 	}
 
+	/**
+	 * Returns the due date. If it was set from a book, it is formatted on the
+	 * first call, using the String the book keeps if the book still has the
+	 * same due date.
+	 * 
+	 * @return the due date; null if it was set to null
+	 */
 	public String getBookDueDate() {
+		if (bookDueDate == null && dueDateBook != null) {
+			if (dueDateBook.getDueDateInMillis() == bookDueTime) {
+				bookDueDate = dueDateBook.getDueDate();
+			} else {
+				bookDueDate = new Date(bookDueTime).toString();
+			}
+			dueDateBook = null;
+		}
 		return bookDueDate;
 	}
 
 	public void setBookDueDate(String bookDueDate) {
 		this.bookDueDate = bookDueDate;
+		dueDateBook = null;
 	}
 
 	public String getMemberId() {
@@ -145,33 +168,76 @@ public abstract class DataTransfer {
 		this.transactionType = transactionType;
 	}
 
+	/**
+	 * Returns the transaction date. If it was set as a day, it is formatted on
+	 * the first call.
+	 * 
+	 * @return the transaction date; null if it was never set
+	 */
 	public String getTransactionDate() {
+		if (transactionDaySet) {
+			transactionDate = Transaction.formatDate(transactionDay);
+			transactionDaySet = false;
+		}
 		return transactionDate;
 	}
 
+	/**
+	 * Sets the transaction date to a day, which is formatted only when the date
+	 * is asked for
+	 * 
+	 * @param epochDay the number of days since 1/1/1970
+	 */
+	public void setTransactionDay(long epochDay) {
+		transactionDate = null;
+		transactionDay = epochDay;
+		transactionDaySet = true;
+	}
+
 	public void setTransactionDate(String transactionDate) {
 		this.transactionDate = transactionDate;
+		transactionDaySet = false;
 	}
 
+	public int getTransactionCount() {
+		return transactionCount;
+	}
+
+	public void setTransactionCount(int transactionCount) {
+		this.transactionCount = transactionCount;
+	}
+
+	/**
+	 * Sets the transaction fields and the book title using the Transaction
+	 * parameter. The member id is set too if the transaction carries one.
+	 * 
+	 * @param transaction the transaction whose fields should be copied.
+	 */
 	public void setTransacionFields(Transaction transaction) {
 		setTransactionType(transaction.getType());
-		setTransactionDate(transaction.getDate());
+		setTransactionDay(transaction.getEpochDay());
 		setBookTitle(transaction.getTitle());
+		if (transaction.getMemberId() != null) {
+			setMemberId(transaction.getMemberId());
+		}
 	}
 
 	/**
 	 * Sets all the book-related fields using the Book parameter. If the book is not
-	 * issued "none" is stored in the borrower and due date fields.
+	 * issued "none" is stored in the borrower and due date fields. The due date
+	 * is formatted only if it is asked for.
 	 * 
 	 * @param book the book whose fields should be copied.
 	 */
 	public void setBookFields(Book book) {
 		if (book.getBorrower() != null) {
 			bookBorrower = book.getBorrower().getId();
-			bookDueDate = book.getDueDate();
+			bookDueDate = null;
+			dueDateBook = book;
+			bookDueTime = book.getDueDateInMillis();
 		} else {
 			bookBorrower = "Not checked out";
-			bookDueDate = "Not applicable (not borrowed)";
+			setBookDueDate("Not applicable (not borrowed)");
 		}
 		bookId = book.getId();
 		bookTitle = book.getTitle();
@@ -185,7 +251,7 @@ public abstract class DataTransfer {
 		bookId = "Invalid book id";
 		bookTitle = "No such book";
 		bookBorrower = "Not checked out";
-		bookDueDate = "Not applicable (not borrowed)";
+		setBookDueDate("Not applicable (not borrowed)");
 		bookAuthor = "No such book";
 		memberId = "Invalid member id";
 		memberName = "No such member";
@@ -0,0 +1,16 @@
+package org.oobook.libraryv1.business.facade;
+
+/**
+ * Receives a notification for every hold removed because its end date has
+ * passed, so that the member can be told.
+ * 
+ */
+public interface HoldExpiryListener {
+	/**
+	 * Called once for each expired hold that was removed.
+	 * 
+	 * @param result the Member and Book fields identify the member and the book
+	 *               of the expired hold
+	 */
+	public void holdExpired(Result result);
+}
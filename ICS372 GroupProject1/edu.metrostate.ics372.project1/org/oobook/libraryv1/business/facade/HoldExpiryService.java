@@ -0,0 +1,95 @@
+package org.oobook.libraryv1.business.facade;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Removes expired holds in the background by calling
+ * Library.removeInvalidHolds at a fixed interval on a daemon thread. Each call
+ * costs time in proportion to the number of holds that expired since the
+ * previous one, not to the number of holds in the library. When
+ * Library.retrieve replaces the library, the services started for it go on
+ * with the retrieved one.
+ * 
+ */
+public class HoldExpiryService {
+	private static final Set<HoldExpiryService> started = new LinkedHashSet<HoldExpiryService>();
+	private Library library;
+	private long interval;
+	private TimeUnit unit;
+	private ScheduledExecutorService executor;
+
+	/**
+	 * Creates the service. Nothing runs until start is called.
+	 * 
+	 * @param library  the library whose holds should be checked
+	 * @param interval time between two checks
+	 * @param unit     unit of the interval
+	 */
+	public HoldExpiryService(Library library, long interval, TimeUnit unit) {
+		this.library = library;
+		this.interval = interval;
+		this.unit = unit;
+	}
+
+	/**
+	 * Starts checking for expired holds. Has no effect if already started.
+	 */
+	public synchronized void start() {
+		if (executor != null) {
+			return;
+		}
+		executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "hold-expiry");
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.scheduleWithFixedDelay(() -> getLibrary().removeInvalidHolds(), 0, interval, unit);
+		synchronized (started) {
+			started.add(this);
+		}
+	}
+
+	/**
+	 * Stops checking for expired holds.
+	 */
+	public synchronized void stop() {
+		if (executor != null) {
+			executor.shutdown();
+			executor = null;
+			synchronized (started) {
+				started.remove(this);
+			}
+		}
+	}
+
+	/**
+	 * Points the services started for a library that was replaced at the
+	 * library that replaced it. Called by Library.retrieve.
+	 * 
+	 * @param replaced  the library replaced; null for none
+	 * @param retrieved the library that replaced it
+	 */
+	static void replace(Library replaced, Library retrieved) {
+		List<HoldExpiryService> services;
+		synchronized (started) {
+			services = new ArrayList<HoldExpiryService>(started);
+		}
+		for (HoldExpiryService service : services) {
+			synchronized (service) {
+				if (service.library == replaced) {
+					service.library = retrieved;
+				}
+			}
+		}
+	}
+
+	private synchronized Library getLibrary() {
+		return library;
+	}
+}
@@ -19,42 +19,127 @@ package org.oobook.libraryv1.business.facade;
  * The authors do not make any claims regarding the correctness of the code in this module
  * and are not responsible for any loss or damage resulting from its use.  
  */
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
-import java.util.Calendar;
-import java.util.GregorianCalendar;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+import java.util.zip.Deflater;
 
 import org.oobook.libraryv1.business.collections.Catalog;
+import org.oobook.libraryv1.business.collections.EntityStore;
+import org.oobook.libraryv1.business.collections.HoldExpiryWheel;
+import org.oobook.libraryv1.business.collections.LoanList;
 import org.oobook.libraryv1.business.collections.MemberList;
+import org.oobook.libraryv1.business.collections.TransactionJournal;
 import org.oobook.libraryv1.business.entities.Book;
 import org.oobook.libraryv1.business.entities.Hold;
+import org.oobook.libraryv1.business.entities.LibraryClock;
 import org.oobook.libraryv1.business.entities.Member;
+import org.oobook.libraryv1.business.entities.Transaction;
 import org.oobook.libraryv1.business.iterators.SafeBookIterator;
 import org.oobook.libraryv1.business.iterators.SafeMemberIterator;
+import org.oobook.libraryv1.business.iterators.SafeTransactionIterator;
 
 /**
- * The facade class handling all requests from users.
+ * The facade class handling all requests from users. The operations are
+ * synchronized, since expired holds may be removed on a background thread
+ * (see HoldExpiryService).
+ * 
+ * Every operation that changes the library is appended to a write-ahead log
+ * (see MutationLog) as it is carried out. retrieve replays the operations
+ * logged after the saved data was written, and save empties the log.
+ * 
+ * Besides the full save, checkpoint writes only what changed since the last
+ * save or checkpoint to a delta file (see Checkpoint). retrieve applies the
+ * deltas to the saved data in order. Once there are many deltas, or they add
+ * up to half the size of the saved data, checkpoint does a full save instead,
+ * which takes the place of the deltas.
+ * 
+ * The saved data is a binary snapshot with a version number rather than a
+ * serialized object graph. Members, books and the holds and loans linking them
+ * are written as flat tables that refer to each other by position, so saving
+ * does not recurse through the graph, and strings are written with their
+ * length.
+ * 
+ * The tables are indexed by id and retrieve maps the file into memory rather
+ * than reading it (see MappedSnapshot). A book or member is read the first
+ * time it is looked up, so the time to retrieve the library does not depend
+ * on the number of books and members; only the journal is read in full.
+ * Listing all books or members, or searching by keyword, name or phone
+ * number, reads the rest. The methods that read the catalog or the member
+ * list are synchronized for this reason. Each save writes a new file, numbered
+ * one past the file saved before it, and retrieve reads the file with the
+ * highest number. The file retrieved stays mapped until everything in it is
+ * read and the mapping is collected, and some systems do not let a mapped
+ * file be replaced or deleted; so a save never replaces a file, and deletes
+ * the older ones only once its own is written, leaving any that are still
+ * mapped to a later save. The data may be saved compressed instead (see
+ * save(int)), in which case retrieve inflates it into memory and reads it from
+ * there the same way.
+ * 
+ * For a library larger than memory, the books and members may be kept in
+ * stores instead (see useStores and BTreeStore), which keep in memory only
+ * the books and members that are linked by loans and holds or changed since
+ * the last save or checkpoint, and a given number of those read last. The
+ * stores drop the rest after each operation. A save takes only the ids of the
+ * books and members, and reads them from the stores a batch at a time as it
+ * writes them, letting the stores drop each batch (see BackgroundSave). The
+ * stores index the books for the keyword and title searches.
  * 
  * @author Brahma Dathan
  *
  */
 public class Library implements Serializable {
 	private static final long serialVersionUID = 1L;
+	private static final int DEFAULT_SUGGESTIONS = 10;
+	private static final String DATA_FILE = "LibraryData";
+	private static final String LOG_FILE = "LibraryLog";
+	private static final String DELTA_FILE = "LibraryDelta";
+	private static final int MAXIMUM_DELTAS = 16;
+	static final int SNAPSHOT_MAGIC = 0x4C494252;
+	private static final int STREAM_SNAPSHOT_VERSION = 1;
+	private static final int BUFFER_SIZE = 1 << 16;
 	private Catalog catalog = Catalog.getInstance();
 	private MemberList members = MemberList.getInstance();
+	private transient LoanList loans = LoanList.getInstance();
+	private TransactionJournal journal = TransactionJournal.getInstance();
+	private ActivityRollup activity = new ActivityRollup();
+	private transient HoldExpiryWheel holdExpiries = new HoldExpiryWheel(LibraryClock.currentTimeMillis());
+	private transient HoldExpiryListener holdExpiryListener;
+	private transient MutationLog log;
+	private long logSequence;
+	private long generation;
+	private transient int deltas;
+	private transient long deltaBytes;
+	private transient int checkpointRow;
+	private transient long dataBytes;
+	private transient MappedSnapshot snapshot;
+	private transient BackgroundSave saving;
+	private static File directory;
 	private static Library library;
 
 	/**
 	 * Private for the singleton pattern Creates the catalog and member collection
-	 * objects
+	 * objects. A new library starts at a random generation, so that its log is
+	 * not taken for that of data saved by another library.
 	 */
 	private Library() {
+		generation = ThreadLocalRandom.current().nextLong(1L << 62);
 	}
 
 	/**
@@ -79,9 +164,15 @@ public class Library implements Serializable {
 	 * @return the Book object created
 	 */
 	public Result addBook(Request request) {
+		return logged(MutationLog.ADD_BOOK, 0, () -> applyAddBook(request), request.getBookTitle(),
+				request.getBookAuthor(), request.getBookId());
+	}
+
+	private Result applyAddBook(Request request) {
 		Result result = new Result();
 		Book book = new Book(request.getBookTitle(), request.getBookAuthor(), request.getBookId());
 		if (catalog.insertBook(book)) {
+			preserve(book);
 			result.setResultCode(Result.OPERATION_COMPLETED);
 			result.setBookFields(book);
 			return result;
@@ -99,9 +190,15 @@ public class Library implements Serializable {
 	 * @return the Member object created
 	 */
 	public Result addMember(Request request) {
+		return logged(MutationLog.ADD_MEMBER, 0, () -> applyAddMember(request), request.getMemberName(),
+				request.getMemberAddress(), request.getMemberPhone());
+	}
+
+	private Result applyAddMember(Request request) {
 		Result result = new Result();
 		Member member = new Member(request.getMemberName(), request.getMemberAddress(), request.getMemberPhone());
 		if (members.insertMember(member)) {
+			preserve(member);
 			result.setResultCode(Result.OPERATION_COMPLETED);
 			result.setMemberFields(member);
 			return result;
@@ -119,6 +216,11 @@ public class Library implements Serializable {
 	 * @return indication on the outcome
 	 */
 	public Result placeHold(Request request) {
+		return logged(MutationLog.PLACE_HOLD, request.getHoldDuration(), () -> applyPlaceHold(request),
+				request.getMemberId(), request.getBookId());
+	}
+
+	private Result applyPlaceHold(Request request) {
 		Result result = new Result();
 		Member member = members.search(request.getMemberId());
 		if (member == null) {
@@ -136,11 +238,13 @@ public class Library implements Serializable {
 			result.setResultCode(Result.BOOK_NOT_ISSUED);
 			return result;
 		}
-		Calendar date = new GregorianCalendar();
-		date.add(Calendar.DATE, request.getHoldDuration());
-		Hold hold = new Hold(member, book, date);
+		Hold hold = new Hold(member, book, LibraryClock.daysFromNow(request.getHoldDuration()));
+		preserve(book);
+		preserve(member);
 		book.placeHold(hold);
 		member.placeHold(hold);
+		holdExpiries.schedule(hold);
+		count(ActivityRollup.HOLD_PLACED);
 		result.setResultCode(Result.OPERATION_COMPLETED);
 		result.setBookFields(book);
 		return result;
@@ -152,7 +256,7 @@ public class Library implements Serializable {
 	 * @param memberId id of the member
 	 * @return true iff the member is in the member list collection
 	 */
-	public Result searchMembership(Request request) {
+	public synchronized Result searchMembership(Request request) {
 		Result result = new Result();
 		Member member = members.search(request.getMemberId());
 		if (member == null) {
@@ -172,6 +276,11 @@ public class Library implements Serializable {
 	 * @return the book issued
 	 */
 	public Result issueBook(Request request) {
+		return logged(MutationLog.ISSUE_BOOK, 0, () -> applyIssueBook(request), request.getMemberId(),
+				request.getBookId());
+	}
+
+	private Result applyIssueBook(Request request) {
 		Result result = new Result();
 		Book book = catalog.search(request.getBookId());
 		if (book == null) {
@@ -190,9 +299,12 @@ public class Library implements Serializable {
 			return result;
 		}
 		result.setMemberFields(member);
+		preserve(book);
+		preserve(member);
 		if (!(book.issue(member) && member.issue(book))) {
 			result.setResultCode(Result.OPERATION_FAILED);
 		} else {
+			count(ActivityRollup.ISSUED);
 			result.setResultCode(Result.OPERATION_COMPLETED);
 			result.setBookFields(book);
 		}
@@ -205,7 +317,7 @@ public class Library implements Serializable {
 	 * @param request - stores the member id
 	 * @return iterator to the Result objects storing info about issued books
 	 */
-	public Iterator<Result> getBooks(Request request) {
+	public synchronized Iterator<Result> getBooks(Request request) {
 		Member member = members.search(request.getMemberId());
 		if (member == null) {
 			return null;
@@ -223,6 +335,11 @@ public class Library implements Serializable {
 	 * @return the book renewed
 	 */
 	public Result renewBook(Request request) {
+		return logged(MutationLog.RENEW_BOOK, 0, () -> applyRenewBook(request), request.getMemberId(),
+				request.getBookId());
+	}
+
+	private Result applyRenewBook(Request request) {
 		Result result = new Result();
 		Book book = catalog.search(request.getBookId());
 		if (book == null) {
@@ -236,7 +353,10 @@ public class Library implements Serializable {
 			return result;
 		}
 		result.setMemberFields(member);
+		preserve(book);
+		preserve(member);
 		if ((book.renew(member) && member.renew(book))) {
+			count(ActivityRollup.RENEWED);
 			result.setResultCode(Result.OPERATION_COMPLETED);
 		} else {
 			result.setResultCode(Result.OPERATION_FAILED);
@@ -252,6 +372,10 @@ public class Library implements Serializable {
 	 * @return the member who should be notified
 	 */
 	public Result processHold(Request request) {
+		return logged(MutationLog.PROCESS_HOLD, 0, () -> applyProcessHold(request), request.getBookId());
+	}
+
+	private Result applyProcessHold(Request request) {
 		Result result = new Result();
 		Book book = catalog.search(request.getBookId());
 		if (book == null) {
@@ -263,13 +387,16 @@ public class Library implements Serializable {
 			result.setResultCode(result.BOOK_ISSUED);
 			return result;
 		}
+		preserve(book);
 		Hold hold = book.getNextHold();
 		if (hold == null) {
 			result.setResultCode(Result.NO_HOLD_FOUND);
 			return result;
 		}
+		preserve(hold.getMember());
 		hold.getMember().removeHold(request.getBookId());
 		hold.getBook().removeHold(hold.getMember().getId());
+		count(ActivityRollup.HOLD_REMOVED);
 		result.setResultCode(Result.OPERATION_COMPLETED);
 		result.setMemberFields(hold.getMember());
 		return result;
@@ -283,6 +410,11 @@ public class Library implements Serializable {
 	 * @return result of the operation
 	 */
 	public Result removeHold(Request request) {
+		return logged(MutationLog.REMOVE_HOLD, 0, () -> applyRemoveHold(request), request.getMemberId(),
+				request.getBookId());
+	}
+
+	private Result applyRemoveHold(Request request) {
 		Result result = new Result();
 		Member member = members.search(request.getMemberId());
 		if (member == null) {
@@ -296,7 +428,10 @@ public class Library implements Serializable {
 			return result;
 		}
 		result.setBookFields(book);
+		preserve(book);
+		preserve(member);
 		if (member.removeHold(request.getBookId()) && book.removeHold(request.getMemberId())) {
+			count(ActivityRollup.HOLD_REMOVED);
 			result.setResultCode(Result.OPERATION_COMPLETED);
 		} else {
 			result.setResultCode(Result.NO_HOLD_FOUND);
@@ -305,24 +440,88 @@ public class Library implements Serializable {
 	}
 
 	/**
-	 * Removes all out-of-date holds.
+	 * Removes all out-of-date holds from both the books and the members. Only the
+	 * holds that expired since the last call are looked at. The listener, if one
+	 * is set, is told about each hold removed.
 	 * 
+	 * @return a code representing the outcome
 	 */
-	private Result removeInvalidHolds() {
+	public synchronized Result removeInvalidHolds() {
 		Result result = new Result();
-		for (Iterator<Member> memberIterator = members.iterator(); memberIterator.hasNext();) {
-			for (Iterator<Hold> iterator = memberIterator.next().getHolds(); iterator.hasNext();) {
-				Hold hold = iterator.next();
-				if (!hold.isValid()) {
-					hold.getBook().removeHold(hold.getMember().getId());
-					hold.getMember().removeHold(hold.getBook().getId());
-				}
+		long now = LibraryClock.currentTimeMillis();
+		if (snapshot != null) {
+			snapshot.loadHoldsEndingBy(now);
+		}
+		for (Hold hold : holdExpiries.advance(now)) {
+			preserve(hold.getBook());
+			preserve(hold.getMember());
+			boolean removedFromBook = hold.getBook().removeHold(hold);
+			boolean removedFromMember = hold.getMember().removeHold(hold);
+			if (removedFromMember) {
+				count(ActivityRollup.HOLD_REMOVED);
+			}
+			if ((removedFromBook || removedFromMember) && holdExpiryListener != null) {
+				Result expired = new Result();
+				expired.setMemberFields(hold.getMember());
+				expired.setBookFields(hold.getBook());
+				expired.setResultCode(Result.OPERATION_COMPLETED);
+				holdExpiryListener.holdExpired(expired);
 			}
 		}
 		result.setResultCode(Result.OPERATION_COMPLETED);
 		return result;
 	}
 
+	/**
+	 * Sets the object to be told about holds removed by removeInvalidHolds
+	 * 
+	 * @param listener the listener; null for none
+	 */
+	public synchronized void setHoldExpiryListener(HoldExpiryListener listener) {
+		holdExpiryListener = listener;
+	}
+
+	/**
+	 * Sets the clock from which the library reads the current time: for due
+	 * dates, hold end dates, transaction dates and the expiry of holds. The
+	 * system clock is used unless another is set. Holds are expired only when
+	 * the clock moves forward.
+	 * 
+	 * @param clock the clock
+	 */
+	public synchronized void setClock(Clock clock) {
+		LibraryClock.setClock(clock);
+	}
+
+	/**
+	 * Sets how operations are written to the log. The log is forced to disk once
+	 * the given number of operations has collected or the oldest of them has
+	 * waited the given time. If the operations wait for disk, each returns only
+	 * after it is on disk; operations of other threads that are carried out
+	 * meanwhile share the same write. Otherwise up to the given time of work
+	 * may be lost in a crash. By default 64 operations or 5 milliseconds are
+	 * collected and the operations do not wait.
+	 * 
+	 * @param operations  the number of operations per write
+	 * @param delayMillis the longest time an operation waits to be written
+	 * @param waitForDisk true iff each operation waits until it is on disk
+	 */
+	public synchronized void setGroupCommit(int operations, long delayMillis, boolean waitForDisk) {
+		log().setGroupCommit(operations, delayMillis, waitForDisk);
+	}
+
+	/**
+	 * Sets for how many days, today included, transactions are kept in memory
+	 * when the library is saved. Older transactions are moved to compressed
+	 * files in the archive directory and read from there when a query needs
+	 * them.
+	 * 
+	 * @param days the number of days; must be positive
+	 */
+	public synchronized void setTransactionRetention(int days) {
+		journal.setRetentionDays(days);
+	}
+
 	/**
 	 * Removes a specific book from the catalog
 	 * 
@@ -330,6 +529,10 @@ public class Library implements Serializable {
 	 * @return a code representing the outcome
 	 */
 	public Result removeBook(Request request) {
+		return logged(MutationLog.REMOVE_BOOK, 0, () -> applyRemoveBook(request), request.getBookId());
+	}
+
+	private Result applyRemoveBook(Request request) {
 		Result result = new Result();
 		Book book = catalog.search(request.getBookId());
 		if (book == null) {
@@ -337,6 +540,7 @@ public class Library implements Serializable {
 			return result;
 		}
 		result.setBookFields(book);
+		preserve(book);
 		if (book.hasHold()) {
 			result.setResultCode(Result.BOOK_HAS_HOLD);
 			return result;
@@ -360,6 +564,10 @@ public class Library implements Serializable {
 	 * @return a code representing the outcome
 	 */
 	public Result returnBook(Request request) {
+		return logged(MutationLog.RETURN_BOOK, 0, () -> applyReturnBook(request), request.getBookId());
+	}
+
+	private Result applyReturnBook(Request request) {
 		Result result = new Result();
 		Book book = catalog.search(request.getBookId());
 		if (book == null) {
@@ -367,16 +575,19 @@ public class Library implements Serializable {
 			return result;
 		}
 		result.setBookFields(book);
-		Member member = book.returnBook();
-		if (member == null) {
+		if (book.getBorrower() == null) {
 			result.setResultCode(Result.BOOK_NOT_ISSUED);
 			return result;
 		}
+		preserve(book);
+		preserve(book.getBorrower());
+		Member member = book.returnBook();
 		result.setMemberFields(member);
 		if (!(member.returnBook(book))) {
 			result.setResultCode(Result.OPERATION_FAILED);
 			return result;
 		}
+		count(ActivityRollup.RETURNED);
 		if (book.hasHold()) {
 			result.setResultCode(Result.BOOK_HAS_HOLD);
 			return result;
@@ -395,25 +606,254 @@ public class Library implements Serializable {
 	 * @param date     date of issue
 	 * @return iterator to the collection
 	 */
-	public Iterator<Result> getTransactions(Request request) {
+	public synchronized Iterator<Result> getTransactions(Request request) {
 		Member member = members.search(request.getMemberId());
 		if (member == null) {
 			return new LinkedList<Result>().iterator();
 		}
-		return member.getTransactionsOnDate(request.getDate());
+		return new SafeTransactionIterator(member.getTransactionsOnDate(request.getDate()));
 	}
 
 	/**
-	 * Retrieves a deserialized version of the library from disk
+	 * Returns an iterator to the info. in transactions for a specific member from
+	 * the date through the end date in the request, oldest first. The results are
+	 * produced one at a time as the iterator is advanced.
+	 * 
+	 * @param request - stores the member id, the date and the end date
+	 * @return iterator to the collection
+	 */
+	public synchronized Iterator<Result> getTransactionsInRange(Request request) {
+		Member member = members.search(request.getMemberId());
+		if (member == null) {
+			return new LinkedList<Result>().iterator();
+		}
+		return new SafeTransactionIterator(member.getTransactionsBetween(request.getDate(), request.getEndDate()));
+	}
+
+	/**
+	 * Returns an iterator to the info. in the transactions of all members from
+	 * the date through the end date in the request, oldest first. The member id
+	 * is set in each Result. The results are produced one at a time as the
+	 * iterator is advanced.
+	 * 
+	 * @param request - stores the date and the end date
+	 * @return iterator to the collection
+	 */
+	public synchronized Iterator<Result> getAllTransactionsInRange(Request request) {
+		return new SafeTransactionIterator(journal.getTransactions(Transaction.epochDay(request.getDate()),
+				Transaction.epochDay(request.getEndDate())));
+	}
+
+	/**
+	 * Returns the number of issues, returns, renewals, holds placed and holds
+	 * removed on each day from the date through the end date in the request, one
+	 * Result per day and type. The counts are kept as the operations complete, so
+	 * no transactions are read. The same Result object is returned each time.
+	 * 
+	 * @param request - stores the date and the end date
+	 * @return an Iterator to Result - only the transaction type, date and count
+	 *         fields are valid.
+	 */
+	public synchronized Iterator<Result> getDailyActivity(Request request) {
+		return activity.getDailyCounts(Transaction.epochDay(request.getDate()),
+				Transaction.epochDay(request.getEndDate()));
+	}
+
+	/**
+	 * Returns the number of issues, returns, renewals, holds placed and holds
+	 * removed from the date through the end date in the request, one Result per
+	 * type.
+	 * 
+	 * @param request - stores the date and the end date
+	 * @return an Iterator to Result - only the transaction type, date and count
+	 *         fields are valid.
+	 */
+	public synchronized Iterator<Result> getActivityTotals(Request request) {
+		return activity.getTotals(Transaction.epochDay(request.getDate()), Transaction.epochDay(request.getEndDate()));
+	}
+
+	/*
+	 * Carries out an operation that changes the library and appends it to the
+	 * log, both while holding the lock, so the log has the operations in the
+	 * order they were carried out. Waiting for the disk is done after the lock is
+	 * released, so that operations of other threads can join the same write.
+	 */
+	private Result logged(byte operation, int number, Supplier<Result> action, String... arguments) {
+		MutationLog mutationLog;
+		long sequence;
+		Result result;
+		synchronized (this) {
+			long time = LibraryClock.currentTimeMillis();
+			result = action.get();
+			catalog.release();
+			members.release();
+			mutationLog = log();
+			sequence = mutationLog.append(operation, time, number, arguments);
+		}
+		mutationLog.awaitDurable(sequence);
+		return result;
+	}
+
+	/*
+	 * Returns the log, which for a library that was not retrieved is started
+	 * empty on first use
+	 */
+	private MutationLog log() {
+		if (log == null) {
+			try {
+				log = new MutationLog(file(LOG_FILE), generation, 0, logSequence);
+			} catch (IOException ioe) {
+				throw new UncheckedIOException(ioe);
+			}
+		}
+		return log;
+	}
+
+	/*
+	 * Writes what is left in the log and closes it, stopping its writer thread.
+	 * The log is opened again if the library is used afterwards.
+	 */
+	private void closeLog() {
+		if (log != null) {
+			log.close();
+			log = null;
+		}
+	}
+
+	/*
+	 * Carries out the operations logged after the saved data was written, each
+	 * with the clock stopped at the time it was first carried out, and opens the
+	 * log after them. A log that does not follow the saved data is started
+	 * afresh.
+	 */
+	private void recover() throws IOException {
+		Clock clock = LibraryClock.getClock();
+		Request request = Request.instance();
+		long[] end;
+		try {
+			end = MutationLog.replay(file(LOG_FILE), generation, logSequence, record -> {
+				LibraryClock.setClock(Clock.fixed(Instant.ofEpochMilli(record.getTime()), clock.getZone()));
+				replay(record, request);
+			});
+		} finally {
+			LibraryClock.setClock(clock);
+			request.reset();
+		}
+		log = new MutationLog(file(LOG_FILE), generation, end[0], end[1]);
+	}
+
+	private void replay(MutationLog.Record record, Request request) {
+		switch (record.getOperation()) {
+		case MutationLog.ADD_BOOK:
+			request.setBookTitle(record.getArgument(0));
+			request.setBookAuthor(record.getArgument(1));
+			request.setBookId(record.getArgument(2));
+			applyAddBook(request);
+			break;
+		case MutationLog.ADD_MEMBER:
+			request.setMemberName(record.getArgument(0));
+			request.setMemberAddress(record.getArgument(1));
+			request.setMemberPhone(record.getArgument(2));
+			applyAddMember(request);
+			break;
+		case MutationLog.PLACE_HOLD:
+			request.setMemberId(record.getArgument(0));
+			request.setBookId(record.getArgument(1));
+			request.setHoldDuration(record.getNumber());
+			applyPlaceHold(request);
+			break;
+		case MutationLog.ISSUE_BOOK:
+			request.setMemberId(record.getArgument(0));
+			request.setBookId(record.getArgument(1));
+			applyIssueBook(request);
+			break;
+		case MutationLog.RENEW_BOOK:
+			request.setMemberId(record.getArgument(0));
+			request.setBookId(record.getArgument(1));
+			applyRenewBook(request);
+			break;
+		case MutationLog.REMOVE_HOLD:
+			request.setMemberId(record.getArgument(0));
+			request.setBookId(record.getArgument(1));
+			applyRemoveHold(request);
+			break;
+		case MutationLog.PROCESS_HOLD:
+			request.setBookId(record.getArgument(0));
+			applyProcessHold(request);
+			break;
+		case MutationLog.REMOVE_BOOK:
+			request.setBookId(record.getArgument(0));
+			applyRemoveBook(request);
+			break;
+		case MutationLog.RETURN_BOOK:
+			request.setBookId(record.getArgument(0));
+			applyReturnBook(request);
+			break;
+		default:
+			throw new IllegalStateException("unknown operation " + record.getOperation() + " in " + LOG_FILE);
+		}
+	}
+
+	/*
+	 * Adds one to today's counter of the given activity
+	 */
+	private void count(int type) {
+		activity.count(type, LibraryClock.today());
+	}
+
+	/**
+	 * Retrieves the library from disk, applies the checkpoints written since it
+	 * was saved, and carries out the operations logged after the last of them.
+	 * Data saved with Java serialization, before the snapshot format was used,
+	 * is still read. If the library was never saved but operations were logged,
+	 * they are carried out on an empty library. Operations logged by another
+	 * library, one that was not retrieved, are not carried out. The library in
+	 * use before, if any, is replaced: a save of it that is under way is waited
+	 * for, its log is closed, and the hold expiry services started for it are
+	 * pointed at the retrieved library.
 	 * 
 	 * @return a Library object
 	 */
 	public static Library retrieve() {
+		Library replaced = library;
+		if (replaced != null) {
+			awaitSave();
+			synchronized (replaced) {
+				replaced.closeLog();
+			}
+		}
 		try {
-			FileInputStream file = new FileInputStream("LibraryData");
-			ObjectInputStream input = new ObjectInputStream(file);
-			library = (Library) input.readObject();
-			Member.retrieve(input);
+			File dataFile = getDataFile();
+			if (dataFile.exists() || !file(LOG_FILE).exists()) {
+				BufferedInputStream file = new BufferedInputStream(new FileInputStream(dataFile), BUFFER_SIZE);
+				file.mark(4);
+				DataInputStream data = new DataInputStream(file);
+				if (data.readInt() == SNAPSHOT_MAGIC) {
+					int version = data.readInt();
+					if (version == MappedSnapshot.VERSION) {
+						library = openSnapshot(MappedSnapshot.map(dataFile));
+					} else if (version == CompressedSnapshot.VERSION) {
+						library = openSnapshot(CompressedSnapshot.inflate(data));
+					} else {
+						library = readSnapshot(version, data);
+					}
+				} else {
+					file.reset();
+					ObjectInputStream input = new ObjectInputStream(file);
+					library = (Library) input.readObject();
+					Member.retrieve(input);
+				}
+				file.close();
+				library.dataBytes = dataFile.length();
+			} else {
+				library = new Library();
+				library.generation = MutationLog.readGeneration(file(LOG_FILE), library.generation);
+			}
+			synchronized (library) {
+				library.readDeltas();
+				library.recover();
+			}
+			HoldExpiryService.replace(replaced, library);
 			return library;
 		} catch (IOException ioe) {
 			ioe.printStackTrace();
@@ -425,17 +865,188 @@ public class Library implements Serializable {
 	}
 
 	/**
-	 * Serializes the Library object
+	 * Writes the library in the snapshot format, holding the lock throughout.
+	 * The first save after the library was retrieved reads whatever was not yet
+	 * read from the retrieved data. Transactions older than the retention period
+	 * are first written to the archive, so they are not part of the saved data,
+	 * and leave memory once the data is written; if they cannot be archived, the
+	 * save fails and nothing is written, so that the next save tries again. The
+	 * data is written to a new file, numbered one past the file saved before,
+	 * through a temporary file that is renamed once it is on disk. Then the
+	 * older data files and the deltas of earlier checkpoints are deleted and the
+	 * log is emptied; the number of the last operation logged is saved with the
+	 * data, so that if the log could not be emptied, retrieve skips the
+	 * operations already saved. A save in the background that is under way is
+	 * waited for first. The data is not compressed, so retrieve can map it.
 	 * 
 	 * @return true iff the data could be saved
 	 */
 	public static boolean save() {
+		return save(Deflater.NO_COMPRESSION);
+	}
+
+	/**
+	 * Saves the library as save does, compressing the data with the given level
+	 * of Deflater as it is written (see CompressedSnapshot). Compressed data
+	 * takes less space on disk, but retrieve inflates it into memory instead of
+	 * mapping it, which takes time in proportion to its size.
+	 * 
+	 * @param level the level of compression, from Deflater.NO_COMPRESSION to
+	 *              Deflater.BEST_COMPRESSION, or Deflater.DEFAULT_COMPRESSION
+	 * @return true iff the data could be saved
+	 */
+	public static boolean save(int level) {
+		checkLevel(level);
+		awaitSave();
+		synchronized (library) {
+			BackgroundSave save = library.startSave(level);
+			return save != null && library.finishSave(save, save.write(dataFile(lastDataNumber() + 1)));
+		}
+	}
+
+	/**
+	 * Saves the library as save does, but writes the data on a thread of its own
+	 * while operations go on. The lock is held only to take the ids of the
+	 * members and books, and then for each batch of them as they are written.
+	 * Members and books that change meanwhile are copied first, so the data
+	 * saved is the library as it was when the save started (see
+	 * BackgroundSave). The log is emptied only if nothing changed during the
+	 * save; otherwise retrieve skips the operations logged before the save
+	 * started. Only one save is under way at a time; if one is, it is returned.
+	 * 
+	 * @return the save, which completes with true iff the data could be saved
+	 */
+	public static BackgroundSave saveInBackground() {
+		return saveInBackground(Deflater.NO_COMPRESSION);
+	}
+
+	/**
+	 * Saves the library in the background as saveInBackground does, compressing
+	 * the data with the given level of Deflater as save(int) does. If a save is
+	 * under way, it is returned, whatever its level.
+	 * 
+	 * @param level the level of compression, from Deflater.NO_COMPRESSION to
+	 *              Deflater.BEST_COMPRESSION, or Deflater.DEFAULT_COMPRESSION
+	 * @return the save, which completes with true iff the data could be saved
+	 */
+	public static BackgroundSave saveInBackground(int level) {
+		checkLevel(level);
+		Library saved = library;
+		BackgroundSave save;
+		synchronized (saved) {
+			if (saved.saving != null) {
+				return saved.saving;
+			}
+			save = saved.startSave(level);
+			if (save == null) {
+				save = new BackgroundSave(saved, level, saved.generation, saved.logSequence, saved.members,
+						saved.catalog, 0, 0, new byte[0], new byte[0]);
+				save.complete(false);
+				return save;
+			}
+			saved.saving = save;
+		}
+		BackgroundSave started = save;
+		File data = dataFile(lastDataNumber() + 1);
+		Thread writer = new Thread(() -> started.complete(saved.finishSave(started, started.write(data))), "library-save");
+		writer.start();
+		return save;
+	}
+
+	private static void checkLevel(int level) {
+		if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+			throw new IllegalArgumentException("invalid level of compression: " + level);
+		}
+	}
+
+	/*
+	 * Starts a save: reads what was not yet read from the retrieved data, writes
+	 * the transactions older than the retention period to segment files, and
+	 * takes the ids of the members and books and the encoded journal and
+	 * activity counts. The transactions leave memory only when finishSave finds
+	 * the data written. Returns null if the transactions or the data could not
+	 * be read or archived. Called while holding the lock.
+	 */
+	private BackgroundSave startSave(int level) {
+		try {
+			if (snapshot != null) {
+				snapshot.loadAll();
+				snapshot = null;
+			}
+			if (!journal.startRetention(LibraryClock.today())) {
+				return null;
+			}
+			logSequence = log().getLastSequence();
+			ByteArrayOutputStream journalBytes = new ByteArrayOutputStream();
+			journal.writeSnapshot(new DataOutputStream(journalBytes));
+			ByteArrayOutputStream activityBytes = new ByteArrayOutputStream();
+			activity.writeSnapshot(new DataOutputStream(activityBytes));
+			BackgroundSave save = new BackgroundSave(this, level, generation + 1, logSequence, members, catalog,
+					journal.size() - journal.archivingSize(), catalog.getRemovedIds().size(), journalBytes.toByteArray(),
+					activityBytes.toByteArray());
+			for (Member member : members) {
+				save.add(member);
+			}
+			for (Book book : catalog) {
+				save.add(book);
+			}
+			generation++;
+			return save;
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+			journal.finishArchive(false);
+			return null;
+		}
+	}
+
+	/*
+	 * Ends a save once its data is written or has failed. The transactions the
+	 * save wrote to segment files are then dropped from memory, or the files
+	 * deleted if the data was not written. If it was written, the older data
+	 * files that can be deleted and the deltas of earlier checkpoints are
+	 * deleted, the removals written are forgotten, and the members and books in
+	 * memory are marked clean, except those that changed or were added during
+	 * the save; those not in memory are clean already. The log is told of the
+	 * new generation, and emptied only if no operation was logged since the save
+	 * started.
+	 */
+	private synchronized boolean finishSave(BackgroundSave save, boolean written) {
+		saving = null;
+		journal.finishArchive(written);
+		if (!written) {
+			generation--;
+			return false;
+		}
+		long last = lastDataNumber();
+		dataBytes = dataFile(last).length();
+		deleteDataBefore(last);
+		int number = 1;
+		while (deltaFile(number).delete()) {
+			number++;
+		}
+		deltas = 0;
+		deltaBytes = 0;
+		for (Iterator<Member> iterator = members.getLoadedMembers(); iterator.hasNext();) {
+			Member member = iterator.next();
+			if (!save.isPreserved(member)) {
+				member.markClean();
+			}
+		}
+		for (Iterator<Book> iterator = catalog.getLoadedBooks(); iterator.hasNext();) {
+			Book book = iterator.next();
+			if (!save.isPreserved(book)) {
+				book.markClean();
+			}
+		}
+		catalog.clearRemovedIds(save.getRemovedBooks());
+		checkpointRow = save.getJournalRows();
 		try {
-			FileOutputStream file = new FileOutputStream("LibraryData");
-			ObjectOutputStream output = new ObjectOutputStream(file);
-			output.writeObject(library);
-			Member.save(output);
-			file.close();
+			log.setGeneration(save.getGeneration());
+			if (!save.isUnchanged() || log.getLastSequence() != save.getLogSequence()) {
+				return true;
+			}
+			activity.markClean();
+			log.truncate();
 			return true;
 		} catch (IOException ioe) {
 			ioe.printStackTrace();
@@ -443,6 +1054,279 @@ public class Library implements Serializable {
 		}
 	}
 
+	/*
+	 * Waits until no save is under way in the background
+	 */
+	private static void awaitSave() {
+		while (true) {
+			BackgroundSave running;
+			synchronized (library) {
+				running = library.saving;
+			}
+			if (running == null) {
+				return;
+			}
+			running.join();
+		}
+	}
+
+	/*
+	 * Keeps the book as it is for a save under way, before it changes
+	 */
+	private void preserve(Book book) {
+		if (saving != null) {
+			saving.preserve(book);
+		}
+	}
+
+	/*
+	 * Keeps the member as it is for a save under way, before it changes
+	 */
+	private void preserve(Member member) {
+		if (saving != null) {
+			saving.preserve(member);
+		}
+	}
+
+	/**
+	 * Writes the books, members, transactions and activity counts that changed
+	 * since the last save or checkpoint to a new delta file and empties the log.
+	 * If the library was neither saved nor retrieved from saved data, or the
+	 * deltas since the last full save have reached their limit, the library is
+	 * saved in full instead. A save in the background that is under way is
+	 * waited for first.
+	 * 
+	 * @return true iff the changes could be written
+	 */
+	public static boolean checkpoint() {
+		awaitSave();
+		synchronized (library) {
+			long saved = library.dataBytes;
+			if (saved == 0 || library.deltas >= MAXIMUM_DELTAS || 2 * library.deltaBytes >= saved) {
+				return save();
+			}
+			try {
+				MutationLog mutationLog = library.log();
+				long sequence = mutationLog.getLastSequence();
+				File delta = deltaFile(library.deltas + 1);
+				Checkpoint.write(delta, library.generation, sequence, library.checkpointRow, library.activity);
+				library.deltas++;
+				library.deltaBytes += delta.length();
+				library.logSequence = sequence;
+				library.checkpointRow = library.journal.size();
+				mutationLog.truncate();
+				return true;
+			} catch (IOException ioe) {
+				ioe.printStackTrace();
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Moves the books and members of the library into the given stores, which
+	 * must be empty, and keeps them there from then on. Whatever was not yet
+	 * read from the retrieved data is read first. A save in the background that
+	 * is under way is waited for first. The stores are not carried over to a
+	 * library retrieved later.
+	 * 
+	 * @param books   the store for the books
+	 * @param members the store for the members
+	 */
+	public static void useStores(EntityStore<Book> books, EntityStore<Member> members) {
+		awaitSave();
+		synchronized (library) {
+			if (library.snapshot != null) {
+				library.snapshot.loadAll();
+				library.snapshot = null;
+			}
+			library.members.setStore(members);
+			library.catalog.setStore(books);
+			library.catalog.release();
+			library.members.release();
+		}
+	}
+
+	/**
+	 * Sets the directory that holds the saved data, the log and the deltas,
+	 * which is the working directory unless another is set. The archive of old
+	 * transactions has a directory of its own (see
+	 * TransactionJournal.setArchiveDirectory). To be called before the library
+	 * is first retrieved or changed.
+	 * 
+	 * @param directory the directory, or null for the working directory
+	 */
+	public static void setDirectory(File directory) {
+		Library.directory = directory;
+	}
+
+	/**
+	 * Returns the file that holds the data saved last, which need not exist
+	 * 
+	 * @return the file
+	 */
+	public static File getDataFile() {
+		return dataFile(lastDataNumber());
+	}
+
+	/*
+	 * Returns the data file of the given number; 0 is the file saved before
+	 * data files were numbered
+	 */
+	private static File dataFile(long number) {
+		return file(number == 0 ? DATA_FILE : DATA_FILE + "." + number);
+	}
+
+	/*
+	 * Returns the highest number of a data file in the directory, or 0 if there
+	 * is none
+	 */
+	private static long lastDataNumber() {
+		long last = 0;
+		for (String name : dataDirectoryNames()) {
+			last = Math.max(last, dataNumber(name));
+		}
+		return last;
+	}
+
+	/*
+	 * Deletes the data files numbered before the given one, and the one saved
+	 * before data files were numbered. Those that cannot be deleted yet, such
+	 * as a file that is still mapped on some systems, are left for a later
+	 * save.
+	 */
+	private static void deleteDataBefore(long number) {
+		for (String name : dataDirectoryNames()) {
+			long named = dataNumber(name);
+			if (name.equals(DATA_FILE) || named > 0 && named < number) {
+				file(name).delete();
+			}
+		}
+	}
+
+	/*
+	 * Returns the number of a data file from its name, or 0 if the name is not
+	 * that of a numbered data file
+	 */
+	private static long dataNumber(String name) {
+		if (name.startsWith(DATA_FILE + ".")) {
+			try {
+				return Math.max(0, Long.parseLong(name.substring(DATA_FILE.length() + 1)));
+			} catch (NumberFormatException nfe) {
+				return 0;
+			}
+		}
+		return 0;
+	}
+
+	private static String[] dataDirectoryNames() {
+		String[] names = (directory == null ? new File(".") : directory).list();
+		return names == null ? new String[0] : names;
+	}
+
+	/*
+	 * Returns the file of the given name in the directory of the library
+	 */
+	private static File file(String name) {
+		return new File(directory, name);
+	}
+
+	/*
+	 * Reads a library saved in the first snapshot format, which had the tables
+	 * of members, books and member links in sequence with no index, after its
+	 * magic number and version. The catalog, member list and journal read
+	 * become the singletons.
+	 */
+	private static Library readSnapshot(int version, DataInputStream input) throws IOException {
+		if (version != STREAM_SNAPSHOT_VERSION) {
+			throw new IOException(DATA_FILE + " has unknown version " + version);
+		}
+		Catalog.reset();
+		MemberList.reset();
+		LoanList.getInstance().clear();
+		Library read = new Library();
+		read.generation = input.readLong();
+		read.logSequence = input.readLong();
+		Member.readIdCounter(input);
+		Member[] memberTable = new Member[input.readInt()];
+		for (int index = 0; index < memberTable.length; index++) {
+			memberTable[index] = Member.readChanges(input);
+		}
+		Book[] bookTable = new Book[input.readInt()];
+		for (int index = 0; index < bookTable.length; index++) {
+			Book book = Book.readSnapshot(input, member -> memberTable[member]);
+			read.catalog.insertBook(book);
+			if (book.getBorrower() != null) {
+				read.loans.insertLoan(book);
+			}
+			bookTable[index] = book;
+		}
+		for (Member member : memberTable) {
+			member.readLinks(input, book -> bookTable[book], Book::getHolds);
+		}
+		read.journal = TransactionJournal.readSnapshot(input);
+		read.activity = ActivityRollup.readSnapshot(input);
+		read.scheduleHolds();
+		return read;
+	}
+
+	/*
+	 * Opens a library saved by save, mapped or inflated into memory. Only the
+	 * journal and the activity counts are read; the catalog and member list read
+	 * the rest as they need it, and the catalog, member list and journal become
+	 * the singletons.
+	 */
+	private static Library openSnapshot(ByteBuffer data) throws IOException {
+		Catalog.reset();
+		MemberList.reset();
+		LoanList.getInstance().clear();
+		Library read = new Library();
+		MappedSnapshot snapshot = MappedSnapshot.open(data, read.catalog, read.members, read::bookLoaded);
+		read.generation = snapshot.getGeneration();
+		read.logSequence = snapshot.getLogSequence();
+		read.journal = snapshot.readJournal();
+		read.activity = snapshot.readActivity();
+		read.catalog.setSource(snapshot.books());
+		read.members.setSource(snapshot.members());
+		read.snapshot = snapshot;
+		return read;
+	}
+
+	/*
+	 * Files a book read from the mapped data under its due date and schedules
+	 * its holds
+	 */
+	private void bookLoaded(Book book) {
+		if (book.getBorrower() != null) {
+			loans.insertLoan(book);
+		}
+		for (Iterator<Hold> iterator = book.getHolds(); iterator.hasNext();) {
+			holdExpiries.schedule(iterator.next());
+		}
+	}
+
+	/*
+	 * Applies the deltas written after the retrieved data, in order, stopping at
+	 * the first one missing or left from an earlier full save
+	 */
+	private void readDeltas() throws IOException {
+		for (File file = deltaFile(1); file.exists(); file = deltaFile(deltas + 1)) {
+			long sequence = Checkpoint.read(file, generation, activity);
+			if (sequence < 0) {
+				break;
+			}
+			logSequence = sequence;
+			deltas++;
+			deltaBytes += file.length();
+		}
+		checkpointRow = journal.size();
+		scheduleHolds();
+	}
+
+	private static File deltaFile(int number) {
+		return file(DELTA_FILE + number);
+	}
+
 	/**
 	 * Returns an iterator to Member info. The Iterator returned is a safe one, in
 	 * the sense that only copies of the Member fields are assembled into the
@@ -450,10 +1334,32 @@ public class Library implements Serializable {
 	 * 
 	 * @return an Iterator to Result - only the Member fields are valid.
 	 */
-	public Iterator<Result> getMembers() {
+	public synchronized Iterator<Result> getMembers() {
 		return new SafeMemberIterator(members.iterator());
 	}
 
+	/**
+	 * Returns an iterator to info. about the members whose name is the member name
+	 * in the request. The Iterator returned is a safe one.
+	 * 
+	 * @param request - stores the member name
+	 * @return an Iterator to Result - only the Member fields are valid.
+	 */
+	public synchronized Iterator<Result> searchMembersByName(Request request) {
+		return new SafeMemberIterator(members.searchByName(request.getMemberName()));
+	}
+
+	/**
+	 * Returns an iterator to info. about the members whose phone number is the
+	 * member phone in the request. The Iterator returned is a safe one.
+	 * 
+	 * @param request - stores the member phone
+	 * @return an Iterator to Result - only the Member fields are valid.
+	 */
+	public synchronized Iterator<Result> searchMembersByPhone(Request request) {
+		return new SafeMemberIterator(members.searchByPhone(request.getMemberPhone()));
+	}
+
 	/**
 	 * Returns an iterator to Book info. The Iterator returned is a safe one, in the
 	 * sense that only copies of the Book fields are assembled into the objects
@@ -461,10 +1367,93 @@ public class Library implements Serializable {
 	 * 
 	 * @return an Iterator to Result - only the Book fields are valid.
 	 */
-	public Iterator<Result> getBooks() {
+	public synchronized Iterator<Result> getBooks() {
 		return new SafeBookIterator(catalog.iterator());
 	}
 
+	/**
+	 * Returns an iterator to info. about the books whose title or author contains
+	 * every one of the keywords in the request. The Iterator returned is a safe
+	 * one.
+	 * 
+	 * @param request - stores the keywords
+	 * @return an Iterator to Result - only the Book fields are valid.
+	 */
+	public synchronized Iterator<Result> searchBooks(Request request) {
+		return new SafeBookIterator(catalog.searchKeywords(request.getKeywords()));
+	}
+
+	/**
+	 * Returns an iterator to info. about the books whose titles start with the
+	 * book title in the request, for type-ahead. At most the maximum number of
+	 * results in the request are returned; if that number is not positive, ten
+	 * are returned.
+	 * 
+	 * @param request - stores the title prefix and the maximum number of results
+	 * @return an Iterator to Result - only the Book fields are valid.
+	 */
+	public synchronized Iterator<Result> getTitleSuggestions(Request request) {
+		int limit = request.getMaximumResults() > 0 ? request.getMaximumResults() : DEFAULT_SUGGESTIONS;
+		return new SafeBookIterator(catalog.searchTitlePrefix(request.getBookTitle(), limit));
+	}
+
+	/**
+	 * Returns an iterator to info. about the issued books that are due before the
+	 * date in the request, the earliest due first. If the request has no date,
+	 * the current time is used. The Iterator returned is a safe one.
+	 * 
+	 * @param request - stores the date
+	 * @return an Iterator to Result - only the Book fields are valid.
+	 */
+	public synchronized Iterator<Result> getOverdueBooks(Request request) {
+		long time = request.getDate() == null ? LibraryClock.currentTimeMillis() : request.getDate().getTimeInMillis();
+		if (snapshot != null) {
+			snapshot.loadLoansDueBefore(time);
+		}
+		return new SafeBookIterator(loans.getLoansDueBefore(time));
+	}
+
+	/*
+	 * The expiry wheel and the loan list are not serialized; they are rebuilt
+	 * from the members' holds and the issued books. Data saved before the
+	 * activity counts were kept starts with no counts, and data saved before the
+	 * journal has the transactions of each member, which are put in a new one.
+	 */
+	private void readObject(ObjectInputStream input) throws IOException, ClassNotFoundException {
+		input.defaultReadObject();
+		if (activity == null) {
+			activity = new ActivityRollup();
+		}
+		if (journal == null) {
+			List<Transaction> transactions = new ArrayList<Transaction>();
+			for (Member member : members) {
+				transactions.addAll(member.takeSavedTransactions());
+			}
+			journal = TransactionJournal.fromTransactions(transactions);
+		}
+		loans = LoanList.getInstance();
+		loans.clear();
+		for (Book book : catalog) {
+			if (book.getBorrower() != null) {
+				loans.insertLoan(book);
+			}
+		}
+		scheduleHolds();
+	}
+
+	/*
+	 * Rebuilds the expiry wheel from the holds of the books read so far; the
+	 * holds of books read later are scheduled as they are read
+	 */
+	private void scheduleHolds() {
+		holdExpiries = new HoldExpiryWheel(LibraryClock.currentTimeMillis());
+		for (Iterator<Book> books = catalog.getLoadedBooks(); books.hasNext();) {
+			for (Iterator<Hold> iterator = books.next().getHolds(); iterator.hasNext();) {
+				holdExpiries.schedule(iterator.next());
+			}
+		}
+	}
+
 	/**
 	 * String form of the library
 	 * 
@@ -0,0 +1,626 @@
+package org.oobook.libraryv1.business.facade;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+
+import org.oobook.libraryv1.business.collections.Catalog;
+import org.oobook.libraryv1.business.collections.EntitySource;
+import org.oobook.libraryv1.business.collections.MemberList;
+import org.oobook.libraryv1.business.collections.TransactionJournal;
+import org.oobook.libraryv1.business.entities.Book;
+import org.oobook.libraryv1.business.entities.Hold;
+import org.oobook.libraryv1.business.entities.Member;
+
+/**
+ * Writes the library's saved data in a layout that can be read lazily through
+ * a memory map, and reads it. The file has, after a header:
+ *
+ * - the member records: the fields of a member, then its loans and holds with
+ * the books given by position
+ *
+ * - the book records: the fields of a book, with the borrower and the members
+ * holding it given by position
+ *
+ * - the offset of every member record and of every book record
+ *
+ * - for members and for books, an open-addressing hash table from id to
+ * position, each slot holding the hash of the id and the position
+ *
+ * - the loans sorted by due date and the holds sorted by end date, each as a
+ * date and the position of the book
+ *
+ * - the journal and the activity counts, followed by a trailer with the counts
+ * and the offsets of the sections.
+ *
+ * Opening the file reads only the header, the trailer, the journal and the
+ * activity counts. A member is read when the member list asks for it, with its
+ * loans and holds left until first used; a book is read when the catalog asks
+ * for it, along with the records of its borrower and of the members holding
+ * it. The books of a member are read when its loans and holds are. Each record
+ * read is handed to its collection, so nothing is read twice. Loans and holds
+ * are read in date order when the overdue books are listed or holds expire.
+ *
+ * Offsets are ints, so the file is limited to 2 GB.
+ *
+ */
+class MappedSnapshot {
+	static final int VERSION = 2;
+	private static final int TRAILER_SIZE = 12 * Integer.BYTES;
+	private static final int LOAN_SIZE = Long.BYTES + Integer.BYTES;
+	private static final int BATCH_SIZE = 1024;
+	private static final int BATCH_BYTES = 1 << 16;
+	private final ByteBuffer buffer;
+	private final Catalog catalog;
+	private final MemberList members;
+	private final Consumer<Book> loaded;
+	private final long generation;
+	private final long logSequence;
+	private final int memberCount;
+	private final int bookCount;
+	private final int loanCount;
+	private final int holdCount;
+	private final int memberOffsets;
+	private final int bookOffsets;
+	private final int memberIds;
+	private final int bookIds;
+	private final int loans;
+	private final int holds;
+	private final int journal;
+	private final int activity;
+	private final Member[] memberTable;
+	private final Book[] bookTable;
+	private final Map<Book, List<Hold>> bookHolds = new IdentityHashMap<Book, List<Hold>>();
+	private int loansRead;
+	private int holdsRead;
+
+	private MappedSnapshot(ByteBuffer buffer, Catalog catalog, MemberList members, Consumer<Book> loaded)
+			throws IOException {
+		this.buffer = buffer;
+		this.catalog = catalog;
+		this.members = members;
+		this.loaded = loaded;
+		DataInputStream input = input(2 * Integer.BYTES);
+		generation = input.readLong();
+		logSequence = input.readLong();
+		Member.readIdCounter(input);
+		int trailer = buffer.limit() - TRAILER_SIZE;
+		memberCount = buffer.getInt(trailer);
+		bookCount = buffer.getInt(trailer + 4);
+		loanCount = buffer.getInt(trailer + 8);
+		holdCount = buffer.getInt(trailer + 12);
+		memberOffsets = buffer.getInt(trailer + 16);
+		bookOffsets = buffer.getInt(trailer + 20);
+		memberIds = buffer.getInt(trailer + 24);
+		bookIds = buffer.getInt(trailer + 28);
+		loans = buffer.getInt(trailer + 32);
+		holds = buffer.getInt(trailer + 36);
+		journal = buffer.getInt(trailer + 40);
+		activity = buffer.getInt(trailer + 44);
+		memberTable = new Member[memberCount];
+		bookTable = new Book[bookCount];
+	}
+
+	/**
+	 * Writes the library as it was when the save started. The members and books
+	 * are looked up and encoded a batch at a time while holding the library's
+	 * lock, and the batch is written to the stream after the lock is released,
+	 * so no more than a batch of them is held at once. Only the offset of each
+	 * record and the hash of its id are kept for the tables.
+	 *
+	 * @param output the stream
+	 * @param save   the save
+	 * @throws IOException if the stream cannot be written or the data is too
+	 *                     large
+	 */
+	static void write(DataOutputStream output, BackgroundSave save) throws IOException {
+		output.writeInt(Library.SNAPSHOT_MAGIC);
+		output.writeInt(VERSION);
+		output.writeLong(save.getGeneration());
+		output.writeLong(save.getLogSequence());
+		synchronized (save.getLock()) {
+			Member.writeIdCounter(output);
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(BATCH_BYTES);
+		DataOutputStream batch = new DataOutputStream(bytes);
+		int[] memberOffsetTable = new int[save.getMemberCount()];
+		int[] memberHashes = new int[memberOffsetTable.length];
+		for (int start = 0; start < memberOffsetTable.length; start += BATCH_SIZE) {
+			int end = Math.min(memberOffsetTable.length, start + BATCH_SIZE);
+			int base = output.size();
+			synchronized (save.getLock()) {
+				for (int position = start; position < end; position++) {
+					memberOffsetTable[position] = base + bytes.size();
+					Member member = save.memberAt(position);
+					memberHashes[position] = member.getId().hashCode();
+					member.writeChanges(batch);
+					member.writeLinks(batch, save::positionOf);
+				}
+				save.release();
+			}
+			bytes.writeTo(output);
+			bytes.reset();
+			save.advance(end - start);
+		}
+		int[] bookOffsetTable = new int[save.getBookCount()];
+		int[] bookHashes = new int[bookOffsetTable.length];
+		DatedPositions loanTable = new DatedPositions();
+		DatedPositions holdTable = new DatedPositions();
+		for (int start = 0; start < bookOffsetTable.length; start += BATCH_SIZE) {
+			int end = Math.min(bookOffsetTable.length, start + BATCH_SIZE);
+			int base = output.size();
+			synchronized (save.getLock()) {
+				for (int position = start; position < end; position++) {
+					bookOffsetTable[position] = base + bytes.size();
+					Book book = save.bookAt(position);
+					bookHashes[position] = book.getId().hashCode();
+					book.writeSnapshot(batch, save::positionOf);
+					if (book.getBorrower() != null) {
+						loanTable.add(book.getDueDateInMillis(), position);
+					}
+					for (Iterator<Hold> iterator = book.getHolds(); iterator.hasNext();) {
+						holdTable.add(iterator.next().getEndTime(), position);
+					}
+				}
+				save.release();
+			}
+			bytes.writeTo(output);
+			bytes.reset();
+			save.advance(end - start);
+		}
+		int[] trailer = new int[TRAILER_SIZE / Integer.BYTES];
+		trailer[0] = memberOffsetTable.length;
+		trailer[1] = bookOffsetTable.length;
+		trailer[2] = loanTable.size;
+		trailer[3] = holdTable.size;
+		trailer[4] = output.size();
+		writeInts(output, memberOffsetTable);
+		trailer[5] = output.size();
+		writeInts(output, bookOffsetTable);
+		trailer[6] = output.size();
+		writeIdTable(output, memberHashes);
+		trailer[7] = output.size();
+		writeIdTable(output, bookHashes);
+		trailer[8] = output.size();
+		loanTable.write(output);
+		trailer[9] = output.size();
+		holdTable.write(output);
+		trailer[10] = output.size();
+		output.write(save.getJournal());
+		trailer[11] = output.size();
+		output.write(save.getActivity());
+		writeInts(output, trailer);
+		if (output.size() == Integer.MAX_VALUE) {
+			throw new IOException("the library is too large for the snapshot format");
+		}
+	}
+
+	/**
+	 * Maps a file written by write
+	 *
+	 * @param file the file
+	 * @return the contents of the file
+	 * @throws IOException if the file cannot be mapped
+	 */
+	static ByteBuffer map(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException(file + " is too large to be mapped");
+			}
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+	}
+
+	/**
+	 * Opens data written by write, either mapped from the file or inflated into
+	 * memory (see CompressedSnapshot). The version is not checked.
+	 *
+	 * @param buffer  the data
+	 * @param catalog the catalog to which the books read are handed
+	 * @param members the member list to which the members read are handed
+	 * @param loaded  told about each book read, after it is in the catalog
+	 * @return the snapshot
+	 * @throws IOException if the data cannot be read
+	 */
+	static MappedSnapshot open(ByteBuffer buffer, Catalog catalog, MemberList members, Consumer<Book> loaded)
+			throws IOException {
+		return new MappedSnapshot(buffer, catalog, members, loaded);
+	}
+
+	long getGeneration() {
+		return generation;
+	}
+
+	long getLogSequence() {
+		return logSequence;
+	}
+
+	/**
+	 * Reads the journal, which becomes the singleton
+	 *
+	 * @return the journal
+	 * @throws IOException if the journal cannot be read
+	 */
+	TransactionJournal readJournal() throws IOException {
+		return TransactionJournal.readSnapshot(input(journal));
+	}
+
+	/**
+	 * Reads the activity counts
+	 *
+	 * @return the counts
+	 * @throws IOException if the counts cannot be read
+	 */
+	ActivityRollup readActivity() throws IOException {
+		return ActivityRollup.readSnapshot(input(activity));
+	}
+
+	/**
+	 * Reads every book and member not read yet, and the loans and holds of every
+	 * member. The loans and holds are read in parallel, once all books are read,
+	 * since each member reads only its own.
+	 */
+	void loadAll() {
+		readBooks();
+		IntStream.range(0, memberCount).parallel().forEach(position -> memberTable[position].getHolds());
+	}
+
+	/**
+	 * Returns the source of the books for the catalog
+	 *
+	 * @return the source
+	 */
+	EntitySource<Book> books() {
+		return new EntitySource<Book>() {
+			@Override
+			public Book find(String id) {
+				int position = lookup(bookIds, bookOffsets, bookCount, id);
+				return position < 0 || bookTable[position] != null ? null : bookAt(position);
+			}
+
+			@Override
+			public List<Book> loadAll() {
+				readBooks();
+				return Arrays.asList(bookTable);
+			}
+		};
+	}
+
+	/**
+	 * Returns the source of the members for the member list
+	 *
+	 * @return the source
+	 */
+	EntitySource<Member> members() {
+		return new EntitySource<Member>() {
+			@Override
+			public Member find(String id) {
+				int position = lookup(memberIds, memberOffsets, memberCount, id);
+				return position < 0 || memberTable[position] != null ? null : memberAt(position);
+			}
+
+			@Override
+			public List<Member> loadAll() {
+				readMembers();
+				return Arrays.asList(memberTable);
+			}
+		};
+	}
+
+	/**
+	 * Reads the books issued with a due date before the given time, so that
+	 * they are in LoanList
+	 *
+	 * @param time time in milliseconds
+	 */
+	void loadLoansDueBefore(long time) {
+		for (; loansRead < loanCount; loansRead++) {
+			int entry = loans + loansRead * LOAN_SIZE;
+			if (buffer.getLong(entry) >= time) {
+				break;
+			}
+			bookAt(buffer.getInt(entry + Long.BYTES));
+		}
+	}
+
+	/**
+	 * Reads the books with holds ending at or before the given time, so that
+	 * those holds are scheduled to expire
+	 *
+	 * @param time time in milliseconds
+	 */
+	void loadHoldsEndingBy(long time) {
+		for (; holdsRead < holdCount; holdsRead++) {
+			int entry = holds + holdsRead * LOAN_SIZE;
+			if (buffer.getLong(entry) > time) {
+				break;
+			}
+			bookAt(buffer.getInt(entry + Long.BYTES));
+		}
+	}
+
+	/*
+	 * Reads the members not read yet. Their records are decoded in parallel on
+	 * the fork-join pool and then handed to the member list one at a time.
+	 */
+	private void readMembers() {
+		int[] unread = unread(memberTable);
+		IntStream.of(unread).parallel().forEach(position -> memberTable[position] = readMember(position));
+		for (int position : unread) {
+			members.attach(memberTable[position]);
+		}
+	}
+
+	/*
+	 * Reads the books not read yet, after the members they refer to. Their
+	 * records are decoded in parallel on the fork-join pool and then linked to
+	 * the catalog and the loans one at a time.
+	 */
+	private void readBooks() {
+		readMembers();
+		int[] unread = unread(bookTable);
+		IntStream.of(unread).parallel()
+				.forEach(position -> bookTable[position] = readBook(position, member -> memberTable[member]));
+		for (int position : unread) {
+			link(bookTable[position]);
+		}
+	}
+
+	/*
+	 * Returns the book at the position, reading it and the members it refers to
+	 * if it was not read before
+	 */
+	private Book bookAt(int position) {
+		Book book = bookTable[position];
+		if (book != null) {
+			return book;
+		}
+		book = readBook(position, this::memberAt);
+		bookTable[position] = book;
+		link(book);
+		return book;
+	}
+
+	/*
+	 * Returns the member at the position, reading its fields if it was not read
+	 * before. Its loans and holds are read when first used.
+	 */
+	private Member memberAt(int position) {
+		Member member = memberTable[position];
+		if (member != null) {
+			return member;
+		}
+		member = readMember(position);
+		memberTable[position] = member;
+		members.attach(member);
+		return member;
+	}
+
+	/*
+	 * Decodes the record of the book at the position, finding the members it
+	 * refers to with the given function
+	 */
+	private Book readBook(int position, IntFunction<Member> memberAt) {
+		try {
+			return Book.readSnapshot(input(buffer.getInt(bookOffsets + position * Integer.BYTES)), memberAt);
+		} catch (IOException ioe) {
+			throw new UncheckedIOException(ioe);
+		}
+	}
+
+	/*
+	 * Decodes the fields of the member at the position, leaving its loans and
+	 * holds to be read when first used
+	 */
+	private Member readMember(int position) {
+		int offset = buffer.getInt(memberOffsets + position * Integer.BYTES);
+		Member member;
+		try {
+			member = Member.readSnapshot(input(offset));
+		} catch (IOException ioe) {
+			throw new UncheckedIOException(ioe);
+		}
+		Member read = member;
+		member.deferLinks(() -> readLinks(read, offset));
+		return member;
+	}
+
+	/*
+	 * Keeps the holds read with the book, for the members to find, and hands the
+	 * book to the catalog
+	 */
+	private void link(Book book) {
+		List<Hold> list = new ArrayList<Hold>();
+		for (Iterator<Hold> iterator = book.getHolds(); iterator.hasNext();) {
+			list.add(iterator.next());
+		}
+		bookHolds.put(book, list);
+		catalog.attach(book);
+		loaded.accept(book);
+	}
+
+	/*
+	 * Returns the positions of the table that are empty
+	 */
+	private static int[] unread(Object[] table) {
+		int count = 0;
+		for (Object entry : table) {
+			if (entry == null) {
+				count++;
+			}
+		}
+		int[] positions = new int[count];
+		count = 0;
+		for (int position = 0; position < table.length; position++) {
+			if (table[position] == null) {
+				positions[count++] = position;
+			}
+		}
+		return positions;
+	}
+
+	/*
+	 * Reads the loans and holds of a member, which follow its fields. The holds
+	 * are those read with the books, even if a book has lost them since.
+	 */
+	private void readLinks(Member member, int offset) {
+		try {
+			DataInputStream input = input(offset);
+			Member.readSnapshot(input);
+			member.readLinks(input, this::bookAt, book -> bookHolds.get(book).iterator());
+		} catch (IOException ioe) {
+			throw new UncheckedIOException(ioe);
+		}
+	}
+
+	/*
+	 * Returns the position of the record with the given id, or -1
+	 */
+	private int lookup(int table, int offsets, int count, String id) {
+		if (id == null) {
+			return -1;
+		}
+		int hash = id.hashCode();
+		int mask = tableSize(count) - 1;
+		for (int slot = spread(hash) & mask;; slot = (slot + 1) & mask) {
+			int entry = table + slot * 2 * Integer.BYTES;
+			int position = buffer.getInt(entry + Integer.BYTES);
+			if (position < 0) {
+				return -1;
+			}
+			if (buffer.getInt(entry) == hash) {
+				try {
+					if (id.equals(Checkpoint.readString(input(buffer.getInt(offsets + position * Integer.BYTES))))) {
+						return position;
+					}
+				} catch (IOException ioe) {
+					throw new UncheckedIOException(ioe);
+				}
+			}
+		}
+	}
+
+	private DataInputStream input(int offset) {
+		ByteBuffer view = buffer.duplicate();
+		view.position(offset);
+		return new DataInputStream(new BufferInput(view));
+	}
+
+	/*
+	 * Writes a hash table of the positions of the ids, given the hash of the id
+	 * at each position, at most half full, with linear probing. An empty slot
+	 * has position -1.
+	 */
+	private static void writeIdTable(DataOutputStream output, int[] hashes) throws IOException {
+		int size = tableSize(hashes.length);
+		int[] slots = new int[2 * size];
+		for (int slot = 0; slot < size; slot++) {
+			slots[2 * slot + 1] = -1;
+		}
+		for (int position = 0; position < hashes.length; position++) {
+			int hash = hashes[position];
+			int slot = spread(hash) & (size - 1);
+			while (slots[2 * slot + 1] >= 0) {
+				slot = (slot + 1) & (size - 1);
+			}
+			slots[2 * slot] = hash;
+			slots[2 * slot + 1] = position;
+		}
+		writeInts(output, slots);
+	}
+
+	private static void writeInts(DataOutputStream output, int[] values) throws IOException {
+		for (int value : values) {
+			output.writeInt(value);
+		}
+	}
+
+	private static int tableSize(int count) {
+		int size = 2;
+		while (size < 2 * count) {
+			size <<= 1;
+		}
+		return size;
+	}
+
+	private static int spread(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+
+	/*
+	 * Dates, each with the position of a book, written sorted by date
+	 */
+	private static class DatedPositions {
+		private long[] times = new long[16];
+		private int[] positions = new int[16];
+		private int size;
+
+		void add(long time, int position) {
+			if (size == times.length) {
+				times = Arrays.copyOf(times, 2 * size);
+				positions = Arrays.copyOf(positions, 2 * size);
+			}
+			times[size] = time;
+			positions[size++] = position;
+		}
+
+		void write(DataOutputStream output) throws IOException {
+			Integer[] order = new Integer[size];
+			for (int index = 0; index < size; index++) {
+				order[index] = index;
+			}
+			Arrays.sort(order, Comparator.comparingLong(index -> times[index]));
+			for (int index : order) {
+				output.writeLong(times[index]);
+				output.writeInt(positions[index]);
+			}
+		}
+	}
+
+	/*
+	 * Reads from a buffer as a stream, so that the records can be read with the
+	 * methods that read them from files
+	 */
+	private static class BufferInput extends InputStream {
+		private final ByteBuffer buffer;
+
+		BufferInput(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) {
+			if (length == 0) {
+				return 0;
+			}
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			int count = Math.min(length, buffer.remaining());
+			buffer.get(bytes, offset, count);
+			return count;
+		}
+	}
+}
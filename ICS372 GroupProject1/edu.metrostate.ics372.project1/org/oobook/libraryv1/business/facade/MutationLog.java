@@ -0,0 +1,520 @@
+package org.oobook.libraryv1.business.facade;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * The write-ahead log of the operations that change the library. Every record
+ * has a sequence number, the operation, the time it was carried out, its
+ * String arguments and one int argument, and ends with a CRC32 of the rest.
+ *
+ * Records are appended to a buffer in memory and written by a daemon thread in
+ * groups: a group is written and forced to disk once it holds a given number
+ * of records, once its oldest record has waited a given time, or as soon as a
+ * caller waits for one of its records. While one group is being forced, the
+ * next one collects, so callers that wait share the cost of each force.
+ *
+ * On recovery the records are read back until the end of the file or the first
+ * record that is incomplete or fails its check; that is where a crash stopped
+ * the last write, and the file is cut there before new records are added.
+ *
+ * The file starts with the generation of the saved data whose operations it
+ * follows, so that the log of another library, such as one started afresh
+ * and never saved, is not replayed over the data. A log written before the
+ * generation was kept has no header and is always replayed.
+ *
+ */
+public class MutationLog {
+	public static final byte ADD_BOOK = 1;
+	public static final byte ADD_MEMBER = 2;
+	public static final byte ISSUE_BOOK = 3;
+	public static final byte RETURN_BOOK = 4;
+	public static final byte RENEW_BOOK = 5;
+	public static final byte PLACE_HOLD = 6;
+	public static final byte REMOVE_HOLD = 7;
+	public static final byte PROCESS_HOLD = 8;
+	public static final byte REMOVE_BOOK = 9;
+	private static final int INITIAL_CAPACITY = 4096;
+	private static final int MAXIMUM_RECORD = 1 << 20;
+	private static final int MAGIC = 0x4C4C4F47;
+	private static final int HEADER = 12;
+	private File file;
+	private FileChannel channel;
+	private long generation;
+	private boolean headed;
+	private byte[] pending = new byte[INITIAL_CAPACITY];
+	private int pendingSize;
+	private int pendingRecords;
+	private long pendingSince;
+	private byte[] writing = new byte[INITIAL_CAPACITY];
+	private long nextSequence;
+	private long durableSequence;
+	private int waiters;
+	private int groupSize = 64;
+	private long groupDelayNanos = 5_000_000L;
+	private boolean waitForDisk;
+	private IOException failure;
+	private boolean closed;
+	private Thread writer;
+	private CRC32 crc = new CRC32();
+
+	/**
+	 * One record read back from the log
+	 */
+	public static class Record {
+		private long sequence;
+		private byte operation;
+		private long time;
+		private String[] arguments;
+		private int number;
+
+		public long getSequence() {
+			return sequence;
+		}
+
+		public byte getOperation() {
+			return operation;
+		}
+
+		public long getTime() {
+			return time;
+		}
+
+		public String getArgument(int index) {
+			return arguments[index];
+		}
+
+		public int getNumber() {
+			return number;
+		}
+	}
+
+	/**
+	 * Opens the log for appending after the records already in it, which must
+	 * have been read with replay. The file is cut at the given length, and the
+	 * next record gets the sequence number after the given one. If the length
+	 * is 0, the file is started afresh with the given generation.
+	 *
+	 * @param file         the log file
+	 * @param generation   the generation of the saved data the log follows
+	 * @param length       the length of the header and valid records in the
+	 *                     file
+	 * @param lastSequence the sequence number of the last record written so far
+	 * @throws IOException if the file cannot be opened
+	 */
+	public MutationLog(File file, long generation, long length, long lastSequence) throws IOException {
+		this.file = file;
+		this.generation = generation;
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		channel.truncate(length);
+		if (length == 0) {
+			writeHeader();
+			length = HEADER;
+		} else {
+			ByteBuffer magic = ByteBuffer.allocate(4);
+			headed = channel.read(magic, 0) == 4 && magic.getInt(0) == MAGIC;
+		}
+		channel.position(length);
+		channel.force(true);
+		nextSequence = lastSequence + 1;
+		durableSequence = lastSequence;
+		writer = new Thread(this::writeGroups, "mutation-log");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Sets how records are grouped. A group is forced to disk once it has the
+	 * given number of records or its oldest record has waited the given time.
+	 * If callers wait for disk, each operation returns only after its record has
+	 * been forced.
+	 *
+	 * @param records     the number of records in a full group
+	 * @param delayMillis the longest time a record waits in memory
+	 * @param waitForDisk true iff callers wait until their record is on disk
+	 */
+	public synchronized void setGroupCommit(int records, long delayMillis, boolean waitForDisk) {
+		groupSize = Math.max(1, records);
+		groupDelayNanos = Math.max(0, delayMillis) * 1_000_000L;
+		this.waitForDisk = waitForDisk;
+		notifyAll();
+	}
+
+	/**
+	 * Appends a record to the group being collected
+	 *
+	 * @param operation the operation
+	 * @param time      the time of the operation in milliseconds
+	 * @param number    the int argument
+	 * @param arguments the String arguments
+	 * @return the sequence number of the record
+	 */
+	public synchronized long append(byte operation, long time, int number, String... arguments) {
+		checkOpen();
+		int start = pendingSize;
+		reserve(4);
+		pendingSize += 4;
+		putLong(nextSequence);
+		reserve(1);
+		pending[pendingSize++] = operation;
+		putLong(time);
+		putInt(number);
+		reserve(1);
+		pending[pendingSize++] = (byte) arguments.length;
+		for (String argument : arguments) {
+			if (argument == null) {
+				putInt(-1);
+			} else {
+				byte[] bytes = argument.getBytes(StandardCharsets.UTF_8);
+				putInt(bytes.length);
+				reserve(bytes.length);
+				System.arraycopy(bytes, 0, pending, pendingSize, bytes.length);
+				pendingSize += bytes.length;
+			}
+		}
+		int length = pendingSize - start - 4;
+		pending[start] = (byte) (length >>> 24);
+		pending[start + 1] = (byte) (length >>> 16);
+		pending[start + 2] = (byte) (length >>> 8);
+		pending[start + 3] = (byte) length;
+		crc.reset();
+		crc.update(pending, start + 4, length);
+		putInt((int) crc.getValue());
+		if (pendingRecords++ == 0) {
+			pendingSince = System.nanoTime();
+			notifyAll();
+		} else if (pendingRecords >= groupSize) {
+			notifyAll();
+		}
+		return nextSequence++;
+	}
+
+	/**
+	 * Waits until the record with the given sequence number is on disk, if
+	 * callers are to wait for disk; otherwise returns at once.
+	 *
+	 * @param sequence the sequence number
+	 */
+	public void awaitDurable(long sequence) {
+		if (waitForDisk) {
+			awaitForced(sequence);
+		}
+	}
+
+	/**
+	 * Writes every record appended so far and forces it to disk
+	 */
+	public void flush() {
+		long last;
+		synchronized (this) {
+			last = nextSequence - 1;
+		}
+		awaitForced(last);
+	}
+
+	/**
+	 * Returns the sequence number of the last record appended, or the one given
+	 * when the log was opened if none has been appended since
+	 *
+	 * @return the sequence number
+	 */
+	public synchronized long getLastSequence() {
+		return nextSequence - 1;
+	}
+
+	/**
+	 * Removes all records from the file. The operations of all records must be
+	 * in a saved snapshot, and no records may be appended meanwhile. Sequence
+	 * numbers go on from where they were.
+	 *
+	 * @throws IOException if the file cannot be cut
+	 */
+	public void truncate() throws IOException {
+		flush();
+		synchronized (this) {
+			channel.truncate(0);
+			writeHeader();
+			channel.position(HEADER);
+			channel.force(true);
+		}
+	}
+
+	/**
+	 * Records that the log follows the saved data of a new generation, whose
+	 * data is already on disk. Records may be appended meanwhile. A log without
+	 * a header gets one when it is next truncated.
+	 *
+	 * @param generation the generation of the saved data
+	 * @throws IOException if the header cannot be written
+	 */
+	public synchronized void setGeneration(long generation) throws IOException {
+		this.generation = generation;
+		if (headed) {
+			writeHeader();
+			channel.force(false);
+		}
+	}
+
+	/**
+	 * Writes the remaining records, stops the writer thread and closes the file
+	 */
+	public void close() {
+		flush();
+		synchronized (this) {
+			closed = true;
+			notifyAll();
+		}
+		try {
+			writer.join();
+			channel.close();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		} catch (IOException ioe) {
+			throw new UncheckedIOException(ioe);
+		}
+	}
+
+	/**
+	 * Reads the records of a log file in order and hands those whose sequence
+	 * number is after the given one to the consumer. Reading stops at the end of
+	 * the file or at the first record that is incomplete or damaged. The log
+	 * must follow the saved data of the given generation, or of the one before
+	 * it if a save did not empty the log and stopped before the log was told of
+	 * the new generation (see setGeneration); otherwise it belongs to another
+	 * library, and nothing is read from it.
+	 *
+	 * @param file          the log file
+	 * @param generation    the generation of the saved data
+	 * @param afterSequence records up to this sequence number are skipped
+	 * @param consumer      receives the records
+	 * @return the length of the header and valid records, 0 if the log belongs
+	 *         to another library, and the sequence number of the last record, or
+	 *         the given sequence number if there is none
+	 * @throws IOException if the file cannot be read
+	 */
+	public static long[] replay(File file, long generation, long afterSequence, Consumer<Record> consumer)
+			throws IOException {
+		long length = 0;
+		long lastSequence = afterSequence;
+		if (!file.exists()) {
+			return new long[] { length, lastSequence };
+		}
+		CRC32 crc = new CRC32();
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			boolean first = true;
+			while (true) {
+				byte[] body;
+				int check;
+				try {
+					int size = input.readInt();
+					if (first && size == MAGIC) {
+						long logged = input.readLong();
+						if (logged != generation && logged != generation - 1) {
+							return new long[] { 0, afterSequence };
+						}
+						length = HEADER;
+						size = input.readInt();
+					}
+					first = false;
+					if (size < 22 || size > MAXIMUM_RECORD) {
+						break;
+					}
+					body = new byte[size];
+					input.readFully(body);
+					check = input.readInt();
+				} catch (EOFException eofe) {
+					break;
+				}
+				crc.reset();
+				crc.update(body, 0, body.length);
+				if ((int) crc.getValue() != check) {
+					break;
+				}
+				Record record = decode(body);
+				if (record == null) {
+					break;
+				}
+				length += body.length + 8;
+				if (record.sequence > afterSequence) {
+					consumer.accept(record);
+				}
+				lastSequence = Math.max(lastSequence, record.sequence);
+			}
+		}
+		return new long[] { length, lastSequence };
+	}
+
+	/**
+	 * Returns the generation of the saved data that a log file follows
+	 *
+	 * @param file      the log file
+	 * @param otherwise the generation to return if the file has no header
+	 * @return the generation
+	 * @throws IOException if the file cannot be read
+	 */
+	public static long readGeneration(File file, long otherwise) throws IOException {
+		try (DataInputStream input = new DataInputStream(new FileInputStream(file))) {
+			return input.readInt() == MAGIC ? input.readLong() : otherwise;
+		} catch (EOFException eofe) {
+			return otherwise;
+		}
+	}
+
+	/*
+	 * Writes the header at the start of the file, leaving the position as it is
+	 */
+	private void writeHeader() throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER);
+		header.putInt(MAGIC).putLong(generation).flip();
+		while (header.hasRemaining()) {
+			channel.write(header, header.position());
+		}
+		headed = true;
+	}
+
+	private static Record decode(byte[] body) {
+		ByteBuffer buffer = ByteBuffer.wrap(body);
+		Record record = new Record();
+		try {
+			record.sequence = buffer.getLong();
+			record.operation = buffer.get();
+			record.time = buffer.getLong();
+			record.number = buffer.getInt();
+			record.arguments = new String[buffer.get()];
+			for (int index = 0; index < record.arguments.length; index++) {
+				int size = buffer.getInt();
+				if (size >= 0) {
+					record.arguments[index] = new String(body, buffer.position(), size, StandardCharsets.UTF_8);
+					buffer.position(buffer.position() + size);
+				}
+			}
+		} catch (RuntimeException re) {
+			return null;
+		}
+		return record;
+	}
+
+	/*
+	 * Run by the writer thread: waits until a group is due, takes it from the
+	 * buffer, and writes and forces it without holding the lock, so that the next
+	 * group collects meanwhile.
+	 */
+	private void writeGroups() {
+		while (true) {
+			int size;
+			long last;
+			synchronized (this) {
+				while (!closed && !groupDue()) {
+					try {
+						if (pendingRecords > 0) {
+							long wait = groupDelayNanos - (System.nanoTime() - pendingSince);
+							if (wait > 0) {
+								wait(wait / 1_000_000L, (int) (wait % 1_000_000L));
+							}
+						} else {
+							wait();
+						}
+					} catch (InterruptedException ie) {
+						return;
+					}
+				}
+				if (closed && pendingSize == 0) {
+					return;
+				}
+				byte[] group = pending;
+				pending = writing;
+				writing = group;
+				size = pendingSize;
+				last = nextSequence - 1;
+				pendingSize = 0;
+				pendingRecords = 0;
+			}
+			IOException error = null;
+			try {
+				ByteBuffer buffer = ByteBuffer.wrap(writing, 0, size);
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+				channel.force(false);
+			} catch (IOException ioe) {
+				error = ioe;
+			}
+			synchronized (this) {
+				if (error != null) {
+					failure = error;
+				} else {
+					durableSequence = last;
+				}
+				notifyAll();
+			}
+		}
+	}
+
+	private boolean groupDue() {
+		return pendingRecords > 0 && (waiters > 0 || pendingRecords >= groupSize
+				|| System.nanoTime() - pendingSince >= groupDelayNanos);
+	}
+
+	private synchronized void awaitForced(long sequence) {
+		waiters++;
+		try {
+			notifyAll();
+			while (durableSequence < sequence) {
+				checkOpen();
+				awaitWriter();
+			}
+		} finally {
+			waiters--;
+		}
+	}
+
+	private void awaitWriter() {
+		try {
+			wait();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new UncheckedIOException(new IOException("interrupted while writing " + file, ie));
+		}
+	}
+
+	private void checkOpen() {
+		if (failure != null) {
+			throw new UncheckedIOException(failure);
+		}
+		if (closed) {
+			throw new IllegalStateException("log " + file + " is closed");
+		}
+	}
+
+	private void reserve(int bytes) {
+		if (pendingSize + bytes > pending.length) {
+			pending = Arrays.copyOf(pending, Math.max(pending.length * 2, pendingSize + bytes));
+		}
+	}
+
+	private void putInt(int value) {
+		reserve(4);
+		pending[pendingSize++] = (byte) (value >>> 24);
+		pending[pendingSize++] = (byte) (value >>> 16);
+		pending[pendingSize++] = (byte) (value >>> 8);
+		pending[pendingSize++] = (byte) value;
+	}
+
+	private void putLong(long value) {
+		putInt((int) (value >>> 32));
+		putInt((int) value);
+	}
+}
@@ -37,6 +37,9 @@ public class Request extends DataTransfer {
 	private static Request request;
 	private int holdDuration;
 	private Calendar date;
+	private Calendar endDate;
+	private String keywords;
+	private int maximumResults;
 
 	/**
 	 * This is a singleton class. Hence the private constructor.
@@ -72,4 +75,28 @@ public class Request extends DataTransfer {
 	public void setDate(Calendar date) {
 		this.date = date;
 	}
+
+	public Calendar getEndDate() {
+		return endDate;
+	}
+
+	public void setEndDate(Calendar endDate) {
+		this.endDate = endDate;
+	}
+
+	public String getKeywords() {
+		return keywords;
+	}
+
+	public void setKeywords(String keywords) {
+		this.keywords = keywords;
+	}
+
+	public int getMaximumResults() {
+		return maximumResults;
+	}
+
+	public void setMaximumResults(int maximumResults) {
+		this.maximumResults = maximumResults;
+	}
 }
@@ -23,6 +23,7 @@ package org.oobook.libraryv1.business.iterators;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
+import org.oobook.libraryv1.business.entities.Transaction;
 import org.oobook.libraryv1.business.facade.Result;
 
 /**
@@ -34,7 +35,7 @@ import org.oobook.libraryv1.business.facade.Result;
  *
  */
 public class SafeTransactionIterator implements Iterator<Result> {
-	private FilteredIterator iterator;
+	private Iterator<Transaction> iterator;
 	private Result result = new Result();
 
 	/**
@@ -42,7 +43,7 @@ public class SafeTransactionIterator implements Iterator<Result> {
 	 * 
 	 * @param iterator Iterator<Book>
 	 */
-	public SafeTransactionIterator(FilteredIterator iterator) {
+	public SafeTransactionIterator(Iterator<Transaction> iterator) {
 		this.iterator = iterator;
 	}
 
@@ -59,6 +59,7 @@ public class AutomatedTester {
 	}
 
 	public void testAll() {
+		LibraryDirectory.create();
 		testAddMember();
 		testAddBook();
 		testSearchMembership();
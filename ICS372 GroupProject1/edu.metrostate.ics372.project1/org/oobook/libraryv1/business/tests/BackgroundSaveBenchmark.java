@@ -0,0 +1,108 @@
+package org.oobook.libraryv1.business.tests;
+
+import org.oobook.libraryv1.business.collections.Catalog;
+import org.oobook.libraryv1.business.collections.MemberList;
+import org.oobook.libraryv1.business.entities.Book;
+import org.oobook.libraryv1.business.entities.Member;
+import org.oobook.libraryv1.business.facade.BackgroundSave;
+import org.oobook.libraryv1.business.facade.Library;
+import org.oobook.libraryv1.business.facade.Request;
+import org.oobook.libraryv1.business.facade.Result;
+
+/**
+ * Compares Library.save with Library.saveInBackground for a library of a
+ * million books. It reports how long the library is unavailable for each: the
+ * whole of the save, or the time saveInBackground takes to return. While the
+ * background save is running, books are issued and returned through the
+ * facade, and the benchmark reports how many of these were done and the
+ * longest any of them took. The library files are written to a temporary
+ * directory (see LibraryDirectory).
+ *
+ */
+public class BackgroundSaveBenchmark {
+	private static final int BOOKS = 1_000_000;
+	private static final int MEMBERS = 100_000;
+	private static final int LOANS = 200_000;
+	private Library library;
+	private Request request = Request.instance();
+
+	/**
+	 * Fills the library with books and members and issues some of the books
+	 */
+	public void fill() {
+		Member[] members = new Member[MEMBERS];
+		for (int count = 0; count < MEMBERS; count++) {
+			members[count] = new Member("name" + count, "address" + count, "phone" + count);
+			MemberList.getInstance().insertMember(members[count]);
+		}
+		for (int count = 0; count < BOOKS; count++) {
+			Book book = new Book("title" + count, "author" + (count % 20_000), "B" + count);
+			Catalog.getInstance().insertBook(book);
+			if (count < LOANS) {
+				Member member = members[count % MEMBERS];
+				book.issue(member);
+				member.issue(book);
+			}
+		}
+		library = Library.instance();
+	}
+
+	/**
+	 * Saves the library, waiting for the save to finish
+	 *
+	 * @return milliseconds taken
+	 */
+	public double timeSave() {
+		long start = System.nanoTime();
+		if (!Library.save()) {
+			throw new IllegalStateException("save failed");
+		}
+		return (System.nanoTime() - start) / 1e6;
+	}
+
+	/**
+	 * Starts a background save and returns and issues books until it is done
+	 *
+	 * @return milliseconds until saveInBackground returned, the number of books
+	 *         returned or issued while the save ran, and the longest of these in
+	 *         milliseconds
+	 */
+	public double[] timeBackgroundSave() {
+		long start = System.nanoTime();
+		BackgroundSave save = Library.saveInBackground();
+		double started = (System.nanoTime() - start) / 1e6;
+		long longest = 0;
+		int operations = 0;
+		while (!save.isDone()) {
+			long operationStart = System.nanoTime();
+			int count = operations % LOANS;
+			request.setBookId("B" + count);
+			if (library.returnBook(request).getResultCode() != Result.OPERATION_COMPLETED) {
+				request.setMemberId("M" + (count % MEMBERS + 1));
+				library.issueBook(request);
+			}
+			longest = Math.max(longest, System.nanoTime() - operationStart);
+			operations++;
+		}
+		if (!save.join()) {
+			throw new IllegalStateException("save failed");
+		}
+		return new double[] { started, operations, longest / 1e6 };
+	}
+
+	public void runAll() {
+		LibraryDirectory.create();
+		fill();
+		timeSave();
+		double save = timeSave();
+		timeBackgroundSave();
+		double[] background = timeBackgroundSave();
+		System.out.printf("save:               unavailable %8.1f ms%n", save);
+		System.out.printf("saveInBackground:   unavailable %8.1f ms, %,d operations while saving, longest %6.1f ms%n",
+				background[0], (int) background[1], background[2]);
+	}
+
+	public static void main(String[] args) {
+		new BackgroundSaveBenchmark().runAll();
+	}
+}
@@ -0,0 +1,94 @@
+package org.oobook.libraryv1.business.tests;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.Iterator;
+
+import org.oobook.libraryv1.business.collections.Catalog;
+import org.oobook.libraryv1.business.collections.MemberList;
+import org.oobook.libraryv1.business.entities.Book;
+import org.oobook.libraryv1.business.entities.Member;
+import org.oobook.libraryv1.business.entities.Transaction;
+import org.oobook.libraryv1.business.facade.Library;
+import org.oobook.libraryv1.business.facade.Result;
+
+/**
+ * Checks with asserts that data saved with Java serialization by the first
+ * version of the library is still read, although the types of several fields
+ * changed since. BaselineLibraryData, read from the class path next to this
+ * class, was saved by that version after adding members M1 to M3 and books B1
+ * to B4, issuing B1 and B2 to M1, issuing B3 to M2 and returning it, and
+ * placing holds on B1 for M2 and then M3.
+ *
+ */
+public class BaselineDataTester {
+	private static final String DATA_FILE = "BaselineLibraryData";
+	private Library library;
+
+	/**
+	 * Reads the data as Library.retrieve reads data saved with Java
+	 * serialization
+	 */
+	public void testRead() throws IOException, ClassNotFoundException {
+		try (ObjectInputStream input = new ObjectInputStream(getClass().getResourceAsStream(DATA_FILE))) {
+			library = (Library) input.readObject();
+			Member.retrieve(input);
+		}
+		assert library != null;
+	}
+
+	public void testBooks() {
+		Catalog catalog = Catalog.getInstance();
+		assert catalog.size() == 4;
+		Book book = catalog.search("B1");
+		assert book.getTitle().equals("Dune") && book.getAuthor().equals("Herbert");
+		assert book.getBorrower().getId().equals("M1");
+		assert book.getNextHold().getMember().getId().equals("M2");
+		assert catalog.search("B2").getBorrower() == book.getBorrower();
+		assert catalog.search("B3").getBorrower() == null;
+		int count = 0;
+		for (Iterator<Result> iterator = library.getBooks(); iterator.hasNext(); iterator.next()) {
+			count++;
+		}
+		assert count == 4;
+	}
+
+	public void testMembers() {
+		MemberList members = MemberList.getInstance();
+		assert members.size() == 3;
+		Member member = members.search("M1");
+		assert member.getName().equals("Ann Lee") && member.getPhone().equals("555-0101");
+		int loans = 0;
+		for (Iterator<Book> iterator = member.getBooksIssued(); iterator.hasNext();) {
+			assert iterator.next().getBorrower() == member;
+			loans++;
+		}
+		assert loans == 2;
+		assert members.search("M2").getHolds().next().getBook() == Catalog.getInstance().search("B1");
+		assert members.search("M3").getHolds().hasNext();
+		assert members.searchByName("Cy Park").next() == members.search("M3");
+		assert new Member("n", "a", "p").getId().equals("M4");
+	}
+
+	public void testTransactions() {
+		String[] types = { "Issued", "Returned", "Hold placed" };
+		String[] titles = { "Ulysses", "Ulysses", "Dune" };
+		Iterator<Transaction> iterator = MemberList.getInstance().search("M2").getTransactions();
+		for (int count = 0; count < types.length; count++) {
+			Transaction transaction = iterator.next();
+			assert transaction.getType().equals(types[count]) && transaction.getTitle().equals(titles[count]);
+		}
+		assert !iterator.hasNext();
+	}
+
+	public void testAll() throws IOException, ClassNotFoundException {
+		testRead();
+		testBooks();
+		testMembers();
+		testTransactions();
+	}
+
+	public static void main(String[] args) throws IOException, ClassNotFoundException {
+		new BaselineDataTester().testAll();
+	}
+}
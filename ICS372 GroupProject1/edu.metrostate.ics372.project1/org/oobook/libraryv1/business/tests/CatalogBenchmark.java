@@ -0,0 +1,96 @@
+package org.oobook.libraryv1.business.tests;
+
+import java.util.Iterator;
+import java.util.Random;
+
+import org.oobook.libraryv1.business.collections.Catalog;
+import org.oobook.libraryv1.business.entities.Book;
+
+/**
+ * Measures the cost of Catalog.search, Catalog.removeBook and the top-10 title
+ * prefix query as the catalog grows from 10,000 to 1,000,000 books. The
+ * per-operation cost should stay roughly the same at every size.
+ *
+ */
+public class CatalogBenchmark {
+	private static final int[] SIZES = { 10_000, 100_000, 1_000_000 };
+	private static final int OPERATIONS = 200_000;
+	private Catalog catalog = Catalog.getInstance();
+	private Random random = new Random(372);
+	private int size;
+
+	/**
+	 * Adds books to the catalog until it holds the given number of books.
+	 *
+	 * @param target the number of books the catalog should hold
+	 */
+	public void growTo(int target) {
+		for (; size < target; size++) {
+			catalog.insertBook(new Book("title" + size, "author" + size, "B" + size));
+		}
+	}
+
+	/**
+	 * Searches for randomly chosen books.
+	 *
+	 * @return average nanoseconds per search
+	 */
+	public double timeSearch() {
+		long start = System.nanoTime();
+		int found = 0;
+		for (int count = 0; count < OPERATIONS; count++) {
+			if (catalog.search("B" + random.nextInt(size)) != null) {
+				found++;
+			}
+		}
+		long elapsed = System.nanoTime() - start;
+		assert found == OPERATIONS;
+		return (double) elapsed / OPERATIONS;
+	}
+
+	/**
+	 * Removes randomly chosen books and puts them back so that the size of the
+	 * catalog does not change.
+	 *
+	 * @return average nanoseconds per removal and re-insertion
+	 */
+	public double timeRemove() {
+		long start = System.nanoTime();
+		for (int count = 0; count < OPERATIONS; count++) {
+			Book book = catalog.search("B" + random.nextInt(size));
+			catalog.removeBook(book.getId());
+			catalog.insertBook(book);
+		}
+		long elapsed = System.nanoTime() - start;
+		return (double) elapsed / OPERATIONS;
+	}
+
+	/**
+	 * Runs ten-result title prefix queries for randomly chosen prefixes.
+	 *
+	 * @return average nanoseconds per query
+	 */
+	public double timePrefix() {
+		long start = System.nanoTime();
+		for (int count = 0; count < OPERATIONS; count++) {
+			String title = "title" + random.nextInt(size);
+			Iterator<Book> iterator = catalog.searchTitlePrefix(title.substring(0, title.length() - 1), 10);
+			assert iterator.hasNext();
+		}
+		long elapsed = System.nanoTime() - start;
+		return (double) elapsed / OPERATIONS;
+	}
+
+	public void runAll() {
+		for (int target : SIZES) {
+			growTo(target);
+			timeSearch();
+			System.out.printf("%,10d books: search %8.1f ns, remove+insert %8.1f ns, prefix %8.1f ns%n", size,
+					timeSearch(), timeRemove(), timePrefix());
+		}
+	}
+
+	public static void main(String[] args) {
+		new CatalogBenchmark().runAll();
+	}
+}
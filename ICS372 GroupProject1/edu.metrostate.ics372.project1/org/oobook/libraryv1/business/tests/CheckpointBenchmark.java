@@ -0,0 +1,97 @@
+package org.oobook.libraryv1.business.tests;
+
+import org.oobook.libraryv1.business.facade.Library;
+import org.oobook.libraryv1.business.facade.Request;
+import org.oobook.libraryv1.business.facade.Result;
+
+/**
+ * Compares the time of a full save with that of a checkpoint after a small
+ * part of a large library has changed. The library files are written to
+ * a temporary directory (see LibraryDirectory).
+ *
+ */
+public class CheckpointBenchmark {
+	private static final int BOOKS = 200_000;
+	private static final int MEMBERS = 20_000;
+	private static final int LOANS = 50_000;
+	private static final double[] CHANGED_PERCENTS = { 0.1, 1, 5 };
+	private static final int ROUNDS = 3;
+	private Library library = Library.instance();
+	private Request request = Request.instance();
+
+	/**
+	 * Fills the library with books and members and issues some of the books
+	 */
+	public void fill() {
+		for (int count = 0; count < MEMBERS; count++) {
+			request.setMemberName("name" + count);
+			request.setMemberAddress("address" + count);
+			request.setMemberPhone("phone" + count);
+			library.addMember(request);
+		}
+		for (int count = 0; count < BOOKS; count++) {
+			request.setBookTitle("title" + count);
+			request.setBookAuthor("author" + (count % 5_000));
+			request.setBookId("B" + count);
+			library.addBook(request);
+		}
+		for (int count = 0; count < LOANS; count++) {
+			request.setMemberId("M" + (count % MEMBERS + 1));
+			request.setBookId("B" + count);
+			library.issueBook(request);
+		}
+	}
+
+	/**
+	 * Saves the library in full a number of times
+	 *
+	 * @return average milliseconds per save
+	 */
+	public double timeSave() {
+		long start = System.nanoTime();
+		for (int round = 0; round < ROUNDS; round++) {
+			Library.save();
+		}
+		return (System.nanoTime() - start) / 1e6 / ROUNDS;
+	}
+
+	/**
+	 * Issues or returns the given percentage of the books and writes a
+	 * checkpoint, a number of times
+	 *
+	 * @param percent the percentage of books to change before each checkpoint
+	 * @return average milliseconds per checkpoint
+	 */
+	public double timeCheckpoint(double percent) {
+		Library.save();
+		int changes = (int) (BOOKS * percent / 100);
+		long elapsed = 0;
+		for (int round = 0; round < ROUNDS; round++) {
+			for (int count = 0; count < changes; count++) {
+				request.setBookId("B" + (LOANS + round * changes + count) % BOOKS);
+				request.setMemberId("M" + (count % MEMBERS + 1));
+				if (library.returnBook(request).getResultCode() != Result.OPERATION_COMPLETED) {
+					library.issueBook(request);
+				}
+			}
+			long start = System.nanoTime();
+			Library.checkpoint();
+			elapsed += System.nanoTime() - start;
+		}
+		return elapsed / 1e6 / ROUNDS;
+	}
+
+	public void runAll() {
+		LibraryDirectory.create();
+		fill();
+		timeSave();
+		System.out.printf("full save:                 %8.1f milliseconds%n", timeSave());
+		for (double percent : CHANGED_PERCENTS) {
+			System.out.printf("checkpoint, %4.1f%% changed: %8.1f milliseconds%n", percent, timeCheckpoint(percent));
+		}
+	}
+
+	public static void main(String[] args) {
+		new CheckpointBenchmark().runAll();
+	}
+}
@@ -0,0 +1,110 @@
+package org.oobook.libraryv1.business.tests;
+
+import java.util.Iterator;
+import java.util.zip.Deflater;
+
+import org.oobook.libraryv1.business.collections.Catalog;
+import org.oobook.libraryv1.business.collections.MemberList;
+import org.oobook.libraryv1.business.entities.Book;
+import org.oobook.libraryv1.business.entities.Member;
+import org.oobook.libraryv1.business.facade.Library;
+import org.oobook.libraryv1.business.facade.Result;
+
+/**
+ * Compares the levels of compression of Library.save(int) for a library of a
+ * million books. For each level it reports the size of the file, how much
+ * smaller it is than the data uncompressed, and the time to save, to retrieve,
+ * and to retrieve and read every book and member. The rate of saving is the
+ * size of the data uncompressed over the time to save. The files are written
+ * to a temporary directory (see LibraryDirectory).
+ *
+ */
+public class CompressionBenchmark {
+	private static final int BOOKS = 1_000_000;
+	private static final int MEMBERS = 100_000;
+	private static final int LOANS = 200_000;
+	private static final int[] LEVELS = { Deflater.NO_COMPRESSION, Deflater.BEST_SPEED, 3,
+			Deflater.DEFAULT_COMPRESSION, Deflater.BEST_COMPRESSION };
+
+	/**
+	 * Fills the library with books and members and issues some of the books
+	 */
+	public void fill() {
+		Member[] members = new Member[MEMBERS];
+		for (int count = 0; count < MEMBERS; count++) {
+			members[count] = new Member("name" + count, "address" + count, "phone" + count);
+			MemberList.getInstance().insertMember(members[count]);
+		}
+		for (int count = 0; count < BOOKS; count++) {
+			Book book = new Book("title" + count, "author" + (count % 20_000), "B" + count);
+			Catalog.getInstance().insertBook(book);
+			if (count < LOANS) {
+				Member member = members[count % MEMBERS];
+				book.issue(member);
+				member.issue(book);
+			}
+		}
+		Library.instance();
+	}
+
+	/**
+	 * Saves the library with the given level of compression
+	 *
+	 * @param level the level
+	 * @return milliseconds taken
+	 */
+	public double timeSave(int level) {
+		long start = System.nanoTime();
+		if (!Library.save(level)) {
+			throw new IllegalStateException("save failed");
+		}
+		return (System.nanoTime() - start) / 1e6;
+	}
+
+	/**
+	 * Retrieves the library, and reads every book and member if asked to
+	 *
+	 * @param all whether to read every book and member
+	 * @return milliseconds taken
+	 */
+	public double timeRetrieve(boolean all) {
+		long start = System.nanoTime();
+		Library library = Library.retrieve();
+		if (library == null) {
+			throw new IllegalStateException("retrieve failed");
+		}
+		if (all) {
+			for (Iterator<Result> iterator = library.getBooks(); iterator.hasNext();) {
+				iterator.next();
+			}
+			for (Iterator<Result> iterator = library.getMembers(); iterator.hasNext();) {
+				iterator.next();
+			}
+		}
+		return (System.nanoTime() - start) / 1e6;
+	}
+
+	public void runAll() {
+		LibraryDirectory.create();
+		fill();
+		long uncompressed = 0;
+		for (int level : LEVELS) {
+			timeSave(level);
+			double save = timeSave(level);
+			long size = Library.getDataFile().length();
+			if (level == Deflater.NO_COMPRESSION) {
+				uncompressed = size;
+			}
+			timeRetrieve(false);
+			double retrieve = timeRetrieve(false);
+			double everything = timeRetrieve(true);
+			System.out.printf(
+					"level %2d: %,12d bytes, ratio %5.2f, save %8.1f ms (%6.1f MB/s), retrieve %8.1f ms, everything %8.1f ms%n",
+					level, size, (double) uncompressed / size, save, uncompressed / save / 1e3, retrieve, everything);
+		}
+	}
+
+	public static void main(String[] args) {
+		new CompressionBenchmark().runAll();
+	}
+}
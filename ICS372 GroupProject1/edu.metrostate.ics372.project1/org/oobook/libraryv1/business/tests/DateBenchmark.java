@@ -0,0 +1,198 @@
+package org.oobook.libraryv1.business.tests;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+
+import org.oobook.libraryv1.business.collections.HoldList;
+import org.oobook.libraryv1.business.collections.LoanList;
+import org.oobook.libraryv1.business.entities.Book;
+import org.oobook.libraryv1.business.entities.Hold;
+import org.oobook.libraryv1.business.entities.LibraryClock;
+import org.oobook.libraryv1.business.entities.Member;
+
+/**
+ * Compares books and holds that keep their dates in GregorianCalendar objects,
+ * the way they did before, with the current ones that keep milliseconds. It
+ * reports the heap used per entity and the number of issues and renewals per
+ * second. The old issue is reproduced with its seven Calendar changes and a
+ * due date index shaped like LoanList.
+ *
+ */
+public class DateBenchmark {
+	private static final int ENTITIES = 500_000;
+	private static final int BOOKS = 10_000;
+	private static final int ROUNDS = 100;
+	private Member member = new Member("name", "address", "phone");
+	private Book book = new Book("title", "author", "B0");
+	private Object[] entities;
+
+	/*
+	 * The layout of a book before due dates were kept in milliseconds
+	 */
+	private static class CalendarBook {
+		private static NavigableMap<Long, Map<String, CalendarBook>> loans = new TreeMap<>();
+		private String title;
+		private String author;
+		private String id;
+		private Member borrowedBy;
+		private HoldList holds = new HoldList();
+		private Calendar dueDate;
+
+		private CalendarBook(String title, String author, String id) {
+			this.title = title;
+			this.author = author;
+			this.id = id;
+		}
+
+		private boolean issue(Member member) {
+			if (borrowedBy != null) {
+				Map<String, CalendarBook> books = loans.get(dueDate.getTimeInMillis());
+				books.remove(id);
+				if (books.isEmpty()) {
+					loans.remove(dueDate.getTimeInMillis());
+				}
+			}
+			borrowedBy = member;
+			dueDate = new GregorianCalendar();
+			dueDate.set(Calendar.HOUR, 0);
+			dueDate.set(Calendar.MINUTE, 0);
+			dueDate.set(Calendar.SECOND, 0);
+			dueDate.add(Calendar.HOUR, 11);
+			dueDate.add(Calendar.MINUTE, 59);
+			dueDate.add(Calendar.SECOND, 59);
+			dueDate.add(Calendar.MONTH, 1);
+			loans.computeIfAbsent(dueDate.getTimeInMillis(), time -> new LinkedHashMap<String, CalendarBook>())
+					.put(id, this);
+			return true;
+		}
+	}
+
+	/*
+	 * The layout of a hold before end dates were kept in milliseconds
+	 */
+	private static class CalendarHold {
+		private Book book;
+		private Member member;
+		private Calendar date;
+
+		private CalendarHold(Member member, Book book, Calendar date) {
+			this.book = book;
+			this.member = member;
+			this.date = date;
+		}
+	}
+
+	/**
+	 * Measures the heap used by books with a Calendar due date and by books as
+	 * they are now.
+	 *
+	 * @return bytes per book, old and new
+	 */
+	public double[] measureBooks() {
+		double old = measure(() -> {
+			CalendarBook book = new CalendarBook("title", "author", "B0");
+			book.dueDate = new GregorianCalendar();
+			return book;
+		});
+		double current = measure(() -> new Book("title", "author", "B0"));
+		return new double[] { old, current };
+	}
+
+	/**
+	 * Measures the heap used by holds with a Calendar end date and by holds as
+	 * they are now.
+	 *
+	 * @return bytes per hold, old and new
+	 */
+	public double[] measureHolds() {
+		double old = measure(() -> new CalendarHold(member, book, new GregorianCalendar()));
+		long endTime = LibraryClock.daysFromNow(7);
+		double current = measure(() -> new Hold(member, book, endTime));
+		return new double[] { old, current };
+	}
+
+	/*
+	 * Creates a number of entities and returns the heap freed per entity when
+	 * they are dropped. The entities are kept in a field so that they cannot be
+	 * optimized away.
+	 */
+	private double measure(Supplier<Object> factory) {
+		entities = new Object[ENTITIES];
+		for (int index = 0; index < ENTITIES; index++) {
+			entities[index] = factory.get();
+		}
+		long used = usedHeap();
+		entities = null;
+		return (double) (used - usedHeap()) / ENTITIES;
+	}
+
+	/**
+	 * Issues and then renews a set of books the old way a number of times.
+	 *
+	 * @return issues and renewals per second
+	 */
+	public double timeCalendarIssue() {
+		CalendarBook[] books = new CalendarBook[BOOKS];
+		for (int index = 0; index < BOOKS; index++) {
+			books[index] = new CalendarBook("title" + index, "author", "B" + index);
+		}
+		long start = System.nanoTime();
+		for (int round = 0; round < ROUNDS; round++) {
+			for (CalendarBook book : books) {
+				book.issue(member);
+			}
+		}
+		return (double) BOOKS * ROUNDS * 1_000_000_000L / (System.nanoTime() - start);
+	}
+
+	/**
+	 * Issues and then renews a set of books a number of times.
+	 *
+	 * @return issues and renewals per second
+	 */
+	public double timeIssue() {
+		LoanList.getInstance().clear();
+		Book[] books = new Book[BOOKS];
+		for (int index = 0; index < BOOKS; index++) {
+			books[index] = new Book("title" + index, "author", "B" + index);
+			books[index].issue(member);
+		}
+		long start = System.nanoTime();
+		for (int round = 0; round < ROUNDS; round++) {
+			for (Book book : books) {
+				book.renew(member);
+			}
+		}
+		double result = (double) BOOKS * ROUNDS * 1_000_000_000L / (System.nanoTime() - start);
+		LoanList.getInstance().clear();
+		return result;
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int count = 0; count < 3; count++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	public void runAll() {
+		double[] books = measureBooks();
+		System.out.printf("book:  %6.1f bytes with Calendar, %6.1f bytes now%n", books[0], books[1]);
+		double[] holds = measureHolds();
+		System.out.printf("hold:  %6.1f bytes with Calendar, %6.1f bytes now%n", holds[0], holds[1]);
+		timeCalendarIssue();
+		timeIssue();
+		System.out.printf("issue: %,12.0f per second with Calendar, %,12.0f per second now%n", timeCalendarIssue(),
+				timeIssue());
+	}
+
+	public static void main(String[] args) {
+		new DateBenchmark().runAll();
+	}
+}
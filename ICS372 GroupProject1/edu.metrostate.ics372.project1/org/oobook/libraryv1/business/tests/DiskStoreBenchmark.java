@@ -0,0 +1,157 @@
+package org.oobook.libraryv1.business.tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Random;
+
+import org.oobook.libraryv1.business.collections.BTreeStore;
+import org.oobook.libraryv1.business.collections.Catalog;
+import org.oobook.libraryv1.business.collections.MemberList;
+import org.oobook.libraryv1.business.entities.Book;
+import org.oobook.libraryv1.business.entities.Member;
+import org.oobook.libraryv1.business.facade.Library;
+
+/**
+ * Compares a library of a million books kept in memory with the same library
+ * moved into B+tree stores (see Library.useStores) that keep ten thousand
+ * books and members in memory. For each it measures the heap in use, a lookup
+ * of a randomly chosen book followed by the release that ends an operation,
+ * a keyword search and going through every book; for the stores it also
+ * reports how often a page was found in the buffer pool. Some books are
+ * issued, and those stay in memory. The store and library files are written to
+ * a temporary directory (see LibraryDirectory).
+ *
+ */
+public class DiskStoreBenchmark {
+	private static final int BOOKS = 1_000_000;
+	private static final int MEMBERS = 100_000;
+	private static final int LOANS = 10_000;
+	private static final int RESIDENT_ENTITIES = 10_000;
+	private static final int CACHED_PAGES = 4096;
+	private static final int OPERATIONS = 200_000;
+	private Random random = new Random(372);
+
+	/**
+	 * Fills the library with books and members and issues some of the books
+	 */
+	public void fill() {
+		Member[] members = new Member[MEMBERS];
+		for (int count = 0; count < MEMBERS; count++) {
+			members[count] = new Member("name" + count, "address" + count, "phone" + count);
+			MemberList.getInstance().insertMember(members[count]);
+		}
+		for (int count = 0; count < BOOKS; count++) {
+			Book book = new Book("title" + count, "author" + (count % 20_000), "B" + count);
+			Catalog.getInstance().insertBook(book);
+			if (count < LOANS) {
+				book.issue(members[count]);
+				members[count].issue(book);
+			}
+		}
+		for (Member member : MemberList.getInstance()) {
+			member.markClean();
+		}
+		for (Book book : Catalog.getInstance()) {
+			book.markClean();
+		}
+		Library.instance();
+	}
+
+	/**
+	 * Returns the bytes of the heap in use after a collection
+	 *
+	 * @return bytes in use
+	 */
+	public long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int count = 0; count < 3; count++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * Looks up randomly chosen books, releasing the catalog after each as an
+	 * operation of the library does
+	 *
+	 * @return average nanoseconds per lookup
+	 */
+	public double timeLookup() {
+		Catalog catalog = Catalog.getInstance();
+		long start = System.nanoTime();
+		for (int count = 0; count < OPERATIONS; count++) {
+			if (catalog.search("B" + random.nextInt(BOOKS)) == null) {
+				throw new IllegalStateException("book not found");
+			}
+			catalog.release();
+		}
+		return (double) (System.nanoTime() - start) / OPERATIONS;
+	}
+
+	/**
+	 * Searches the titles and authors for a word
+	 *
+	 * @return milliseconds taken
+	 */
+	public double timeKeywords() {
+		long start = System.nanoTime();
+		int found = 0;
+		for (Iterator<Book> iterator = Catalog.getInstance().searchKeywords("author" + random.nextInt(20_000)); iterator
+				.hasNext(); iterator.next()) {
+			found++;
+		}
+		if (found != BOOKS / 20_000) {
+			throw new IllegalStateException("found " + found + " books");
+		}
+		return (System.nanoTime() - start) / 1e6;
+	}
+
+	/**
+	 * Goes through every book
+	 *
+	 * @return milliseconds taken
+	 */
+	public double timeIteration() {
+		long start = System.nanoTime();
+		int count = 0;
+		for (Iterator<Book> iterator = Catalog.getInstance().iterator(); iterator.hasNext(); iterator.next()) {
+			count++;
+		}
+		if (count != BOOKS) {
+			throw new IllegalStateException("went through " + count + " books");
+		}
+		return (System.nanoTime() - start) / 1e6;
+	}
+
+	private void report(String mode) {
+		timeLookup();
+		System.out.printf("%-6s heap %6.1f MB, lookup %8.1f ns, keyword search %8.1f ms, all books %8.1f ms%n", mode,
+				usedHeap() / 1e6, timeLookup(), timeKeywords(), timeIteration());
+	}
+
+	public void runAll() throws IOException {
+		File directory = LibraryDirectory.create();
+		fill();
+		report("memory");
+		try (BTreeStore<Book> books = BTreeStore.forBooks(new File(directory, "LibraryBooks.db"), CACHED_PAGES,
+				RESIDENT_ENTITIES);
+				BTreeStore<Member> members = BTreeStore.forMembers(new File(directory, "LibraryMembers.db"), CACHED_PAGES,
+						RESIDENT_ENTITIES)) {
+			long start = System.nanoTime();
+			Library.useStores(books, members);
+			System.out.printf("moved into the stores in %.1f ms%n", (System.nanoTime() - start) / 1e6);
+			long hits = books.getPageHits();
+			long misses = books.getPageMisses();
+			report("stores");
+			hits = books.getPageHits() - hits;
+			misses = books.getPageMisses() - misses;
+			System.out.printf("book pages: %,d hits, %,d misses (%.1f%% hits)%n", hits, misses,
+					100.0 * hits / (hits + misses));
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		new DiskStoreBenchmark().runAll();
+	}
+}
@@ -0,0 +1,92 @@
+package org.oobook.libraryv1.business.tests;
+
+import org.oobook.libraryv1.business.entities.Book;
+import org.oobook.libraryv1.business.entities.Hold;
+import org.oobook.libraryv1.business.entities.LibraryClock;
+import org.oobook.libraryv1.business.entities.Member;
+
+/**
+ * Measures Book.hasHold on books that carry long hold queues, both when no
+ * hold has expired and when most of each queue has expired and must be
+ * purged.
+ *
+ */
+public class HoldBenchmark {
+	private static final int BOOKS = 1_000;
+	private static final int[] QUEUE_LENGTHS = { 10, 100, 1_000 };
+	private static final int CALLS = 1_000;
+	private Member[] members;
+
+	/**
+	 * Creates books whose hold queues have the given length. The holds in the
+	 * first expiredPercent percent of each queue have already expired.
+	 *
+	 * @param queueLength    number of holds per book
+	 * @param expiredPercent percentage of holds per book that have expired
+	 * @return the books
+	 */
+	public Book[] createBooks(int queueLength, int expiredPercent) {
+		if (members == null || members.length < queueLength) {
+			members = new Member[queueLength];
+			for (int index = 0; index < queueLength; index++) {
+				members[index] = new Member("name" + index, "address" + index, "phone" + index);
+			}
+		}
+		int expired = queueLength * expiredPercent / 100;
+		Book[] books = new Book[BOOKS];
+		for (int count = 0; count < BOOKS; count++) {
+			books[count] = new Book("title" + count, "author" + count, "B" + count);
+			for (int index = 0; index < queueLength; index++) {
+				long endTime = LibraryClock.daysFromNow(index < expired ? -1 : 30);
+				books[count].placeHold(new Hold(members[index], books[count], endTime));
+			}
+		}
+		return books;
+	}
+
+	/**
+	 * Calls hasHold on every book a number of times.
+	 *
+	 * @param books the books
+	 * @return average nanoseconds per call
+	 */
+	public double timeHasHold(Book[] books) {
+		long start = System.nanoTime();
+		for (int call = 0; call < CALLS; call++) {
+			for (Book book : books) {
+				if (!book.hasHold()) {
+					throw new IllegalStateException("hold expected on " + book.getId());
+				}
+			}
+		}
+		return (double) (System.nanoTime() - start) / (CALLS * books.length);
+	}
+
+	/**
+	 * Calls hasHold once on every book whose queue is mostly expired, so that
+	 * each call pays for purging the expired holds.
+	 *
+	 * @param books the books
+	 * @return average nanoseconds per call
+	 */
+	public double timePurge(Book[] books) {
+		long start = System.nanoTime();
+		for (Book book : books) {
+			book.hasHold();
+		}
+		return (double) (System.nanoTime() - start) / books.length;
+	}
+
+	public void runAll() {
+		for (int length : QUEUE_LENGTHS) {
+			double valid = timeHasHold(createBooks(length, 0));
+			double purge = timePurge(createBooks(length, 90));
+			System.out.printf("%,6d holds per book: hasHold %8.1f ns, first call after 90%% expired %10.1f ns%n",
+					length, valid, purge);
+		}
+	}
+
+	public static void main(String[] args) {
+		new HoldBenchmark().runAll();
+	}
+}
@@ -0,0 +1,49 @@
+package org.oobook.libraryv1.business.tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+
+import org.oobook.libraryv1.business.collections.TransactionJournal;
+import org.oobook.libraryv1.business.facade.Library;
+
+/**
+ * Gives the tests and benchmarks a temporary directory for the library files,
+ * so that they never touch the LibraryData, LibraryLog and deltas of the
+ * working directory. The directory is deleted when the virtual machine exits.
+ *
+ */
+class LibraryDirectory {
+	private LibraryDirectory() {
+	}
+
+	/**
+	 * Creates a temporary directory and has the library keep its files, and the
+	 * archive of old transactions, in it
+	 *
+	 * @return the directory
+	 */
+	static File create() {
+		File directory;
+		try {
+			directory = Files.createTempDirectory("library").toFile();
+		} catch (IOException ioe) {
+			throw new UncheckedIOException(ioe);
+		}
+		Library.setDirectory(directory);
+		TransactionJournal.getInstance().setArchiveDirectory(new File(directory, "LibraryArchive").getPath());
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> delete(directory)));
+		return directory;
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (File child : files) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
@@ -0,0 +1,86 @@
+package org.oobook.libraryv1.business.tests;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.oobook.libraryv1.business.facade.MutationLog;
+
+/**
+ * Measures what MutationLog adds to each library operation. Without waiting
+ * for disk the cost is that of encoding a record into the buffer. When every
+ * operation waits for disk, several threads append at once and the records of
+ * all threads share each force, so the time per operation falls as threads
+ * are added even though each one waits for a whole force.
+ *
+ */
+public class LogBenchmark {
+	private static final int RECORDS = 1_000_000;
+	private static final int DURABLE_RECORDS = 20_000;
+	private static final int[] THREADS = { 1, 4, 16, 64 };
+
+	/**
+	 * Appends records without waiting for disk
+	 *
+	 * @return average nanoseconds per append
+	 * @throws IOException if the log cannot be created
+	 */
+	public double timeAppend() throws IOException {
+		File file = File.createTempFile("mutation", ".log");
+		MutationLog log = new MutationLog(file, 0, 0, 0);
+		long start = System.nanoTime();
+		for (int count = 0; count < RECORDS; count++) {
+			log.append(MutationLog.ISSUE_BOOK, count, 0, "M" + (count % 1000), "B" + count);
+		}
+		double result = (double) (System.nanoTime() - start) / RECORDS;
+		log.close();
+		file.delete();
+		return result;
+	}
+
+	/**
+	 * Appends records from several threads, each waiting until its record is on
+	 * disk
+	 *
+	 * @param threads the number of threads
+	 * @return average microseconds per operation over all threads
+	 * @throws Exception if the log cannot be created or a thread is interrupted
+	 */
+	public double timeDurable(int threads) throws Exception {
+		File file = File.createTempFile("mutation", ".log");
+		MutationLog log = new MutationLog(file, 0, 0, 0);
+		log.setGroupCommit(1024, 1, true);
+		Thread[] workers = new Thread[threads];
+		int perThread = DURABLE_RECORDS / threads;
+		for (int index = 0; index < threads; index++) {
+			workers[index] = new Thread(() -> {
+				for (int count = 0; count < perThread; count++) {
+					log.awaitDurable(log.append(MutationLog.ISSUE_BOOK, count, 0, "M1", "B" + count));
+				}
+			});
+		}
+		long start = System.nanoTime();
+		for (Thread worker : workers) {
+			worker.start();
+		}
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		double result = (System.nanoTime() - start) / 1000.0 / (perThread * threads);
+		log.close();
+		file.delete();
+		return result;
+	}
+
+	public void runAll() throws Exception {
+		timeAppend();
+		System.out.printf("append, no wait:          %8.2f microseconds per operation%n", timeAppend() / 1000);
+		for (int threads : THREADS) {
+			System.out.printf("wait for disk, %2d threads: %8.2f microseconds per operation%n", threads,
+					timeDurable(threads));
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		new LogBenchmark().runAll();
+	}
+}
@@ -0,0 +1,114 @@
+package org.oobook.libraryv1.business.tests;
+
+import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Deflater;
+
+import org.oobook.libraryv1.business.collections.Catalog;
+import org.oobook.libraryv1.business.collections.MemberList;
+import org.oobook.libraryv1.business.entities.Book;
+import org.oobook.libraryv1.business.entities.Hold;
+import org.oobook.libraryv1.business.entities.LibraryClock;
+import org.oobook.libraryv1.business.entities.Member;
+import org.oobook.libraryv1.business.facade.Library;
+import org.oobook.libraryv1.business.facade.Result;
+
+/**
+ * Measures how the time to retrieve a library of a million books and read all
+ * of it changes with the number of threads decoding it. The sections of the
+ * saved data are decoded on the fork-join pool that retrieve is called from,
+ * so each round runs on a pool of its own with the given parallelism, from one
+ * thread up to the number of processors. The library is saved uncompressed
+ * and compressed at Deflater.BEST_SPEED, whose blocks are also inflated in
+ * parallel. The files are written to a temporary directory (see
+ * LibraryDirectory).
+ *
+ */
+public class ParallelLoadBenchmark {
+	private static final int BOOKS = 1_000_000;
+	private static final int MEMBERS = 100_000;
+	private static final int LOANS = 200_000;
+	private static final int HOLDS = 50_000;
+	private static final int[] LEVELS = { Deflater.NO_COMPRESSION, Deflater.BEST_SPEED };
+
+	/**
+	 * Fills the library with books and members, issues some of the books and
+	 * places holds on some of the issued ones
+	 */
+	public void fill() {
+		Member[] members = new Member[MEMBERS];
+		for (int count = 0; count < MEMBERS; count++) {
+			members[count] = new Member("name" + count, "address" + count, "phone" + count);
+			MemberList.getInstance().insertMember(members[count]);
+		}
+		Book[] books = new Book[BOOKS];
+		for (int count = 0; count < BOOKS; count++) {
+			books[count] = new Book("title" + count, "author" + (count % 20_000), "B" + count);
+			Catalog.getInstance().insertBook(books[count]);
+		}
+		for (int count = 0; count < LOANS; count++) {
+			Member member = members[count % MEMBERS];
+			books[count].issue(member);
+			member.issue(books[count]);
+		}
+		long endTime = LibraryClock.daysFromNow(30);
+		for (int count = 0; count < HOLDS; count++) {
+			Member member = members[(count + 1) % MEMBERS];
+			Hold hold = new Hold(member, books[count], endTime);
+			books[count].placeHold(hold);
+			member.placeHold(hold);
+		}
+		Library.instance();
+	}
+
+	/**
+	 * Retrieves the library on a pool with the given number of threads and reads
+	 * every book and member
+	 *
+	 * @param threads the parallelism of the pool
+	 * @return milliseconds taken
+	 */
+	public double timeLoad(int threads) {
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			return pool.submit(() -> {
+				long start = System.nanoTime();
+				Library library = Library.retrieve();
+				if (library == null) {
+					throw new IllegalStateException("retrieve failed");
+				}
+				for (Iterator<Result> iterator = library.getMembers(); iterator.hasNext();) {
+					iterator.next();
+				}
+				for (Iterator<Result> iterator = library.getBooks(); iterator.hasNext();) {
+					iterator.next();
+				}
+				return (System.nanoTime() - start) / 1e6;
+			}).join();
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	public void runAll() {
+		LibraryDirectory.create();
+		fill();
+		int processors = Runtime.getRuntime().availableProcessors();
+		for (int level : LEVELS) {
+			if (!Library.save(level)) {
+				throw new IllegalStateException("save failed");
+			}
+			for (int threads = 1;; threads = Math.min(2 * threads, processors)) {
+				timeLoad(threads);
+				System.out.printf("level %d, %2d threads: %8.1f ms%n", level, threads, timeLoad(threads));
+				if (threads == processors) {
+					break;
+				}
+			}
+		}
+	}
+
+	public static void main(String[] args) {
+		new ParallelLoadBenchmark().runAll();
+	}
+}
@@ -0,0 +1,332 @@
+package org.oobook.libraryv1.business.tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.GregorianCalendar;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import org.oobook.libraryv1.business.collections.TransactionJournal;
+import org.oobook.libraryv1.business.facade.BackgroundSave;
+import org.oobook.libraryv1.business.facade.Library;
+import org.oobook.libraryv1.business.facade.Request;
+import org.oobook.libraryv1.business.facade.Result;
+
+/**
+ * Checks with asserts that the library comes back as it was after the log is
+ * replayed, after checkpoints, after a save and after a save in the
+ * background. The library is kept in static fields, so each step runs in a
+ * virtual machine of its own, as a program run after another would; a step
+ * that changes the library writes a description of it to a file, and the step
+ * that retrieves it compares the library with that description. The files
+ * are kept in a temporary directory (see LibraryDirectory).
+ *
+ */
+public class PersistenceTester {
+	private static final String EXPECTED_FILE = "Expected";
+	private static final String SAVED_FILE = "ExpectedSaved";
+	private File directory;
+	private Library library;
+	private Request request = Request.instance();
+
+	/**
+	 * Changes the library without saving it; the log alone must bring it back
+	 */
+	public void testLogReplay() throws IOException, InterruptedException {
+		run("log-write");
+		run("read");
+	}
+
+	/**
+	 * Saves a library, then starts another without retrieving the first and
+	 * changes it without saving; the log of the second must not be replayed
+	 * over the data of the first
+	 */
+	public void testLogOfAnotherLibrary() throws IOException, InterruptedException {
+		run("another-save");
+		run("another-log");
+		run("read");
+	}
+
+	/**
+	 * Saves, then writes checkpoints, then changes the library again; the data,
+	 * the deltas and the log together must bring it back, also after a
+	 * checkpoint of the retrieved library
+	 */
+	public void testCheckpoint() throws IOException, InterruptedException {
+		run("checkpoint-write");
+		run("checkpoint-again");
+		run("read");
+	}
+
+	/**
+	 * Saves the library and retrieves it, then saves the retrieved library
+	 * compressed, to a new file that takes the place of the mapped one, and
+	 * retrieves that
+	 */
+	public void testSnapshot() throws IOException, InterruptedException {
+		run("snapshot-write");
+		run("snapshot-compress");
+		run("read");
+	}
+
+	/**
+	 * Changes the library while it is saved in the background, removing a book
+	 * and adding it again; the data must hold the library as it was when the
+	 * save started, and the data and the log the library as it was at the end
+	 */
+	public void testBackgroundSave() throws IOException, InterruptedException {
+		run("background-write");
+		run("read");
+		run("background-read-saved");
+	}
+
+	public void testAll() throws IOException, InterruptedException {
+		directory = LibraryDirectory.create();
+		testLogReplay();
+		directory = LibraryDirectory.create();
+		testLogOfAnotherLibrary();
+		directory = LibraryDirectory.create();
+		testCheckpoint();
+		directory = LibraryDirectory.create();
+		testSnapshot();
+		directory = LibraryDirectory.create();
+		testBackgroundSave();
+	}
+
+	/*
+	 * Runs a step in a virtual machine of its own and checks that it succeeded
+	 */
+	private void run(String step) throws IOException, InterruptedException {
+		String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+		Process process = new ProcessBuilder(java, "-ea", "-cp", System.getProperty("java.class.path"),
+				PersistenceTester.class.getName(), step, directory.getPath()).inheritIO().start();
+		assert process.waitFor() == 0 : step + " failed";
+	}
+
+	/*
+	 * Carries out one step in the directory
+	 */
+	private void step(String step) throws IOException {
+		Library.setDirectory(directory);
+		TransactionJournal.getInstance().setArchiveDirectory(new File(directory, "LibraryArchive").getPath());
+		switch (step) {
+		case "log-write":
+			open(false);
+			build();
+			change();
+			expect(EXPECTED_FILE);
+			break;
+		case "another-save":
+			open(false);
+			addBook("B1");
+			assert Library.save();
+			expect(EXPECTED_FILE);
+			break;
+		case "another-log":
+			open(false);
+			for (int count = 0; count < 3; count++) {
+				addMember("n" + count);
+			}
+			addBook("B2");
+			break;
+		case "checkpoint-write":
+			open(false);
+			build();
+			assert Library.save();
+			change();
+			assert Library.checkpoint();
+			issue("M4", "B3");
+			hold("M5", "B3");
+			assert Library.checkpoint();
+			returnBook("B3");
+			addMember("tail");
+			expect(EXPECTED_FILE);
+			break;
+		case "checkpoint-again":
+			open(true);
+			check(EXPECTED_FILE);
+			returnBook("B1");
+			issue("M1", "B1");
+			assert Library.checkpoint();
+			addBook("B9");
+			expect(EXPECTED_FILE);
+			break;
+		case "snapshot-write":
+			open(false);
+			build();
+			change();
+			assert Library.save();
+			expect(EXPECTED_FILE);
+			break;
+		case "snapshot-compress":
+			open(true);
+			check(EXPECTED_FILE);
+			File retrieved = Library.getDataFile();
+			assert Library.save(Deflater.BEST_SPEED);
+			assert !Library.getDataFile().equals(retrieved) && !retrieved.exists();
+			break;
+		case "background-write":
+			open(false);
+			build();
+			assert Library.save();
+			change();
+			expect(SAVED_FILE);
+			BackgroundSave save = Library.saveInBackground();
+			for (int count = 0; count < 20; count++) {
+				addBook("X" + count);
+				issue("M" + (count % 5 + 1), "X" + count);
+			}
+			returnBook("X0");
+			request.setBookId("B5");
+			assert library.removeBook(request).getResultCode() == Result.OPERATION_COMPLETED;
+			addBook("B5");
+			assert save.join();
+			expect(EXPECTED_FILE);
+			break;
+		case "background-read-saved":
+			assert new File(directory, "LibraryLog").delete();
+			open(true);
+			check(SAVED_FILE);
+			break;
+		case "read":
+			open(true);
+			check(EXPECTED_FILE);
+			break;
+		default:
+			throw new IllegalArgumentException("unknown step " + step);
+		}
+	}
+
+	/*
+	 * Retrieves the library or starts an empty one, and has every operation
+	 * wait until it is in the log on disk
+	 */
+	private void open(boolean retrieve) {
+		library = retrieve ? Library.retrieve() : Library.instance();
+		assert library != null;
+		library.setGroupCommit(1, 0, true);
+	}
+
+	private void build() {
+		for (int count = 0; count < 6; count++) {
+			addMember("n" + count);
+		}
+		for (int count = 0; count < 8; count++) {
+			addBook("B" + count);
+		}
+		issue("M1", "B0");
+		hold("M2", "B0");
+		issue("M2", "B1");
+		hold("M3", "B1");
+	}
+
+	private void change() {
+		hold("M4", "B0");
+		returnBook("B0");
+		request.setMemberId("M2");
+		request.setBookId("B0");
+		assert library.removeHold(request).getResultCode() == Result.OPERATION_COMPLETED;
+		request.setMemberId("M2");
+		request.setBookId("B1");
+		library.renewBook(request);
+		request.setBookId("B7");
+		assert library.removeBook(request).getResultCode() == Result.OPERATION_COMPLETED;
+		issue("M6", "B2");
+		addMember("late");
+		addBook("B7");
+	}
+
+	private void addMember(String name) {
+		request.setMemberName(name);
+		request.setMemberAddress("a " + name);
+		request.setMemberPhone("p " + name);
+		assert library.addMember(request).getResultCode() == Result.OPERATION_COMPLETED;
+	}
+
+	private void addBook(String id) {
+		request.setBookTitle("t " + id);
+		request.setBookAuthor("a " + id);
+		request.setBookId(id);
+		assert library.addBook(request).getResultCode() == Result.OPERATION_COMPLETED;
+	}
+
+	private void issue(String memberId, String bookId) {
+		request.setMemberId(memberId);
+		request.setBookId(bookId);
+		assert library.issueBook(request).getResultCode() == Result.OPERATION_COMPLETED;
+	}
+
+	private void hold(String memberId, String bookId) {
+		request.setMemberId(memberId);
+		request.setBookId(bookId);
+		request.setHoldDuration(30);
+		assert library.placeHold(request).getResultCode() == Result.OPERATION_COMPLETED;
+	}
+
+	private void returnBook(String bookId) {
+		request.setBookId(bookId);
+		int code = library.returnBook(request).getResultCode();
+		assert code == Result.OPERATION_COMPLETED || code == Result.BOOK_HAS_HOLD;
+	}
+
+	/*
+	 * Describes the books and members, the overdue books and the activity
+	 * totals of the library. Books due at the same time may be listed as overdue
+	 * in any order, so the overdue books are sorted.
+	 */
+	private String describe() {
+		StringBuilder description = new StringBuilder(library.toString()).append('\n');
+		Calendar end = new GregorianCalendar(2100, Calendar.JANUARY, 1);
+		request.setDate(end);
+		List<String> overdue = new ArrayList<String>();
+		for (Iterator<Result> iterator = library.getOverdueBooks(request); iterator.hasNext();) {
+			Result result = iterator.next();
+			overdue.add(result.getBookId() + " " + result.getBookDueDate() + "\n");
+		}
+		Collections.sort(overdue);
+		for (String line : overdue) {
+			description.append(line);
+		}
+		request.setDate(new GregorianCalendar(2000, Calendar.JANUARY, 1));
+		request.setEndDate(end);
+		for (Iterator<Result> iterator = library.getActivityTotals(request); iterator.hasNext();) {
+			Result result = iterator.next();
+			description.append(result.getTransactionType()).append(' ').append(result.getTransactionCount())
+					.append('\n');
+		}
+		return description.toString();
+	}
+
+	private void expect(String name) throws IOException {
+		Files.write(new File(directory, name).toPath(), describe().getBytes(StandardCharsets.UTF_8));
+	}
+
+	private void check(String name) throws IOException {
+		String expected = new String(Files.readAllBytes(new File(directory, name).toPath()), StandardCharsets.UTF_8);
+		String actual = describe();
+		assert actual.equals(expected) : "expected\n" + expected + "but found\n" + actual;
+	}
+
+	/**
+	 * Runs all the tests, or, given a step and a directory, carries out the
+	 * step
+	 *
+	 * @param args nothing, or the step and the directory
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		PersistenceTester tester = new PersistenceTester();
+		if (args.length == 0) {
+			tester.testAll();
+		} else {
+			tester.directory = new File(args[1]);
+			tester.step(args[0]);
+		}
+	}
+}
@@ -0,0 +1,347 @@
+package org.oobook.libraryv1.business.tests;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.oobook.libraryv1.business.collections.MemberList;
+import org.oobook.libraryv1.business.facade.Library;
+import org.oobook.libraryv1.business.facade.Request;
+import org.oobook.libraryv1.business.facade.Result;
+
+/**
+ * Checks with asserts the searches and queries of the library: the keyword and
+ * title prefix searches of books, the name and phone searches of members, the
+ * expiry of holds, the transactions in a range of days and the daily activity.
+ * The library reads a clock of the tester's, which is moved a day at a time.
+ *
+ */
+public class QueryTester {
+	private static final int DAYS = 4;
+	private Library library;
+	private Request request = Request.instance();
+	private MovingClock clock = new MovingClock();
+	private Calendar firstDay;
+	private String[] names = { "Ann Lee", "Bo Chan", "Cy Park" };
+	private String[] phones = { "555-0101", "555-0102", "555-0103" };
+	private String[] memberIds = new String[3];
+	private String[] titles = { "The Left Hand of Darkness", "The Lathe of Heaven", "Dune", "Dune Messiah" };
+	private String[] authors = { "Le Guin", "Le Guin", "Herbert", "Herbert" };
+	private String[] ids = { "B1", "B2", "B3", "B4" };
+	private List<String> expired = new ArrayList<String>();
+
+	/**
+	 * Creates a library in a temporary directory that reads the tester's clock,
+	 * and adds the members and books
+	 */
+	public void testSetUp() {
+		LibraryDirectory.create();
+		library = Library.instance();
+		library.setClock(clock);
+		library.setHoldExpiryListener(result -> expired.add(result.getMemberId() + " " + result.getBookId()));
+		firstDay = today();
+		for (int count = 0; count < names.length; count++) {
+			request.reset();
+			request.setMemberName(names[count]);
+			request.setMemberAddress("a" + count);
+			request.setMemberPhone(phones[count]);
+			Result result = library.addMember(request);
+			assert result.getResultCode() == Result.OPERATION_COMPLETED;
+			memberIds[count] = result.getMemberId();
+		}
+		for (int count = 0; count < ids.length; count++) {
+			addBook(count);
+		}
+	}
+
+	/**
+	 * Books are found by words of their title and author, in any case; a book
+	 * removed is no longer found, and one added is
+	 */
+	public void testSearchBooks() {
+		assert searchBooks("le guin").equals(ids("B1", "B2"));
+		assert searchBooks("DUNE").equals(ids("B3", "B4"));
+		assert searchBooks("heaven Guin").equals(ids("B2"));
+		assert searchBooks("dune guin").isEmpty();
+		removeBook("B4");
+		assert searchBooks("dune").equals(ids("B3"));
+		assert searchBooks("messiah").isEmpty();
+		addBook(3);
+		assert searchBooks("messiah").equals(ids("B4"));
+	}
+
+	/**
+	 * Books are suggested by the beginning of their title, in alphabetical order
+	 * of title, at most as many as asked for
+	 */
+	public void testTitleSuggestions() {
+		assert titleSuggestions("the l", 10).equals(List.of("B2", "B1"));
+		assert titleSuggestions("The L", 1).equals(List.of("B2"));
+		assert titleSuggestions("dune", 10).equals(List.of("B3", "B4"));
+		removeBook("B3");
+		assert titleSuggestions("Dune", 10).equals(List.of("B4"));
+		addBook(2);
+		assert titleSuggestions("Dune", 10).equals(List.of("B3", "B4"));
+		assert titleSuggestions("Dusk", 10).isEmpty();
+	}
+
+	/**
+	 * Members are found by name and by phone, also after either changes
+	 */
+	public void testSearchMembers() {
+		assert searchMembersByName("Ann Lee").equals(ids(memberIds[0]));
+		assert searchMembersByPhone("555-0102").equals(ids(memberIds[1]));
+		MemberList.getInstance().search(memberIds[0]).setName("Ann Park");
+		assert searchMembersByName("Ann Lee").isEmpty();
+		assert searchMembersByName("Ann Park").equals(ids(memberIds[0]));
+		MemberList.getInstance().search(memberIds[1]).setPhone("555-0101");
+		assert searchMembersByPhone("555-0102").isEmpty();
+		assert searchMembersByPhone("555-0101").equals(ids(memberIds[0], memberIds[1]));
+		MemberList.getInstance().search(memberIds[0]).setName("Ann Lee");
+		assert searchMembersByName("Ann Lee").equals(ids(memberIds[0]));
+	}
+
+	/**
+	 * A hold placed for two days is not removed a day later, and is removed,
+	 * with the listener told, once the clock has passed its end
+	 */
+	public void testHoldExpiry() {
+		assert issue(memberIds[0], "B1") == Result.OPERATION_COMPLETED;
+		request.reset();
+		request.setMemberId(memberIds[1]);
+		request.setBookId("B1");
+		request.setHoldDuration(2);
+		assert library.placeHold(request).getResultCode() == Result.OPERATION_COMPLETED;
+		clock.advanceDays(1);
+		library.removeInvalidHolds();
+		assert expired.isEmpty();
+		assert MemberList.getInstance().search(memberIds[1]).getHolds().hasNext();
+		clock.advanceDays(2);
+		library.removeInvalidHolds();
+		assert expired.equals(List.of(memberIds[1] + " B1"));
+		assert !MemberList.getInstance().search(memberIds[1]).getHolds().hasNext();
+		library.removeInvalidHolds();
+		assert expired.size() == 1;
+	}
+
+	/**
+	 * After more transactions on the last day, the transactions of the library
+	 * and of a member over all the days are those of each day in turn
+	 */
+	public void testTransactionsInRange() {
+		assert issue(memberIds[2], "B2") == Result.OPERATION_COMPLETED;
+		request.reset();
+		request.setMemberId(memberIds[0]);
+		request.setBookId("B1");
+		assert library.returnBook(request).getResultCode() == Result.OPERATION_COMPLETED;
+		List<String> all = transactions(null, 0, DAYS - 1);
+		assert all.size() == 5;
+		List<String> byDay = new ArrayList<String>();
+		for (int day = 0; day < DAYS; day++) {
+			byDay.addAll(transactions(null, day, day));
+		}
+		assert all.equals(byDay);
+		assert transactions(null, 1, 2).isEmpty();
+		for (String memberId : memberIds) {
+			List<String> ofMember = transactions(memberId, 0, DAYS - 1);
+			List<String> ofMemberByDay = new ArrayList<String>();
+			List<String> ofMemberInAll = new ArrayList<String>();
+			for (int day = 0; day < DAYS; day++) {
+				ofMemberByDay.addAll(transactionsOnDay(memberId, day));
+			}
+			for (String transaction : all) {
+				if (transaction.endsWith(" " + memberId)) {
+					ofMemberInAll.add(transaction);
+				}
+			}
+			assert !ofMember.isEmpty();
+			assert ofMember.equals(ofMemberByDay);
+			assert ofMember.equals(ofMemberInAll);
+		}
+	}
+
+	/**
+	 * The counts of each type of transaction on each day are those of the
+	 * transactions of the day
+	 */
+	public void testDailyActivity() {
+		List<String> all = transactions(null, 0, DAYS - 1);
+		request.reset();
+		request.setDate(day(0));
+		request.setEndDate(day(DAYS - 1));
+		int total = 0;
+		for (Iterator<Result> iterator = library.getDailyActivity(request); iterator.hasNext();) {
+			Result result = iterator.next();
+			int count = 0;
+			for (String transaction : all) {
+				if (transaction.startsWith(result.getTransactionType() + " / " + result.getTransactionDate() + " ")) {
+					count++;
+				}
+			}
+			assert result.getTransactionCount() == count;
+			total += count;
+		}
+		assert total == 5;
+	}
+
+	private Set<String> searchBooks(String keywords) {
+		request.reset();
+		request.setKeywords(keywords);
+		return bookIds(library.searchBooks(request));
+	}
+
+	private List<String> titleSuggestions(String prefix, int limit) {
+		request.reset();
+		request.setBookTitle(prefix);
+		request.setMaximumResults(limit);
+		return new ArrayList<String>(bookIdsInOrder(library.getTitleSuggestions(request)));
+	}
+
+	private Set<String> searchMembersByName(String name) {
+		request.reset();
+		request.setMemberName(name);
+		return memberIds(library.searchMembersByName(request));
+	}
+
+	private Set<String> searchMembersByPhone(String phone) {
+		request.reset();
+		request.setMemberPhone(phone);
+		return memberIds(library.searchMembersByPhone(request));
+	}
+
+	private void addBook(int count) {
+		request.reset();
+		request.setBookTitle(titles[count]);
+		request.setBookAuthor(authors[count]);
+		request.setBookId(ids[count]);
+		assert library.addBook(request).getResultCode() == Result.OPERATION_COMPLETED;
+	}
+
+	private void removeBook(String bookId) {
+		request.reset();
+		request.setBookId(bookId);
+		assert library.removeBook(request).getResultCode() == Result.OPERATION_COMPLETED;
+	}
+
+	private int issue(String memberId, String bookId) {
+		request.reset();
+		request.setMemberId(memberId);
+		request.setBookId(bookId);
+		return library.issueBook(request).getResultCode();
+	}
+
+	/*
+	 * Returns the transactions of a member, or of the library if the member is
+	 * null, from one day through another, counted from the first day, each as
+	 * type, date, title and member id
+	 */
+	private List<String> transactions(String memberId, int fromDay, int toDay) {
+		request.reset();
+		request.setMemberId(memberId);
+		request.setDate(day(fromDay));
+		request.setEndDate(day(toDay));
+		return describe(memberId == null ? library.getAllTransactionsInRange(request)
+				: library.getTransactionsInRange(request), memberId);
+	}
+
+	private List<String> transactionsOnDay(String memberId, int day) {
+		request.reset();
+		request.setMemberId(memberId);
+		request.setDate(day(day));
+		return describe(library.getTransactions(request), memberId);
+	}
+
+	private static List<String> describe(Iterator<Result> iterator, String memberId) {
+		List<String> transactions = new ArrayList<String>();
+		while (iterator.hasNext()) {
+			Result result = iterator.next();
+			transactions.add(result.getTransactionType() + " / " + result.getTransactionDate() + " "
+					+ result.getBookTitle() + " " + (memberId == null ? result.getMemberId() : memberId));
+		}
+		return transactions;
+	}
+
+	private static Set<String> bookIds(Iterator<Result> iterator) {
+		return new TreeSet<String>(bookIdsInOrder(iterator));
+	}
+
+	private static List<String> bookIdsInOrder(Iterator<Result> iterator) {
+		List<String> ids = new ArrayList<String>();
+		while (iterator.hasNext()) {
+			ids.add(iterator.next().getBookId());
+		}
+		return ids;
+	}
+
+	private static Set<String> memberIds(Iterator<Result> iterator) {
+		Set<String> ids = new TreeSet<String>();
+		while (iterator.hasNext()) {
+			ids.add(iterator.next().getMemberId());
+		}
+		return ids;
+	}
+
+	private static Set<String> ids(String... ids) {
+		return new TreeSet<String>(List.of(ids));
+	}
+
+	private Calendar today() {
+		Calendar today = new GregorianCalendar();
+		today.setTimeInMillis(clock.millis());
+		return today;
+	}
+
+	private Calendar day(int day) {
+		Calendar calendar = (Calendar) firstDay.clone();
+		calendar.add(Calendar.DAY_OF_MONTH, day);
+		return calendar;
+	}
+
+	/*
+	 * A clock that stands still until it is moved forward
+	 */
+	private static class MovingClock extends Clock {
+		private Instant instant = Instant.now();
+
+		private void advanceDays(int days) {
+			instant = instant.plus(Duration.ofDays(days));
+		}
+
+		@Override
+		public ZoneId getZone() {
+			return ZoneId.systemDefault();
+		}
+
+		@Override
+		public Clock withZone(ZoneId zone) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Instant instant() {
+			return instant;
+		}
+	}
+
+	public void testAll() {
+		testSetUp();
+		testSearchBooks();
+		testTitleSuggestions();
+		testSearchMembers();
+		testHoldExpiry();
+		testTransactionsInRange();
+		testDailyActivity();
+	}
+
+	public static void main(String[] args) {
+		new QueryTester().testAll();
+	}
+}
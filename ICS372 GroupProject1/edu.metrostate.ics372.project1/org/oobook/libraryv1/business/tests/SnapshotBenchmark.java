@@ -0,0 +1,142 @@
+package org.oobook.libraryv1.business.tests;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import org.oobook.libraryv1.business.collections.Catalog;
+import org.oobook.libraryv1.business.collections.MemberList;
+import org.oobook.libraryv1.business.entities.Book;
+import org.oobook.libraryv1.business.entities.Hold;
+import org.oobook.libraryv1.business.entities.LibraryClock;
+import org.oobook.libraryv1.business.entities.Member;
+import org.oobook.libraryv1.business.facade.Library;
+
+/**
+ * Compares the snapshot format of Library.save with Java serialization of the
+ * library, the way it was saved before, for a library of a million books. It
+ * reports the size of the file and the time to write and to read it. The files
+ * are written to a temporary directory (see LibraryDirectory). Serialization
+ * follows the references between books, members and holds recursively, so it
+ * may need a larger thread stack (-Xss) than the default.
+ *
+ */
+public class SnapshotBenchmark {
+	private static final int BOOKS = 1_000_000;
+	private static final int MEMBERS = 100_000;
+	private static final int LOANS = 200_000;
+	private static final int HOLDS = 50_000;
+	private static final String SERIALIZED_FILE = "LibraryData.ser";
+	private File directory = LibraryDirectory.create();
+
+	/**
+	 * Fills the library with books and members, issues some of the books and
+	 * places holds on some of the issued ones
+	 */
+	public void fill() {
+		Member[] members = new Member[MEMBERS];
+		for (int count = 0; count < MEMBERS; count++) {
+			members[count] = new Member("name" + count, "address" + count, "phone" + count);
+			MemberList.getInstance().insertMember(members[count]);
+		}
+		Book[] books = new Book[BOOKS];
+		for (int count = 0; count < BOOKS; count++) {
+			books[count] = new Book("title" + count, "author" + (count % 20_000), "B" + count);
+			Catalog.getInstance().insertBook(books[count]);
+		}
+		for (int count = 0; count < LOANS; count++) {
+			Member member = members[count % MEMBERS];
+			books[count].issue(member);
+			member.issue(books[count]);
+		}
+		long endTime = LibraryClock.daysFromNow(30);
+		for (int count = 0; count < HOLDS; count++) {
+			Member member = members[(count + 1) % MEMBERS];
+			Hold hold = new Hold(member, books[count], endTime);
+			books[count].placeHold(hold);
+			member.placeHold(hold);
+		}
+		Library.instance();
+	}
+
+	/**
+	 * Writes the library with Java serialization
+	 *
+	 * @return milliseconds taken
+	 * @throws IOException if the file cannot be written
+	 */
+	public double timeSerialize() throws IOException {
+		long start = System.nanoTime();
+		try (ObjectOutputStream output = new ObjectOutputStream(
+				new BufferedOutputStream(new FileOutputStream(new File(directory, SERIALIZED_FILE)), 1 << 16))) {
+			output.writeObject(Library.instance());
+			Member.save(output);
+		}
+		return (System.nanoTime() - start) / 1e6;
+	}
+
+	/**
+	 * Reads the library written by timeSerialize
+	 *
+	 * @return milliseconds taken
+	 * @throws Exception if the file cannot be read
+	 */
+	public double timeDeserialize() throws Exception {
+		long start = System.nanoTime();
+		try (ObjectInputStream input = new ObjectInputStream(
+				new BufferedInputStream(new FileInputStream(new File(directory, SERIALIZED_FILE)), 1 << 16))) {
+			input.readObject();
+			Member.retrieve(input);
+		}
+		return (System.nanoTime() - start) / 1e6;
+	}
+
+	/**
+	 * Writes the library with Library.save
+	 *
+	 * @return milliseconds taken
+	 */
+	public double timeSave() {
+		long start = System.nanoTime();
+		if (!Library.save()) {
+			throw new IllegalStateException("save failed");
+		}
+		return (System.nanoTime() - start) / 1e6;
+	}
+
+	/**
+	 * Reads the library with Library.retrieve
+	 *
+	 * @return milliseconds taken
+	 */
+	public double timeRetrieve() {
+		long start = System.nanoTime();
+		if (Library.retrieve() == null) {
+			throw new IllegalStateException("retrieve failed");
+		}
+		return (System.nanoTime() - start) / 1e6;
+	}
+
+	public void runAll() throws Exception {
+		fill();
+		timeSerialize();
+		double serialize = timeSerialize();
+		double deserialize = timeDeserialize();
+		timeSave();
+		double save = timeSave();
+		double retrieve = timeRetrieve();
+		System.out.printf("serialization: %,12d bytes, write %8.1f ms, read %8.1f ms%n",
+				new File(directory, SERIALIZED_FILE).length(), serialize, deserialize);
+		System.out.printf("snapshot:      %,12d bytes, write %8.1f ms, read %8.1f ms%n",
+				Library.getDataFile().length(), save, retrieve);
+	}
+
+	public static void main(String[] args) throws Exception {
+		new SnapshotBenchmark().runAll();
+	}
+}
@@ -0,0 +1,105 @@
+package org.oobook.libraryv1.business.tests;
+
+import java.util.Iterator;
+
+import org.oobook.libraryv1.business.collections.Catalog;
+import org.oobook.libraryv1.business.collections.MemberList;
+import org.oobook.libraryv1.business.facade.Library;
+import org.oobook.libraryv1.business.facade.Request;
+import org.oobook.libraryv1.business.facade.Result;
+
+/**
+ * Measures how long it takes from retrieving a saved library to having
+ * answered the first search for a book and a member, for libraries of growing
+ * size. For comparison it also measures reading every book and member after
+ * retrieving. The library grows between rounds through the facade, with one
+ * member per ten books. The number of loans, and so of transactions, stays the
+ * same, since the journal is read in full when the library is retrieved and
+ * its size would add to the time. The library files are written to
+ * a temporary directory (see LibraryDirectory).
+ *
+ */
+public class StartupBenchmark {
+	private static final int[] BOOKS = { 10_000, 100_000, 1_000_000 };
+	private static final int LOANS = 2_000;
+	private Library library = Library.instance();
+	private Request request = Request.instance();
+	private int books;
+	private int members;
+
+	/**
+	 * Adds books, members and loans until the library has the given number of
+	 * books, and saves it
+	 *
+	 * @param size the number of books
+	 */
+	public void grow(int size) {
+		for (; members < size / 10; members++) {
+			request.setMemberName("name" + members);
+			request.setMemberAddress("address" + members);
+			request.setMemberPhone("phone" + members);
+			library.addMember(request);
+		}
+		for (; books < size; books++) {
+			request.setBookTitle("title" + books);
+			request.setBookAuthor("author" + (books % 20_000));
+			request.setBookId("B" + books);
+			library.addBook(request);
+			if (books % 5 == 0 && books < 5 * LOANS) {
+				request.setMemberId("M" + (books / 5 % members + 1));
+				library.issueBook(request);
+			}
+		}
+		if (!Library.save()) {
+			throw new IllegalStateException("save failed");
+		}
+	}
+
+	/**
+	 * Retrieves the library and looks up a book and a member
+	 *
+	 * @return milliseconds taken
+	 */
+	public double timeFirstSearch() {
+		long start = System.nanoTime();
+		library = Library.retrieve();
+		if (Catalog.getInstance().search("B" + books / 2) == null
+				|| MemberList.getInstance().search("M" + members / 2) == null) {
+			throw new IllegalStateException("search failed");
+		}
+		return (System.nanoTime() - start) / 1e6;
+	}
+
+	/**
+	 * Retrieves the library and reads every book and member
+	 *
+	 * @return milliseconds taken
+	 */
+	public double timeLoadAll() {
+		long start = System.nanoTime();
+		library = Library.retrieve();
+		for (Iterator<Result> iterator = library.getBooks(); iterator.hasNext();) {
+			iterator.next();
+		}
+		for (Iterator<Result> iterator = library.getMembers(); iterator.hasNext();) {
+			iterator.next();
+		}
+		return (System.nanoTime() - start) / 1e6;
+	}
+
+	public void runAll() {
+		LibraryDirectory.create();
+		for (int size : BOOKS) {
+			grow(size);
+			timeFirstSearch();
+			double firstSearch = timeFirstSearch();
+			double loadAll = timeLoadAll();
+			System.out.printf("%,10d books, %,12d bytes: first search %8.1f ms, everything %8.1f ms%n", size,
+					Library.getDataFile().length(), firstSearch, loadAll);
+		}
+	}
+
+	public static void main(String[] args) {
+		new StartupBenchmark().runAll();
+	}
+}
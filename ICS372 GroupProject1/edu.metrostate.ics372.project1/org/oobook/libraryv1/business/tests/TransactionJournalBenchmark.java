@@ -0,0 +1,117 @@
+package org.oobook.libraryv1.business.tests;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.oobook.libraryv1.business.collections.TransactionJournal;
+
+/**
+ * Reports the heap used by transactions stored the old way, as objects with
+ * two Strings and a GregorianCalendar in per-member LinkedLists, and by
+ * TransactionJournal. The number of transactions can be given as the first
+ * argument; it defaults to 10,000,000. The old layout is measured on at most
+ * 1,000,000 transactions and scaled up, since at 10,000,000 it needs more
+ * heap than a typical machine has.
+ *
+ */
+public class TransactionJournalBenchmark {
+	private static final String[] TYPES = { "Issued", "Returned", "Renewed", "Hold placed", "Hold removed" };
+	private static final int MEMBERS = 100_000;
+	private static final int TITLES = 50_000;
+	private static final int OLD_LAYOUT_LIMIT = 1_000_000;
+	private String[] titles = new String[TITLES];
+	private String[] memberIds = new String[MEMBERS];
+
+	/*
+	 * The layout of a transaction before the journal
+	 */
+	private static class ObjectTransaction {
+		private String type;
+		private String title;
+		private Calendar date;
+
+		private ObjectTransaction(String type, String title) {
+			this.type = type;
+			this.title = title;
+			date = new GregorianCalendar();
+		}
+	}
+
+	public TransactionJournalBenchmark() {
+		for (int index = 0; index < TITLES; index++) {
+			titles[index] = "Title of book number " + index;
+		}
+		for (int index = 0; index < MEMBERS; index++) {
+			memberIds[index] = "M" + (index + 1);
+		}
+	}
+
+	/**
+	 * Stores transactions as objects in per-member lists.
+	 *
+	 * @param count number of transactions
+	 * @return bytes of heap used
+	 */
+	public long measureObjects(int count) {
+		long before = usedHeap();
+		List<List<ObjectTransaction>> byMember = new ArrayList<List<ObjectTransaction>>(MEMBERS);
+		for (int index = 0; index < MEMBERS; index++) {
+			byMember.add(new LinkedList<ObjectTransaction>());
+		}
+		for (int row = 0; row < count; row++) {
+			byMember.get(row % MEMBERS).add(new ObjectTransaction(TYPES[row % TYPES.length], titles[row % TITLES]));
+		}
+		long used = usedHeap() - before;
+		if (byMember.size() != MEMBERS) {
+			throw new IllegalStateException();
+		}
+		return used;
+	}
+
+	/**
+	 * Stores transactions in the journal.
+	 *
+	 * @param count number of transactions
+	 * @return bytes of heap used
+	 */
+	public long measureJournal(int count) {
+		long before = usedHeap();
+		TransactionJournal journal = TransactionJournal.getInstance();
+		long day = LocalDate.now().toEpochDay() - count / 100_000;
+		for (int row = 0; row < count; row++) {
+			journal.append(memberIds[row % MEMBERS], TYPES[row % TYPES.length], titles[row % TITLES],
+					day + row / 100_000);
+		}
+		long used = usedHeap() - before;
+		if (journal.size() != count) {
+			throw new IllegalStateException();
+		}
+		return used;
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int count = 0; count < 3; count++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	public void runAll(int count) {
+		int sample = Math.min(count, OLD_LAYOUT_LIMIT);
+		double objectBytes = (double) measureObjects(sample) / sample;
+		System.out.printf("objects:  %6.1f bytes per transaction, %,8d MB for %,d%n", objectBytes,
+				(long) (objectBytes * count) >> 20, count);
+		double journalBytes = (double) measureJournal(count) / count;
+		System.out.printf("journal:  %6.1f bytes per transaction, %,8d MB for %,d%n", journalBytes,
+				(long) (journalBytes * count) >> 20, count);
+	}
+
+	public static void main(String[] args) {
+		new TransactionJournalBenchmark().runAll(args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000);
+	}
+}
@@ -0,0 +1,114 @@
+package org.oobook.libraryv1.business.tests;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.oobook.libraryv1.business.collections.TransactionJournal;
+import org.oobook.libraryv1.business.entities.Transaction;
+
+/**
+ * Checks with asserts that the transaction journal answers its queries by day
+ * when transactions are not added in time order, as when the clock is set
+ * back, and that transactions are still archived and checkpointed correctly.
+ *
+ */
+public class TransactionJournalTester {
+	private static final long DAY = 20000;
+	private TransactionJournal journal;
+	private File directory;
+
+	/**
+	 * Adds transactions for days 10, 12, 11, 10, 13 and 9 after DAY, the
+	 * odd-numbered ones for M1 and the others for M2; the title is the order of
+	 * adding
+	 */
+	public void testAppendOutOfOrder() {
+		journal = TransactionJournal.fromTransactions(new ArrayList<Transaction>());
+		directory = LibraryDirectory.create();
+		long[] days = { 10, 12, 11, 10, 13, 9 };
+		for (int count = 0; count < days.length; count++) {
+			journal.append(days[count] % 2 == 1 ? "M1" : "M2", "Issued", "t" + count, DAY + days[count]);
+		}
+		assert journal.size() == days.length;
+		assert titles(journal.getTransactions(DAY, DAY + 20)).equals("t5 t0 t3 t2 t1 t4");
+		assert titles(journal.getTransactions(DAY + 10, DAY + 10)).equals("t0 t3");
+		assert titles(journal.getTransactions(DAY + 11, DAY + 12)).equals("t2 t1");
+		assert titles(journal.getTransactions("M1")).equals("t5 t2 t4");
+		assert titles(journal.getTransactions("M2")).equals("t0 t3 t1");
+		assert titles(journal.getTransactions("M2", DAY + 10)).equals("t0 t3");
+		assert titles(journal.getTransactions("M1", DAY + 9, DAY + 11)).equals("t5 t2");
+	}
+
+	/**
+	 * The transactions added from a given one on come in the order they were
+	 * added, not in order of day
+	 */
+	public void testTransactionsFrom() {
+		assert titles(journal.getTransactionsFrom(0)).equals("t0 t1 t2 t3 t4 t5");
+		assert titles(journal.getTransactionsFrom(3)).equals("t3 t4 t5");
+		assert titles(journal.getTransactionsFrom(6)).equals("");
+	}
+
+	/**
+	 * Archives the days before the 11th; the rows of those days leave memory,
+	 * and the rows kept are numbered again in the order they were added
+	 */
+	public void testArchive() {
+		assert journal.archive(DAY + 11);
+		assert journal.size() == 3;
+		assert journal.archivedSize() == 3;
+		assert titles(journal.getTransactions(DAY, DAY + 20)).equals("t5 t0 t3 t2 t1 t4");
+		assert titles(journal.getTransactions("M2")).equals("t0 t3 t1");
+		assert titles(journal.getTransactionsFrom(0)).equals("t1 t2 t4");
+		journal.append("M1", "Returned", "t6", DAY + 11);
+		assert titles(journal.getTransactions(DAY + 11, DAY + 11)).equals("t2 t6");
+		assert titles(journal.getTransactionsFrom(3)).equals("t6");
+	}
+
+	/**
+	 * Starts to archive the 11th and the days before; if the data that refers to
+	 * the segments is not written, nothing is archived and the segment files are
+	 * deleted. If it is, a transaction dated before the 12th but added since the
+	 * start stays in memory, and the transactions added before it are numbered
+	 * again as if the archived ones had never been added.
+	 */
+	public void testArchiveFinished() {
+		File directory = new File(this.directory, "LibraryArchive");
+		int files = directory.list().length;
+		assert journal.startArchive(DAY + 12);
+		assert journal.archivingSize() == 2;
+		assert directory.list().length == files + 1;
+		journal.finishArchive(false);
+		assert directory.list().length == files;
+		assert journal.size() == 4 && journal.archivedSize() == 3;
+		assert titles(journal.getTransactionsFrom(0)).equals("t1 t2 t4 t6");
+		assert journal.startArchive(DAY + 12);
+		int mark = journal.size() - journal.archivingSize();
+		journal.append("M2", "Returned", "t7", DAY + 10);
+		journal.finishArchive(true);
+		assert journal.size() == 3 && journal.archivedSize() == 5;
+		assert titles(journal.getTransactions(DAY, DAY + 20)).equals("t5 t0 t3 t2 t6 t7 t1 t4");
+		assert titles(journal.getTransactionsFrom(mark)).equals("t7");
+	}
+
+	private static String titles(Iterator<Transaction> iterator) {
+		List<String> titles = new ArrayList<String>();
+		while (iterator.hasNext()) {
+			titles.add(iterator.next().getTitle());
+		}
+		return String.join(" ", titles);
+	}
+
+	public void testAll() {
+		testAppendOutOfOrder();
+		testTransactionsFrom();
+		testArchive();
+		testArchiveFinished();
+	}
+
+	public static void main(String[] args) {
+		new TransactionJournalTester().testAll();
+	}
+}
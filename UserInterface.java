@@ -29,6 +29,7 @@ import java.util.GregorianCalendar;
 import java.util.Iterator;
 import java.util.StringTokenizer;
 
+import edu.metrostate.ics372.project1.entities.Money;
 import org.oobook.libraryv1.business.facade.GroceryStore;
 import org.oobook.libraryv1.business.facade.GroceryStore;
 import org.oobook.libraryv1.business.facade.Request;
@@ -164,6 +165,23 @@ public class UserInterface {
 		} while (true);
 	}
 
+	/**
+	 * Converts the string to a price in cents
+	 * 
+	 * @param prompt the string for prompting
+	 * @return the price in cents
+	 * 
+	 */
+	public long getPrice(String prompt) {
+		do {
+			try {
+				return Money.parse(getToken(prompt));
+			} catch (NumberFormatException nfe) {
+				System.out.println("Please input a price such as 4.99 ");
+			}
+		} while (true);
+	}
+
 	/**
 	 * Prompts for a date and gets a date object
 	 * 
@@ -308,8 +326,8 @@ public class UserInterface {
 	}
 
 	public void checkout(){
-		double price = 0;
-		double totalPrice = 0;
+		long price = 0;
+		long totalPrice = 0;
 		Request.instance().setMemberId(getToken("Enter member ID"));
 		result memberResult = groceryStore.searchMember(Request.instance());
 		if (memberResult.getResultCode() == Result.OPERATION_FAILED) {
@@ -334,13 +352,13 @@ public class UserInterface {
 		// the while loop continues to ask for more products
 		while(result.hasNext());
 			Result product = result.next();
-			price = Double.parseDouble(product.getProductQuantity() *
-					Double.parseDouble(product.getProductPrice());
+			// prices are in cents; they are formatted only for printing
+			price = product.getProductQuantity() * product.getProductPrice();
 			totalPrice += price;
 			System.out.println(product.getProductname() + "  " + product.getProductQuantity() + "  "
-					+ product.getProductPrice() + "   " + price);
-			Request.instance(*).setTotalAmount(Double.toString(totalPrice));
-			System.out.println("Total" + "\t" + totalPrice);
+					+ Money.format(product.getProductPrice()) + "   " + Money.format(price));
+			Request.instance().setTotalAmount(totalPrice);
+			System.out.println("Total" + "\t" + Money.format(totalPrice));
 			groceryStore.createTransaction(Request.instance());
 				
 				